@@ -0,0 +1,97 @@
+package org.musser.prsknowledgeagent;
+
+import static dev.langchain4j.model.openai.OpenAiChatModelName.GPT_4_O_MINI;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import dev.langchain4j.data.document.Document;
+import dev.langchain4j.data.document.splitter.DocumentSplitters;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.TokenCountEstimator;
+import dev.langchain4j.model.openai.OpenAiTokenCountEstimator;
+
+/**
+ * The bundled prs-docs.txt and a fixed set of questions, shared by the benchmarks so every run
+ * works on the same data.
+ */
+final class BenchCorpus {
+
+    /**
+     * A question and where its answer is: a fragment of the expected page URL, or
+     * {@code kw:<keyword>} for a keyword the retrieved text should contain.
+     */
+    record Question(String text, String expected) {
+
+        boolean answeredBy(TextSegment segment) {
+            return expected.startsWith("kw:")
+                    ? segment.text().toLowerCase().contains(expected.substring(3).toLowerCase())
+                    : segment.metadata().getString(PageDocuments.URL).contains(expected);
+        }
+    }
+
+    static final List<Question> QUESTIONS = List.of(
+            new Question("What pickups are in the Custom 24-08?", "/custom_24_08_20"),
+            new Question("What is the scale length of the McCarty 594?", "/mccarty_594_20"),
+            new Question("Tell me about the SE Silver Sky", "/se_silver_sky"),
+            new Question("What neck does the Silver Sky Maple have?", "/silver_sky_maple"),
+            new Question("What is the S2 Mira 594?", "/s2_mira_594"),
+            new Question("Specs of the NF 53", "/nf_53_20"),
+            new Question("What is the Fiore HH?", "/fiore_hh"),
+            new Question("What bridge is on the SE NF3?", "/se_nf3"),
+            new Question("What pickups does the DGT use?", "/dgt_20"),
+            new Question("Tell me about the Mark Holcomb SVN", "mark_holcomb_svn"),
+            new Question("What is the SE 277?", "/se_277"),
+            new Question("What is the CE 24 Semi-Hollow?", "/ce_24_semi_hollow"),
+            new Question("What woods are used on the Custom 24 Floyd?", "/custom_24_floyd"),
+            new Question("What is the Hollowbody II Piezo?", "/hollowbody_ii_piezo"),
+            new Question("Does the SE Custom 24 come left handed?", "/se_custom_24_lefty"),
+            new Question("What is the Modern Eagle V?", "/modern_eagle_v"),
+            new Question("What is the Myles Kennedy model?", "/myles_kennedy"),
+            new Question("What is the Santana Retro?", "/santana_retro"),
+            new Question("What is the S2 Vela Semi-Hollow?", "/s2_vela_semi_hollow"),
+            new Question("What is the S2 Standard 22?", "/s2_standard_22"),
+            new Question("What pickups come in the Custom 24?", "kw:85/15"),
+            new Question("What is the difference between Core and S2 guitars?", "kw:S2"),
+            new Question("Which PRS guitars are made in Maryland?", "kw:Maryland"),
+            new Question("What is a Silver Sky?", "kw:Silver Sky"),
+            new Question("What amplifiers does PRS make?", "kw:Archon"),
+            new Question("Who is Paul Reed Smith?", "kw:Paul Reed Smith"),
+            new Question("What is a 10 top?", "kw:10 Top"),
+            new Question("What are bird inlays?", "kw:bird"),
+            new Question("How do I adjust the truss rod?", "kw:truss rod"),
+            new Question("Which models have 58/15 pickups?", "kw:58/15"));
+
+    private BenchCorpus() {
+    }
+
+    static byte[] bytes() {
+        try (InputStream in = BenchCorpus.class.getClassLoader().getResourceAsStream("prs-docs.txt")) {
+            if (in == null) {
+                throw new IllegalStateException("prs-docs.txt is not on the classpath");
+            }
+            return in.readAllBytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static List<Document> pages() {
+        return PageDocuments.parse(new String(bytes(), StandardCharsets.UTF_8));
+    }
+
+    static TokenCountEstimator tokenizer() {
+        return new OpenAiTokenCountEstimator(GPT_4_O_MINI);
+    }
+
+    /**
+     * @return the segments {@link DocumentIndexer} would embed, before deduplication
+     */
+    static List<TextSegment> segments() {
+        return DocumentSplitters.recursive(DocumentIndexer.MAX_SEGMENT_TOKENS, DocumentIndexer.MAX_OVERLAP_TOKENS,
+                tokenizer()).splitAll(pages());
+    }
+}
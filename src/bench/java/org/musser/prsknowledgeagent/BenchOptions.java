@@ -0,0 +1,27 @@
+package org.musser.prsknowledgeagent;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Command-line options of the benchmark mains: {@code --name value} pairs, {@code --flag} alone
+ * meaning {@code true}.
+ */
+final class BenchOptions {
+
+    private BenchOptions() {
+    }
+
+    static Map<String, String> parse(String[] args) {
+        Map<String, String> options = new LinkedHashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--")) {
+                throw new IllegalArgumentException("Unexpected argument: " + args[i]);
+            }
+            String name = args[i].substring(2);
+            boolean flag = i + 1 == args.length || args[i + 1].startsWith("--");
+            options.put(name, flag ? "true" : args[++i]);
+        }
+        return options;
+    }
+}
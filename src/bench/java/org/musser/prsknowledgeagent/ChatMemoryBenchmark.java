@@ -0,0 +1,96 @@
+package org.musser.prsknowledgeagent;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.UserMessage;
+import io.lettuce.core.RedisClient;
+
+/**
+ * Chat memory writes through {@link RedisChatMemoryStore} and the shared Lettuce connection to
+ * {@link StubRedisServer}, from 8 threads with a session each: every operation appends a
+ * question and answer to a window of at most 20 messages, as a conversation does once its
+ * history is full. {@code redisLatency} adds a network round trip per command.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(8)
+public class ChatMemoryBenchmark {
+
+    private static final int WINDOW = 20;
+
+    @State(Scope.Benchmark)
+    public static class Redis {
+
+        @Param({ "PT0S", "PT0.0005S" })
+        public String redisLatency;
+
+        StubRedisServer server;
+        RedisClient client;
+        SharedRedisConnection connection;
+        RedisChatMemoryStore store;
+        final AtomicInteger sessions = new AtomicInteger();
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            server = new StubRedisServer(0, Duration.parse(redisLatency));
+            client = RedisClient.create(server.url());
+            connection = new SharedRedisConnection(client, Duration.ofSeconds(30));
+            store = RedisChatMemoryStore.builder().connection(connection).build();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            connection.close();
+            client.shutdown();
+            server.close();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Session {
+        String id;
+        List<ChatMessage> messages = new ArrayList<>();
+        int turn;
+
+        @Setup(Level.Trial)
+        public void setUp(Redis redis) {
+            id = "bench-" + redis.sessions.incrementAndGet();
+        }
+    }
+
+    @Benchmark
+    public void appendTurn(Redis redis, Session session) {
+        int turn = session.turn++;
+        session.messages.add(UserMessage.from("What is the scale length of guitar " + turn + "?"));
+        session.messages.add(AiMessage.from("Guitar " + turn + " has a 25\" scale length and a Pattern neck carve."));
+        if (session.messages.size() > WINDOW) {
+            session.messages.subList(0, session.messages.size() - WINDOW).clear();
+        }
+        redis.store.updateMessages(session.id, new ArrayList<>(session.messages));
+    }
+}
@@ -0,0 +1,77 @@
+package org.musser.prsknowledgeagent;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.embedding.onnx.allminilml6v2q.AllMiniLmL6V2QuantizedEmbeddingModel;
+
+/**
+ * Cost of the ONNX embedding model as the application uses it: one question at a time (a query
+ * embedding cache miss), a cache hit, and batches of prs-docs.txt segments as ingestion embeds
+ * them (reported per segment).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EmbeddingBenchmark {
+
+    private static final int BATCH_SIZE = 64;
+
+    private EmbeddingModel model;
+    private CachedEmbeddingModel cachedModel;
+    private List<TextSegment> segments;
+    private int nextQuestion;
+    private int nextBatch;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        model = new AllMiniLmL6V2QuantizedEmbeddingModel(Runnable::run);
+        cachedModel = new CachedEmbeddingModel(model, 10_000, Duration.ofHours(1),
+                ConcurrencyLimiter.fixed("embedding", Runtime.getRuntime().availableProcessors(), Duration.ofSeconds(5)));
+        for (BenchCorpus.Question question : BenchCorpus.QUESTIONS) {
+            cachedModel.embed(question.text());
+        }
+        segments = BenchCorpus.segments();
+    }
+
+    @Benchmark
+    public Embedding embedQuestion() {
+        return model.embed(question()).content();
+    }
+
+    @Benchmark
+    public Embedding embedQuestionCached() {
+        return cachedModel.embed(question()).content();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public List<Embedding> embedSegmentBatch() {
+        int from = (nextBatch++ * BATCH_SIZE) % (segments.size() - BATCH_SIZE);
+        return model.embedAll(segments.subList(from, from + BATCH_SIZE)).content();
+    }
+
+    private String question() {
+        return BenchCorpus.QUESTIONS.get(nextQuestion++ % BenchCorpus.QUESTIONS.size()).text();
+    }
+}
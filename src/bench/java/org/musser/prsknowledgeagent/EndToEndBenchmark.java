@@ -0,0 +1,77 @@
+package org.musser.prsknowledgeagent;
+
+import java.net.URI;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Runs the whole application offline against {@link StubChatServer} and {@link StubRedisServer},
+ * waits for ingestion, drives it with {@link LoadDriver} and prints throughput, latency
+ * percentiles, what the stub model saw, and the mean time spent in each {@link RagMetrics} stage.
+ *
+ * The embedding snapshot is kept under {@code java.io.tmpdir} between runs, so only the first
+ * run embeds prs-docs.txt. Takes the options of the stubs and the driver, plus
+ * {@code --answer-cache true|false}, {@code --redis-latency PT0.0005S} and
+ * {@code --embedding-store hnsw|flat|in-memory|redis} (with {@code redis} the application is the
+ * writer of the shared index, publishing to the stub), e.g.
+ * {@code --concurrency 64 --duration PT60S --latency PT0.8S --max-concurrent 32 --stream}.
+ */
+public class EndToEndBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = BenchOptions.parse(args);
+        try (StubChatServer chat = StubChatServer.fromOptions(options, 0);
+                StubRedisServer redis = new StubRedisServer(0,
+                        Duration.parse(options.getOrDefault("redis-latency", "PT0S")))) {
+            ConfigurableApplicationContext context = SpringApplication.run(PRSKnowledgeAgentApplication.class,
+                    "--server.port=0",
+                    "--redis.url=" + redis.url(),
+                    "--langchain4j.open-ai.chat-model.base-url=" + chat.baseUrl(),
+                    "--langchain4j.open-ai.chat-model.api-key=bench",
+                    "--prs.snapshot.path=" + Path.of(System.getProperty("java.io.tmpdir"), "prs-bench-embeddings.bin"),
+                    "--prs.answer-cache.enabled=" + options.getOrDefault("answer-cache", "false"),
+                    "--prs.embedding-store.type=" + options.getOrDefault("embedding-store", "hnsw"),
+                    "--prs.redis-index.writer=true",
+                    "--prs.metrics.sample-rate=1",
+                    "--logging.level.root=WARN");
+            try {
+                long start = System.nanoTime();
+                if (!context.getBean(IngestionStatus.class).awaitReady(Duration.ofMinutes(30))) {
+                    throw new IllegalStateException("Ingestion did not finish");
+                }
+                System.out.printf("Ingestion ready after %.1f s%n", (System.nanoTime() - start) / 1e9);
+                URI base = URI.create("http://127.0.0.1:" + context.getEnvironment().getProperty("local.server.port"));
+                LoadDriver.Report report = LoadDriver.fromOptions(options, base).run(
+                        Duration.parse(options.getOrDefault("warmup", "PT5S")),
+                        Duration.parse(options.getOrDefault("duration", "PT30S")));
+                report.print();
+                System.out.println("stub model: " + chat.requests() + " requests, " + chat.rejected() + " rejected with 429");
+                printStages(context.getBean(MeterRegistry.class));
+            } finally {
+                context.close();
+            }
+        }
+        // The model clients' HTTP threads are not daemons
+        System.exit(0);
+    }
+
+    private static void printStages(MeterRegistry registry) {
+        registry.find("prs.rag.stage").timers().stream()
+                .sorted(Comparator.comparing((Timer timer) -> timer.getId().getTag("stage")))
+                .forEach(timer -> System.out.printf("stage %-16s n=%-7d mean %8.2f ms  max %8.2f ms%n",
+                        timer.getId().getTag("stage"), timer.count(), timer.mean(TimeUnit.MILLISECONDS),
+                        timer.max(TimeUnit.MILLISECONDS)));
+        registry.find("prs.redis.command").timers().forEach(timer -> System.out.printf(
+                "redis %-16s n=%-7d mean %8.3f ms%n", timer.getId().getTag("command"), timer.count(),
+                timer.mean(TimeUnit.MILLISECONDS)));
+    }
+}
@@ -0,0 +1,82 @@
+package org.musser.prsknowledgeagent;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.embedding.onnx.allminilml6v2q.AllMiniLmL6V2QuantizedEmbeddingModel;
+
+/**
+ * A full index of prs-docs.txt from scratch, as on a first start without a snapshot: splitting,
+ * deduplication, embedding on {@code workers} threads, HNSW and BM25 inserts and the snapshot
+ * write. The ingestion log line of each run reports the segments embedded and skipped.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+@State(Scope.Benchmark)
+public class IngestionBenchmark {
+
+    @Param({ "1", "2", "4" })
+    public int workers;
+
+    @Param({ "true", "false" })
+    public boolean deduplicate;
+
+    private EmbeddingModel model;
+    private byte[] source;
+    private Path directory;
+    private DocumentIndexer indexer;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        model = new AllMiniLmL6V2QuantizedEmbeddingModel(Runnable::run);
+        source = BenchCorpus.bytes();
+        directory = Files.createTempDirectory("prs-ingestion-bench");
+    }
+
+    @Setup(Level.Invocation)
+    public void newIndex() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : files.toList()) {
+                Files.delete(file);
+            }
+        }
+        indexer = new DocumentIndexer(new HnswEmbeddingStore(16, 100, 50), model, BenchCorpus.tokenizer(),
+                new IngestionStatus(), directory.resolve("embeddings.bin"), 64, workers, deduplicate, new Bm25Index());
+    }
+
+    @Benchmark
+    public DocumentIndexer.Result reindex() throws IOException, InterruptedException {
+        return indexer.reindex(source);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package org.musser.prsknowledgeagent;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+/**
+ * Closed-loop load against {@link PRSKnowledgeAgentController}: {@code concurrency} virtual
+ * threads each send a question, wait for the whole answer and send the next, cycling through
+ * {@link BenchCorpus#QUESTIONS}. Reports throughput, latency percentiles and, for the SSE
+ * endpoint, time to the first token.
+ *
+ * Each client keeps one session, so after its first question answers go through chat memory
+ * and the model; with {@code fresh-sessions} every request is a session's first question and can
+ * be answered from the semantic answer cache. Results from the warm-up period are discarded.
+ *
+ * Run against a running application with {@code --url http://localhost:8080 [--concurrency 32]
+ * [--duration PT30S] [--warmup PT5S] [--stream] [--fresh-sessions]}.
+ */
+public class LoadDriver {
+
+    /**
+     * Latencies in nanoseconds; {@code firstTokens} is empty for the blocking endpoint.
+     */
+    public record Report(long requests, Map<String, Long> errors, Duration elapsed, long[] latencies,
+            long[] firstTokens) {
+
+        public double throughput() {
+            return requests / (elapsed.toNanos() / 1e9);
+        }
+
+        public void print() {
+            long failed = errors.values().stream().mapToLong(Long::longValue).sum();
+            System.out.printf("requests %d in %.1f s: %.1f req/s, %d failed %s%n", requests, elapsed.toNanos() / 1e9,
+                    throughput(), failed, errors.isEmpty() ? "" : errors);
+            System.out.println("latency     " + percentiles(latencies));
+            if (firstTokens.length > 0) {
+                System.out.println("first token " + percentiles(firstTokens));
+            }
+        }
+
+        private static String percentiles(long[] sorted) {
+            if (sorted.length == 0) {
+                return "-";
+            }
+            return String.format("p50 %.1f ms  p90 %.1f ms  p99 %.1f ms  max %.1f ms", at(sorted, 0.50) / 1e6,
+                    at(sorted, 0.90) / 1e6, at(sorted, 0.99) / 1e6, sorted[sorted.length - 1] / 1e6);
+        }
+
+        private static long at(long[] sorted, double quantile) {
+            return sorted[Math.min(sorted.length - 1, (int) Math.ceil(quantile * sorted.length) - 1)];
+        }
+    }
+
+    private static final class Samples {
+        long[] latencies = new long[1024];
+        long[] firstTokens = new long[1024];
+        int size;
+        int firstTokenSize;
+        final Map<String, Long> errors = new TreeMap<>();
+
+        void add(long latency, long firstToken) {
+            if (size == latencies.length) {
+                latencies = Arrays.copyOf(latencies, size * 2);
+            }
+            latencies[size++] = latency;
+            if (firstToken >= 0) {
+                if (firstTokenSize == firstTokens.length) {
+                    firstTokens = Arrays.copyOf(firstTokens, firstTokenSize * 2);
+                }
+                firstTokens[firstTokenSize++] = firstToken;
+            }
+        }
+    }
+
+    private final HttpClient client = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .executor(Executors.newVirtualThreadPerTaskExecutor())
+            .connectTimeout(Duration.ofSeconds(10))
+            .build();
+    private final URI base;
+    private final int concurrency;
+    private final boolean stream;
+    private final boolean freshSessions;
+
+    public LoadDriver(URI base, int concurrency, boolean stream, boolean freshSessions) {
+        this.base = base;
+        this.concurrency = concurrency;
+        this.stream = stream;
+        this.freshSessions = freshSessions;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = BenchOptions.parse(args);
+        LoadDriver driver = fromOptions(options, URI.create(options.getOrDefault("url", "http://localhost:8080")));
+        driver.run(Duration.parse(options.getOrDefault("warmup", "PT5S")),
+                Duration.parse(options.getOrDefault("duration", "PT30S"))).print();
+        System.exit(0);
+    }
+
+    static LoadDriver fromOptions(Map<String, String> options, URI base) {
+        return new LoadDriver(base, Integer.parseInt(options.getOrDefault("concurrency", "32")),
+                Boolean.parseBoolean(options.getOrDefault("stream", "false")),
+                Boolean.parseBoolean(options.getOrDefault("fresh-sessions", "false")));
+    }
+
+    public Report run(Duration warmup, Duration duration) throws InterruptedException {
+        long start = System.nanoTime();
+        long measureFrom = start + warmup.toNanos();
+        long end = measureFrom + duration.toNanos();
+        List<Future<Samples>> clients = new ArrayList<>(concurrency);
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < concurrency; i++) {
+                int clientId = i;
+                clients.add(executor.submit(() -> client(clientId, measureFrom, end)));
+            }
+        }
+        Map<String, Long> errors = new TreeMap<>();
+        long requests = 0;
+        List<long[]> latencies = new ArrayList<>();
+        List<long[]> firstTokens = new ArrayList<>();
+        for (Future<Samples> future : clients) {
+            Samples samples;
+            try {
+                samples = future.get();
+            } catch (ExecutionException e) {
+                throw new IllegalStateException(e.getCause());
+            }
+            requests += samples.size;
+            latencies.add(Arrays.copyOf(samples.latencies, samples.size));
+            firstTokens.add(Arrays.copyOf(samples.firstTokens, samples.firstTokenSize));
+            samples.errors.forEach((error, count) -> errors.merge(error, count, Long::sum));
+        }
+        long elapsed = Math.min(System.nanoTime(), end) - measureFrom;
+        return new Report(requests, errors, Duration.ofNanos(Math.max(1, elapsed)), merge(latencies),
+                merge(firstTokens));
+    }
+
+    private Samples client(int clientId, long measureFrom, long end) {
+        Samples samples = new Samples();
+        String session = "load-" + clientId;
+        int n = clientId;
+        while (System.nanoTime() < end) {
+            BenchCorpus.Question question = BenchCorpus.QUESTIONS.get(n % BenchCorpus.QUESTIONS.size());
+            String sessionId = freshSessions ? session + "-" + n : session;
+            n++;
+            long sent = System.nanoTime();
+            long firstToken = -1;
+            String error;
+            try {
+                if (stream) {
+                    long[] first = { -1 };
+                    error = stream(question.text(), sessionId, sent, first);
+                    firstToken = first[0];
+                } else {
+                    HttpResponse<Void> response = client.send(request("/prsKnowledgeAgent", question.text(), sessionId),
+                            HttpResponse.BodyHandlers.discarding());
+                    error = response.statusCode() == 200 ? null : Integer.toString(response.statusCode());
+                }
+            } catch (IOException e) {
+                error = e.getClass().getSimpleName();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            long done = System.nanoTime();
+            if (sent < measureFrom || done > end) {
+                continue;
+            }
+            if (error == null) {
+                samples.add(done - sent, firstToken);
+            } else {
+                samples.errors.merge(error, 1L, Long::sum);
+            }
+        }
+        return samples;
+    }
+
+    /**
+     * @return null when the answer completed, otherwise why not
+     */
+    private String stream(String question, String sessionId, long sent, long[] firstToken)
+            throws IOException, InterruptedException {
+        HttpResponse<Stream<String>> response = client.send(request("/prsKnowledgeAgent/stream", question, sessionId),
+                HttpResponse.BodyHandlers.ofLines());
+        try (Stream<String> lines = response.body()) {
+            if (response.statusCode() != 200) {
+                return Integer.toString(response.statusCode());
+            }
+            Iterator<String> iterator = lines.iterator();
+            while (iterator.hasNext()) {
+                String line = iterator.next();
+                if (line.startsWith("event:token") && firstToken[0] < 0) {
+                    firstToken[0] = System.nanoTime() - sent;
+                } else if (line.startsWith("event:done")) {
+                    return null;
+                } else if (line.startsWith("event:notice")) {
+                    return "notice";
+                }
+            }
+            return "truncated";
+        }
+    }
+
+    private HttpRequest request(String path, String question, String sessionId) {
+        String query = "?userMessage=" + URLEncoder.encode(question, StandardCharsets.UTF_8) + "&sessionId="
+                + URLEncoder.encode(sessionId, StandardCharsets.UTF_8);
+        return HttpRequest.newBuilder(base.resolve(path + query))
+                .timeout(Duration.ofMinutes(2))
+                .GET()
+                .build();
+    }
+
+    private static long[] merge(List<long[]> parts) {
+        long[] merged = parts.stream().flatMapToLong(Arrays::stream).toArray();
+        Arrays.sort(merged);
+        return merged;
+    }
+}
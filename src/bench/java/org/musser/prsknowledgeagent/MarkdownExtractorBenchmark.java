@@ -0,0 +1,125 @@
+package org.musser.prsknowledgeagent;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Element;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import dev.langchain4j.data.document.Document;
+
+/**
+ * Crawl-side HTML to markdown conversion over pages rebuilt from prs-docs.txt (headings,
+ * paragraphs and lists inside site navigation, scripts and a footer): {@link MarkdownExtractor}
+ * converting while it parses, against parsing the whole document and selecting
+ * {@code p, li} as the crawler used to. Run with {@code -prof gc} to compare allocation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MarkdownExtractorBenchmark {
+
+    private static final String CHROME_START = """
+            <!DOCTYPE html><html><head><title>%s</title>
+            <script>window.dataLayer = window.dataLayer || []; function gtag(){dataLayer.push(arguments);}</script>
+            <style>body { font-family: sans-serif; }</style></head>
+            <body><nav><ul>%s</ul></nav><main><article>
+            """;
+    private static final String CHROME_END = """
+            </article></main><footer><p>&copy; PRS Guitars</p><ul>%s</ul></footer></body></html>
+            """;
+
+    private List<String> html;
+    private List<String> urls;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        StringBuilder navigation = new StringBuilder();
+        for (int i = 0; i < 60; i++) {
+            navigation.append("<li><a href=\"/guitars/model-").append(i).append("\">Model ").append(i).append("</a></li>");
+        }
+        html = new ArrayList<>();
+        urls = new ArrayList<>();
+        for (Document page : BenchCorpus.pages()) {
+            urls.add(page.metadata().getString(PageDocuments.URL));
+            html.add(toHtml(page.text(), navigation.toString()));
+        }
+    }
+
+    @Benchmark
+    public int streaming() throws IOException {
+        int length = 0;
+        for (int i = 0; i < html.size(); i++) {
+            length += MarkdownExtractor.extract(new StringReader(html.get(i)), urls.get(i)).markdown().length();
+        }
+        return length;
+    }
+
+    @Benchmark
+    public int documentSelect() {
+        int length = 0;
+        for (int i = 0; i < html.size(); i++) {
+            org.jsoup.nodes.Document document = Jsoup.parse(html.get(i), urls.get(i));
+            StringBuilder markdown = new StringBuilder("# ").append(document.title()).append("\n\n");
+            for (Element element : document.select("p, li")) {
+                markdown.append(element.text()).append("\n\n");
+            }
+            length += markdown.length() + document.select("a[href]").size();
+        }
+        return length;
+    }
+
+    private static String toHtml(String markdown, String navigation) {
+        StringBuilder out = new StringBuilder();
+        String title = "";
+        boolean inList = false;
+        for (String line : markdown.split("\n")) {
+            if (line.startsWith("## Page: ") || line.isBlank()) {
+                continue;
+            }
+            boolean item = line.startsWith("- ");
+            if (inList && !item) {
+                out.append("</ul>");
+            } else if (!inList && item) {
+                out.append("<ul>");
+            }
+            inList = item;
+            String text = escape(line.replaceFirst("^(#+|-) ", ""));
+            if (line.startsWith("# ") && title.isEmpty()) {
+                title = text;
+            } else if (line.startsWith("#")) {
+                int level = Math.max(1, Math.min(3, line.indexOf(' ')));
+                out.append("<h").append(level).append('>').append(text).append("</h").append(level).append('>');
+            } else if (item) {
+                out.append("<li>").append(text).append("</li>");
+            } else {
+                out.append("<p>").append(text).append("</p>\n");
+            }
+        }
+        if (inList) {
+            out.append("</ul>");
+        }
+        return CHROME_START.formatted(title, navigation) + out + CHROME_END.formatted(navigation);
+    }
+
+    private static String escape(String text) {
+        return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+    }
+}
@@ -0,0 +1,121 @@
+package org.musser.prsknowledgeagent;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.TokenCountEstimator;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.embedding.onnx.allminilml6v2q.AllMiniLmL6V2QuantizedEmbeddingModel;
+import dev.langchain4j.rag.content.Content;
+import dev.langchain4j.rag.content.retriever.ContentRetriever;
+import dev.langchain4j.rag.content.retriever.EmbeddingStoreContentRetriever;
+import dev.langchain4j.rag.query.Query;
+import dev.langchain4j.store.embedding.EmbeddingStore;
+
+/**
+ * Retrieval over the real prs-docs.txt index with warm query embeddings, as configured in
+ * {@link PRSKnowledgeAgentConfiguration}: vector search fused with BM25 ({@code hybrid}) or vector
+ * search alone ({@code vector}). Setup indexes the corpus with the ONNX model and prints hit@5
+ * on {@link BenchCorpus#QUESTIONS} for the mode, so quality and latency are read together, and
+ * the same after {@link ContextPackingContentAggregator} with the mean context tokens before and
+ * after packing.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RetrievalBenchmark {
+
+    private static final int MAX_RESULTS = 5;
+    private static final double MIN_SCORE = 0.6;
+    private static final int MAX_CONTEXT_TOKENS = 1800;
+
+    @Param({ "hybrid", "vector" })
+    public String mode;
+
+    private Path directory;
+    private ContentRetriever retriever;
+    private List<Query> queries;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, InterruptedException {
+        EmbeddingModel model = new AllMiniLmL6V2QuantizedEmbeddingModel(Runnable::run);
+        EmbeddingStore<TextSegment> store = new HnswEmbeddingStore(16, 100, 50);
+        Bm25Index lexicalIndex = new Bm25Index();
+        directory = Files.createTempDirectory("prs-retrieval-bench");
+        new DocumentIndexer(store, model, BenchCorpus.tokenizer(), new IngestionStatus(),
+                directory.resolve("embeddings.bin"), 64, 0, true, lexicalIndex).reindex(BenchCorpus.bytes());
+
+        CachedEmbeddingModel queryModel = new CachedEmbeddingModel(model, 10_000, Duration.ofHours(1),
+                ConcurrencyLimiter.fixed("embedding", Runtime.getRuntime().availableProcessors(), Duration.ofSeconds(5)));
+        retriever = switch (mode) {
+            case "hybrid" -> new HybridContentRetriever(store, queryModel, lexicalIndex, MAX_RESULTS, MIN_SCORE, 30, 60,
+                    RagMetrics.disabled());
+            case "vector" -> EmbeddingStoreContentRetriever.builder()
+                    .embeddingStore(store)
+                    .embeddingModel(queryModel)
+                    .maxResults(MAX_RESULTS)
+                    .minScore(MIN_SCORE)
+                    .build();
+            default -> throw new IllegalArgumentException(mode);
+        };
+
+        queries = BenchCorpus.QUESTIONS.stream().map(question -> Query.from(question.text())).toList();
+        TokenCountEstimator tokenizer = BenchCorpus.tokenizer();
+        ContextPackingContentAggregator packer = new ContextPackingContentAggregator(tokenizer, MAX_CONTEXT_TOKENS,
+                RagMetrics.disabled());
+        int hits = 0;
+        int packedHits = 0;
+        long tokens = 0;
+        long packedTokens = 0;
+        for (BenchCorpus.Question question : BenchCorpus.QUESTIONS) {
+            List<Content> contents = retriever.retrieve(Query.from(question.text()));
+            List<Content> packed = packer.pack(contents);
+            hits += contents.stream().anyMatch(content -> question.answeredBy(content.textSegment())) ? 1 : 0;
+            packedHits += packed.stream().anyMatch(content -> question.answeredBy(content.textSegment())) ? 1 : 0;
+            tokens += contents.stream().mapToInt(content -> tokenizer.estimateTokenCountInText(content.textSegment().text())).sum();
+            packedTokens += packed.stream().mapToInt(content -> tokenizer.estimateTokenCountInText(content.textSegment().text())).sum();
+        }
+        int questions = BenchCorpus.QUESTIONS.size();
+        System.out.printf("%n%s: hit@%d %d/%d, %d tokens; packed: hit %d/%d, %d tokens%n", mode, MAX_RESULTS, hits,
+                questions, tokens / questions, packedHits, questions, packedTokens / questions);
+    }
+
+    @Benchmark
+    public List<Content> retrieve() {
+        return retriever.retrieve(queries.get(next++ % queries.size()));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package org.musser.prsknowledgeagent;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import dev.langchain4j.data.document.Document;
+import dev.langchain4j.data.document.DocumentSplitter;
+import dev.langchain4j.data.document.splitter.DocumentSplitters;
+import dev.langchain4j.data.segment.TextSegment;
+
+/**
+ * The CPU work of ingestion before embedding, over the whole of prs-docs.txt: parsing it into
+ * pages, splitting them with {@code DocumentSplitters.recursive} and the token estimator used by
+ * {@link DocumentIndexer}, and fingerprinting the segments for near-duplicate detection.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SplitterBenchmark {
+
+    private String text;
+    private List<Document> pages;
+    private DocumentSplitter splitter;
+    private List<TextSegment> segments;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        text = new String(BenchCorpus.bytes(), StandardCharsets.UTF_8);
+        pages = PageDocuments.parse(text);
+        splitter = DocumentSplitters.recursive(DocumentIndexer.MAX_SEGMENT_TOKENS, DocumentIndexer.MAX_OVERLAP_TOKENS,
+                BenchCorpus.tokenizer());
+        segments = splitter.splitAll(pages);
+    }
+
+    @Benchmark
+    public List<Document> parsePages() {
+        return PageDocuments.parse(text);
+    }
+
+    @Benchmark
+    public List<TextSegment> split() {
+        return splitter.splitAll(pages);
+    }
+
+    @Benchmark
+    public long fingerprint() {
+        long combined = 0;
+        for (TextSegment segment : segments) {
+            combined ^= NearDuplicateIndex.fingerprint(segment.text());
+        }
+        return combined;
+    }
+}
@@ -0,0 +1,187 @@
+package org.musser.prsknowledgeagent;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cold starts of the application, each in a fresh JVM against {@link StubChatServer} and
+ * {@link StubRedisServer}, with the embedding snapshot already in place (as on an instance
+ * scaled from zero). For each run it measures, from process launch: when the port answers
+ * ({@code listening}), when the readiness probe passes ({@code ready}), and when the answer to
+ * a first question sent at that point is complete ({@code first answer}). Prints the median and
+ * every run, and the application's {@link StartupTimeline} of the last run. An untimed start
+ * comes first, to write the snapshot if it is missing or stale and to warm the page cache.
+ *
+ * Takes {@code --runs 5}, {@code --classpath} (this JVM's by default; CDS only archives classes
+ * from jars, so pass the application jar or the extracted layout to measure it),
+ * {@code --jvm-args "-Xmx2g ..."}, {@code --aot} to run with {@code -Dspring.aot.enabled=true}
+ * (the classpath must contain the output of {@code mvn -Pstartup package}), and {@code --cds}
+ * to first make a training run that writes a class data sharing archive, then start every run
+ * from it, e.g. {@code --classpath target/prs-knowledge-agent.jar --cds --aot}.
+ */
+public class StartupBenchmark {
+
+    private static final String MAIN_CLASS = PRSKnowledgeAgentApplication.class.getName();
+
+    private final HttpClient client = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofSeconds(1))
+            .build();
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = BenchOptions.parse(args);
+        // The first answer should measure the application, not the stub model
+        options.putIfAbsent("latency", "PT0S");
+        options.putIfAbsent("token-delay", "PT0S");
+        options.putIfAbsent("tokens", "20");
+        try (StubChatServer chat = StubChatServer.fromOptions(options, 0);
+                StubRedisServer redis = new StubRedisServer(0, Duration.ZERO)) {
+            new StartupBenchmark().run(options, chat, redis);
+        }
+        System.exit(0);
+    }
+
+    private void run(Map<String, String> options, StubChatServer chat, StubRedisServer redis) throws Exception {
+        String classpath = options.getOrDefault("classpath", System.getProperty("java.class.path"));
+        List<String> jvmArgs = new ArrayList<>();
+        if (options.containsKey("jvm-args")) {
+            jvmArgs.addAll(Arrays.asList(options.get("jvm-args").trim().split("\\s+")));
+        }
+        if (Boolean.parseBoolean(options.getOrDefault("aot", "false"))) {
+            jvmArgs.add("-Dspring.aot.enabled=true");
+        }
+        List<String> appArgs = List.of(
+                "--redis.url=" + redis.url(),
+                "--langchain4j.open-ai.chat-model.base-url=" + chat.baseUrl(),
+                "--langchain4j.open-ai.chat-model.api-key=bench",
+                "--prs.snapshot.path=" + Path.of(System.getProperty("java.io.tmpdir"), "prs-bench-embeddings.bin"),
+                "--logging.level.root=WARN");
+        Path log = Files.createTempFile("prs-startup", ".log");
+        coldStart(classpath, jvmArgs, appArgs, log);
+
+        if (Boolean.parseBoolean(options.getOrDefault("cds", "false"))) {
+            Path archive = Path.of(System.getProperty("java.io.tmpdir"), "prs-startup-bench.jsa");
+            List<String> training = new ArrayList<>(jvmArgs);
+            training.add("-XX:ArchiveClassesAtExit=" + archive);
+            training.add("-Dspring.context.exit=onRefresh");
+            long start = System.nanoTime();
+            Process process = launch(classpath, training, appArgs, 0, log);
+            if (!process.waitFor(5, TimeUnit.MINUTES) || !Files.exists(archive)) {
+                process.destroyForcibly();
+                throw new IllegalStateException("Training run did not write " + archive + ", see " + log);
+            }
+            System.out.printf("CDS archive %s (%d MB) written in %.1f s%n", archive, Files.size(archive) >> 20,
+                    (System.nanoTime() - start) / 1e9);
+            jvmArgs.add("-XX:SharedArchiveFile=" + archive);
+        }
+
+        int runs = Integer.parseInt(options.getOrDefault("runs", "5"));
+        long[][] results = new long[3][runs];
+        for (int i = 0; i < runs; i++) {
+            long[] run = coldStart(classpath, jvmArgs, appArgs, log);
+            for (int j = 0; j < 3; j++) {
+                results[j][i] = run[j];
+            }
+            System.out.printf("run %d: listening %5d ms  ready %5d ms  first answer %5d ms%n", i + 1,
+                    run[0] / 1_000_000, run[1] / 1_000_000, run[2] / 1_000_000);
+        }
+        System.out.printf("median: listening %5d ms  ready %5d ms  first answer %5d ms   (%s)%n",
+                median(results[0]) / 1_000_000, median(results[1]) / 1_000_000, median(results[2]) / 1_000_000,
+                String.join(" ", jvmArgs));
+        Files.readAllLines(log).stream().filter(line -> line.startsWith("Startup")).forEach(System.out::println);
+        Files.delete(log);
+    }
+
+    /**
+     * @return nanoseconds from launch to listening, ready and first answer
+     */
+    private long[] coldStart(String classpath, List<String> jvmArgs, List<String> appArgs, Path log)
+            throws IOException, InterruptedException {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        URI base = URI.create("http://127.0.0.1:" + port);
+        long start = System.nanoTime();
+        Process process = launch(classpath, jvmArgs, appArgs, port, log);
+        try {
+            long listening = -1;
+            long ready = -1;
+            long deadline = start + TimeUnit.MINUTES.toNanos(5);
+            while (ready < 0) {
+                if (!process.isAlive() || System.nanoTime() > deadline) {
+                    throw new IllegalStateException("Application did not become ready, see " + log);
+                }
+                int status = status(base.resolve("/actuator/health/readiness"));
+                if (status > 0 && listening < 0) {
+                    listening = System.nanoTime() - start;
+                }
+                if (status == 200) {
+                    ready = System.nanoTime() - start;
+                } else {
+                    Thread.sleep(5);
+                }
+            }
+            String question = URLEncoder.encode(BenchCorpus.QUESTIONS.get(0).text(), StandardCharsets.UTF_8);
+            int status = status(base.resolve("/prsKnowledgeAgent?sessionId=startup&userMessage=" + question));
+            if (status != 200) {
+                throw new IllegalStateException("First question failed with " + status + ", see " + log);
+            }
+            return new long[] { listening, ready, System.nanoTime() - start };
+        } finally {
+            process.destroy();
+            if (!process.waitFor(30, TimeUnit.SECONDS)) {
+                process.destroyForcibly().waitFor();
+            }
+        }
+    }
+
+    private static Process launch(String classpath, List<String> jvmArgs, List<String> appArgs, int port, Path log)
+            throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        command.addAll(jvmArgs);
+        command.add("-cp");
+        command.add(classpath);
+        command.add(MAIN_CLASS);
+        command.add("--server.port=" + port);
+        command.addAll(appArgs);
+        return new ProcessBuilder(command)
+                .redirectErrorStream(true)
+                .redirectOutput(log.toFile())
+                .start();
+    }
+
+    /**
+     * @return the response status, or 0 while nothing listens on the port yet
+     */
+    private int status(URI uri) throws IOException, InterruptedException {
+        try {
+            return client.send(HttpRequest.newBuilder(uri).timeout(Duration.ofMinutes(2)).GET().build(),
+                    HttpResponse.BodyHandlers.discarding()).statusCode();
+        } catch (ConnectException e) {
+            return 0;
+        }
+    }
+
+    private static long median(long[] values) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+}
@@ -0,0 +1,214 @@
+package org.musser.prsknowledgeagent;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Stand-in for the OpenAI-compatible chat completions API, so the application can be
+ * load-tested offline at a known model latency.
+ *
+ * {@code POST .../chat/completions} answers with a fixed number of words. The first one arrives
+ * after {@code latency} and each further one after {@code tokenDelay}; with {@code "stream": true}
+ * they are sent as server-sent chunks, otherwise the whole answer is returned once complete.
+ * Requests beyond {@code maxConcurrent} in flight get a 429, like a provider over its rate limit,
+ * which exercises the gateway's adaptive limiter. Prompt tokens are estimated at four characters
+ * per token.
+ *
+ * Run on its own with {@code --port 8089 [--latency PT0.8S] [--token-delay PT0.02S] [--tokens 200]
+ * [--max-concurrent 32]}.
+ */
+public class StubChatServer implements AutoCloseable {
+
+    private static final ObjectMapper JSON = new ObjectMapper();
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final Duration latency;
+    private final Duration tokenDelay;
+    private final int tokens;
+    private final int maxConcurrent;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    public StubChatServer(int port, Duration latency, Duration tokenDelay, int tokens, int maxConcurrent)
+            throws IOException {
+        this.latency = latency;
+        this.tokenDelay = tokenDelay;
+        this.tokens = Math.max(1, tokens);
+        this.maxConcurrent = maxConcurrent;
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 1024);
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+        server.start();
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = BenchOptions.parse(args);
+        StubChatServer server = fromOptions(options, Integer.parseInt(options.getOrDefault("port", "8089")));
+        System.out.println("Stub chat model listening on " + server.baseUrl());
+        Thread.currentThread().join();
+    }
+
+    static StubChatServer fromOptions(Map<String, String> options, int port) throws IOException {
+        return new StubChatServer(port,
+                Duration.parse(options.getOrDefault("latency", "PT0.8S")),
+                Duration.parse(options.getOrDefault("token-delay", "PT0.02S")),
+                Integer.parseInt(options.getOrDefault("tokens", "200")),
+                Integer.parseInt(options.getOrDefault("max-concurrent", "0")));
+    }
+
+    /**
+     * @return the value for {@code langchain4j.open-ai.chat-model.base-url}
+     */
+    public String baseUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/v1";
+    }
+
+    public long requests() {
+        return requests.get();
+    }
+
+    public long rejected() {
+        return rejected.get();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!"POST".equals(exchange.getRequestMethod())
+                    || !exchange.getRequestURI().getPath().endsWith("/chat/completions")) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+            requests.incrementAndGet();
+            byte[] body = exchange.getRequestBody().readAllBytes();
+            if (maxConcurrent > 0 && inFlight.incrementAndGet() > maxConcurrent) {
+                inFlight.decrementAndGet();
+                rejected.incrementAndGet();
+                exchange.getResponseHeaders().set("Retry-After", "1");
+                send(exchange, 429, "{\"error\":{\"message\":\"Rate limit exceeded\",\"type\":\"rate_limit_exceeded\"}}");
+                return;
+            }
+            try {
+                JsonNode request = JSON.readTree(body);
+                int promptTokens = Math.max(1, body.length / 4);
+                if (request.path("stream").asBoolean()) {
+                    stream(exchange, request, promptTokens);
+                } else {
+                    complete(exchange, request, promptTokens);
+                }
+            } finally {
+                if (maxConcurrent > 0) {
+                    inFlight.decrementAndGet();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void complete(HttpExchange exchange, JsonNode request, int promptTokens)
+            throws IOException, InterruptedException {
+        Thread.sleep(latency.plus(tokenDelay.multipliedBy(tokens - 1)));
+        StringBuilder answer = new StringBuilder();
+        for (int i = 0; i < tokens; i++) {
+            answer.append(word(i));
+        }
+        ObjectNode response = envelope(request, "chat.completion");
+        ObjectNode choice = ((ArrayNode) response.get("choices")).addObject();
+        choice.put("index", 0);
+        choice.putObject("message").put("role", "assistant").put("content", answer.toString());
+        choice.put("finish_reason", "stop");
+        usage(response, promptTokens);
+        send(exchange, 200, JSON.writeValueAsString(response));
+    }
+
+    private void stream(HttpExchange exchange, JsonNode request, int promptTokens)
+            throws IOException, InterruptedException {
+        exchange.getResponseHeaders().set("Content-Type", "text/event-stream");
+        exchange.sendResponseHeaders(200, 0);
+        OutputStream out = exchange.getResponseBody();
+        try {
+            Thread.sleep(latency);
+            for (int i = 0; i < tokens; i++) {
+                if (i > 0) {
+                    Thread.sleep(tokenDelay);
+                }
+                ObjectNode chunk = envelope(request, "chat.completion.chunk");
+                ObjectNode choice = ((ArrayNode) chunk.get("choices")).addObject();
+                choice.put("index", 0);
+                ObjectNode delta = choice.putObject("delta");
+                if (i == 0) {
+                    delta.put("role", "assistant");
+                }
+                delta.put("content", word(i));
+                event(out, JSON.writeValueAsString(chunk));
+            }
+            ObjectNode last = envelope(request, "chat.completion.chunk");
+            ObjectNode choice = ((ArrayNode) last.get("choices")).addObject();
+            choice.put("index", 0);
+            choice.putObject("delta");
+            choice.put("finish_reason", "stop");
+            usage(last, promptTokens);
+            event(out, JSON.writeValueAsString(last));
+            event(out, "[DONE]");
+        } catch (IOException e) {
+            // The client cancelled the stream
+        }
+    }
+
+    private static ObjectNode envelope(JsonNode request, String object) {
+        ObjectNode node = JSON.createObjectNode();
+        node.put("id", "chatcmpl-stub");
+        node.put("object", object);
+        node.put("created", System.currentTimeMillis() / 1000);
+        node.put("model", request.path("model").asText("stub"));
+        node.putArray("choices");
+        return node;
+    }
+
+    private void usage(ObjectNode response, int promptTokens) {
+        response.putObject("usage")
+                .put("prompt_tokens", promptTokens)
+                .put("completion_tokens", tokens)
+                .put("total_tokens", promptTokens + tokens);
+    }
+
+    private static String word(int i) {
+        return i == 0 ? "PRS" : (i % 12 == 0 ? ". Guitars" : " guitar");
+    }
+
+    private static void event(OutputStream out, String data) throws IOException {
+        out.write(("data: " + data + "\n\n").getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+
+    private static void send(HttpExchange exchange, int status, String json) throws IOException {
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        exchange.getResponseBody().write(bytes);
+    }
+}
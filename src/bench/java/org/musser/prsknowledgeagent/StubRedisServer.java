@@ -0,0 +1,566 @@
+package org.musser.prsknowledgeagent;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * In-process stand-in for the Redis server, speaking RESP2 over TCP, so {@link RedisChatMemoryStore}
+ * and {@link SemanticAnswerCache} can be benchmarked through Lettuce without a Redis install.
+ *
+ * Only the commands the application sends are implemented: strings, lists and hashes with
+ * millisecond expiry, plus EVAL/EVALSHA for the two chat memory scripts, which are recognised by
+ * their text and run natively (there is no Lua interpreter). For {@link RedisVectorIndex} there
+ * is enough of RediSearch to create, alias, drop and KNN-query a FLOAT32 vector index over
+ * hashes, by exact scan. Commands run one at a time, like on Redis. An optional {@code latency}
+ * is added before each reply to model the network round trip.
+ *
+ * Values are kept as the bytes the client sent (decoded as ISO-8859-1, which maps each byte to
+ * one char), since vectors are binary.
+ *
+ * Run on its own with {@code --port 6379 [--latency PT0.0005S]}.
+ */
+public class StubRedisServer implements AutoCloseable {
+
+    private static final Charset BYTES = StandardCharsets.ISO_8859_1;
+    private static final Pattern KNN = Pattern.compile("KNN\\s+(\\d+)\\s+@(\\w+)\\s+\\$(\\w+)(?:\\s+AS\\s+(\\w+))?");
+
+    private record Expiring(Object value, long expiresAt) {
+    }
+
+    private record VectorIndex(String prefix, String field) {
+    }
+
+    private final ServerSocket serverSocket;
+    private final ExecutorService connections = Executors.newVirtualThreadPerTaskExecutor();
+    private final long latencyNanos;
+    private final Map<String, Expiring> data = new HashMap<>();
+    private final Map<String, String> scripts = new HashMap<>();
+    private final Map<String, VectorIndex> indexes = new HashMap<>();
+    private final Map<String, String> aliases = new HashMap<>();
+
+    public StubRedisServer(int port, Duration latency) throws IOException {
+        this.serverSocket = new ServerSocket(port, 128, InetAddress.getLoopbackAddress());
+        this.latencyNanos = latency.toNanos();
+        connections.submit(this::accept);
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = BenchOptions.parse(args);
+        StubRedisServer server = new StubRedisServer(Integer.parseInt(options.getOrDefault("port", "6379")),
+                Duration.parse(options.getOrDefault("latency", "PT0S")));
+        System.out.println("Stub Redis listening on " + server.url());
+        Thread.currentThread().join();
+    }
+
+    public int port() {
+        return serverSocket.getLocalPort();
+    }
+
+    public String url() {
+        return "redis://127.0.0.1:" + port();
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        connections.shutdownNow();
+    }
+
+    private void accept() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                connections.submit(() -> serve(socket));
+            } catch (IOException e) {
+                // Closed
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (socket) {
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+            while (true) {
+                List<String> command = readCommand(in);
+                Object reply;
+                synchronized (data) {
+                    reply = execute(command);
+                }
+                if (latencyNanos > 0) {
+                    Thread.sleep(Duration.ofNanos(latencyNanos));
+                }
+                write(out, reply);
+                // Lettuce pipelines; only flush once the pending commands are answered
+                if (in.available() == 0) {
+                    out.flush();
+                }
+            }
+        } catch (EOFException | InterruptedException e) {
+            // Client went away or server closed
+        } catch (IOException e) {
+            if (!serverSocket.isClosed()) {
+                System.out.println("Stub Redis connection failed: " + e);
+            }
+        }
+    }
+
+    private record ErrorReply(String message) {
+    }
+
+    private static final String OK = "+OK";
+
+    private Object execute(List<String> command) {
+        String name = command.get(0).toUpperCase(Locale.ROOT);
+        List<String> args = command.subList(1, command.size());
+        return switch (name) {
+            case "PING" -> "+PONG";
+            // Lettuce falls back to RESP2 when HELLO is unknown
+            case "HELLO" -> new ErrorReply("ERR unknown command 'HELLO'");
+            case "CLIENT", "SELECT", "AUTH" -> OK;
+            case "FLUSHALL", "FLUSHDB" -> {
+                data.clear();
+                yield OK;
+            }
+            case "GET" -> value(args.get(0)) instanceof String s ? bulk(s) : null;
+            case "SET" -> {
+                data.put(args.get(0), new Expiring(args.get(1), 0));
+                yield OK;
+            }
+            case "GETSET" -> {
+                Object previous = value(args.get(0));
+                data.put(args.get(0), new Expiring(args.get(1), 0));
+                yield previous instanceof String s ? bulk(s) : null;
+            }
+            case "SCAN" -> scan(args);
+            case "DEL" -> {
+                long removed = 0;
+                for (String key : args) {
+                    removed += value(key) != null && data.remove(key) != null ? 1 : 0;
+                }
+                yield removed;
+            }
+            case "EXISTS" -> args.stream().filter(key -> value(key) != null).count();
+            case "PEXPIRE" -> expire(args.get(0), Long.parseLong(args.get(1)));
+            case "EXPIRE" -> expire(args.get(0), Long.parseLong(args.get(1)) * 1000);
+            case "PTTL" -> {
+                Expiring entry = value(args.get(0)) == null ? null : data.get(args.get(0));
+                yield entry == null ? -2L : entry.expiresAt() == 0 ? -1L : entry.expiresAt() - System.currentTimeMillis();
+            }
+            case "RPUSH" -> push(args.get(0), args.subList(1, args.size()), false);
+            case "LPUSH" -> push(args.get(0), args.subList(1, args.size()), true);
+            case "LLEN" -> (long) list(args.get(0)).size();
+            case "LRANGE" -> bulks(range(list(args.get(0)), Long.parseLong(args.get(1)), Long.parseLong(args.get(2))));
+            case "LINDEX" -> {
+                List<String> list = list(args.get(0));
+                int index = (int) Long.parseLong(args.get(1));
+                index = index < 0 ? list.size() + index : index;
+                yield index >= 0 && index < list.size() ? bulk(list.get(index)) : null;
+            }
+            case "LTRIM" -> {
+                List<String> list = list(args.get(0));
+                List<String> kept = new ArrayList<>(range(list, Long.parseLong(args.get(1)), Long.parseLong(args.get(2))));
+                list.clear();
+                list.addAll(kept);
+                if (list.isEmpty()) {
+                    data.remove(args.get(0));
+                }
+                yield OK;
+            }
+            case "HSET" -> {
+                Map<String, String> hash = hash(args.get(0), true);
+                long added = 0;
+                for (int i = 1; i + 1 < args.size(); i += 2) {
+                    added += hash.put(args.get(i), args.get(i + 1)) == null ? 1 : 0;
+                }
+                yield added;
+            }
+            case "HGET" -> bulk(hash(args.get(0), false).get(args.get(1)));
+            case "HGETALL" -> {
+                List<String> fields = new ArrayList<>();
+                hash(args.get(0), false).forEach((field, value) -> {
+                    fields.add(field);
+                    fields.add(value);
+                });
+                yield bulks(fields);
+            }
+            case "HDEL" -> {
+                Map<String, String> hash = hash(args.get(0), false);
+                long removed = 0;
+                for (String field : args.subList(1, args.size())) {
+                    removed += hash.remove(field) != null ? 1 : 0;
+                }
+                yield removed;
+            }
+            case "SCRIPT" -> switch (args.get(0).toUpperCase(Locale.ROOT)) {
+                case "LOAD" -> bulk(load(args.get(1)));
+                case "FLUSH" -> {
+                    scripts.clear();
+                    yield OK;
+                }
+                default -> new ErrorReply("ERR unsupported SCRIPT subcommand");
+            };
+            case "FT.CREATE" -> {
+                if (indexes.containsKey(args.get(0))) {
+                    yield new ErrorReply("Index already exists");
+                }
+                List<String> upper = args.stream().map(arg -> arg.toUpperCase(Locale.ROOT)).toList();
+                indexes.put(args.get(0), new VectorIndex(args.get(upper.indexOf("PREFIX") + 2),
+                        args.get(upper.indexOf("SCHEMA") + 1)));
+                yield OK;
+            }
+            case "FT.DROPINDEX" -> {
+                VectorIndex index = indexes.remove(args.get(0));
+                if (index == null) {
+                    yield new ErrorReply("Unknown Index name");
+                }
+                aliases.values().remove(args.get(0));
+                if (args.size() > 1 && args.get(1).equalsIgnoreCase("DD")) {
+                    data.keySet().removeIf(key -> key.startsWith(index.prefix()));
+                }
+                yield OK;
+            }
+            case "FT.ALIASUPDATE" -> {
+                if (!indexes.containsKey(args.get(1))) {
+                    yield new ErrorReply("Unknown index name");
+                }
+                aliases.put(args.get(0), args.get(1));
+                yield OK;
+            }
+            case "FT.SEARCH" -> search(args);
+            case "EVAL" -> eval(load(args.get(0)), args.subList(1, args.size()));
+            case "EVALSHA" -> scripts.containsKey(args.get(0).toLowerCase(Locale.ROOT))
+                    ? eval(args.get(0).toLowerCase(Locale.ROOT), args.subList(1, args.size()))
+                    : new ErrorReply("NOSCRIPT No matching script. Please use EVAL.");
+            default -> new ErrorReply("ERR unknown command '" + command.get(0) + "'");
+        };
+    }
+
+    /**
+     * {@code SCAN cursor [MATCH pattern] [COUNT n]}; the cursor is a position in the sorted keys.
+     */
+    private Object scan(List<String> args) {
+        int cursor = Integer.parseInt(args.get(0));
+        Pattern match = null;
+        int count = 10;
+        for (int i = 1; i + 1 < args.size(); i += 2) {
+            switch (args.get(i).toUpperCase(Locale.ROOT)) {
+                case "MATCH" -> match = Pattern.compile(Pattern.quote(args.get(i + 1)).replace("*", "\\E.*\\Q"));
+                case "COUNT" -> count = Integer.parseInt(args.get(i + 1));
+                default -> {
+                }
+            }
+        }
+        List<String> keys = data.keySet().stream().sorted().toList();
+        List<String> found = new ArrayList<>();
+        int next = cursor;
+        for (; next < keys.size() && next < cursor + count; next++) {
+            if ((match == null || match.matcher(keys.get(next)).matches()) && value(keys.get(next)) != null) {
+                found.add(keys.get(next));
+            }
+        }
+        return List.of(bulk(next >= keys.size() ? "0" : Integer.toString(next)), bulks(found));
+    }
+
+    /**
+     * {@code FT.SEARCH index "*=>[KNN k @field $param AS alias]" PARAMS ... LIMIT offset num
+     * RETURN n fields...}, answered by an exact cosine scan in RESP2 form.
+     */
+    private Object search(List<String> args) {
+        String name = aliases.getOrDefault(args.get(0), args.get(0));
+        VectorIndex index = indexes.get(name);
+        if (index == null) {
+            return new ErrorReply(args.get(0) + ": no such index");
+        }
+        Matcher knn = KNN.matcher(args.get(1));
+        if (!knn.find()) {
+            return new ErrorReply("Syntax error: only KNN queries are supported by the stub");
+        }
+        int k = Integer.parseInt(knn.group(1));
+        String scoreField = knn.group(4) != null ? knn.group(4) : "__" + knn.group(2) + "_score";
+        Map<String, String> params = new HashMap<>();
+        int offset = 0;
+        int limit = 10;
+        List<String> returned = null;
+        for (int i = 2; i < args.size(); i++) {
+            switch (args.get(i).toUpperCase(Locale.ROOT)) {
+                case "PARAMS" -> {
+                    int n = Integer.parseInt(args.get(++i));
+                    for (int j = 0; j < n; j += 2) {
+                        params.put(args.get(i + 1 + j), args.get(i + 2 + j));
+                    }
+                    i += n;
+                }
+                case "LIMIT" -> {
+                    offset = Integer.parseInt(args.get(++i));
+                    limit = Integer.parseInt(args.get(++i));
+                }
+                case "RETURN" -> {
+                    int n = Integer.parseInt(args.get(++i));
+                    returned = args.subList(i + 1, i + 1 + n);
+                    i += n;
+                }
+                case "SORTBY" -> i++;
+                case "DIALECT" -> i++;
+                default -> {
+                }
+            }
+        }
+        float[] query = floats(params.get(knn.group(3)));
+        record Hit(String key, Map<String, String> hash, double distance) {
+        }
+        List<Hit> hits = new ArrayList<>();
+        for (String key : data.keySet()) {
+            if (key.startsWith(index.prefix()) && value(key) instanceof Map<?, ?>) {
+                Map<String, String> hash = hash(key, false);
+                String vector = hash.get(index.field());
+                if (vector != null) {
+                    hits.add(new Hit(key, hash, 1 - cosine(query, floats(vector))));
+                }
+            }
+        }
+        hits.sort(Comparator.comparingDouble(Hit::distance));
+        hits = hits.subList(0, Math.min(k, hits.size()));
+        List<Object> reply = new ArrayList<>();
+        reply.add((long) hits.size());
+        for (Hit hit : hits.subList(Math.min(offset, hits.size()), Math.min(offset + limit, hits.size()))) {
+            reply.add(bulk(hit.key()));
+            List<String> fields = new ArrayList<>();
+            for (String field : returned != null ? returned : List.of(scoreField)) {
+                String value = field.equals(scoreField) ? Double.toString(hit.distance()) : hit.hash().get(field);
+                if (value != null) {
+                    fields.add(field);
+                    fields.add(value);
+                }
+            }
+            reply.add(bulks(fields));
+        }
+        return reply;
+    }
+
+    private static float[] floats(String bytes) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes.getBytes(BYTES)).order(ByteOrder.LITTLE_ENDIAN);
+        float[] vector = new float[buffer.remaining() / Float.BYTES];
+        buffer.asFloatBuffer().get(vector);
+        return vector;
+    }
+
+    private static double cosine(float[] a, float[] b) {
+        double dot = 0;
+        double normA = 0;
+        double normB = 0;
+        for (int i = 0; i < a.length; i++) {
+            dot += a[i] * b[i];
+            normA += a[i] * a[i];
+            normB += b[i] * b[i];
+        }
+        return dot / Math.sqrt(normA * normB);
+    }
+
+    private String load(String script) {
+        String sha1 = sha1(script);
+        scripts.put(sha1, script);
+        return sha1;
+    }
+
+    /**
+     * Runs one of the chat memory scripts of {@link RedisChatMemoryStore}: the conditional append
+     * (which starts by reading the last element) or the full rewrite.
+     */
+    private Object eval(String sha1, List<String> args) {
+        String script = scripts.get(sha1);
+        int numKeys = Integer.parseInt(args.get(0));
+        List<String> keys = args.subList(1, 1 + numKeys);
+        List<String> argv = args.subList(1 + numKeys, args.size());
+        long ttl = Long.parseLong(argv.get(0));
+        if (script.contains("LINDEX")) {
+            List<String> list = list(keys.get(0));
+            if (list.isEmpty() || !sha1(list.get(list.size() - 1)).equals(argv.get(1))) {
+                return 0L;
+            }
+            int keep = Integer.parseInt(argv.get(2));
+            int drop = Integer.parseInt(argv.get(3));
+            list.subList(keep, Math.min(list.size(), keep + drop)).clear();
+            push(keys.get(0), argv.subList(4, argv.size()), false);
+        } else if (script.contains("RPUSH")) {
+            data.remove(keys.get(0));
+            push(keys.get(0), argv.subList(1, argv.size()), false);
+        } else {
+            return new ErrorReply("ERR script not supported by the stub");
+        }
+        if (ttl > 0) {
+            expire(keys.get(0), ttl);
+            expire(keys.get(1), ttl);
+        }
+        return 1L;
+    }
+
+    private Object value(String key) {
+        Expiring entry = data.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.expiresAt() != 0 && entry.expiresAt() <= System.currentTimeMillis()) {
+            data.remove(key);
+            return null;
+        }
+        return entry.value();
+    }
+
+    private long expire(String key, long millis) {
+        Object value = value(key);
+        if (value == null) {
+            return 0;
+        }
+        data.put(key, new Expiring(value, System.currentTimeMillis() + millis));
+        return 1;
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<String> list(String key) {
+        return value(key) instanceof List<?> list ? (List<String>) list : new ArrayList<>();
+    }
+
+    private long push(String key, List<String> values, boolean head) {
+        Object value = value(key);
+        @SuppressWarnings("unchecked")
+        List<String> list = value instanceof List<?> existing ? (List<String>) existing : new ArrayList<>();
+        if (value == null && !values.isEmpty()) {
+            data.put(key, new Expiring(list, 0));
+        }
+        for (String v : values) {
+            if (head) {
+                list.add(0, v);
+            } else {
+                list.add(v);
+            }
+        }
+        return list.size();
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, String> hash(String key, boolean create) {
+        Object value = value(key);
+        if (value instanceof Map<?, ?> hash) {
+            return (Map<String, String>) hash;
+        }
+        Map<String, String> hash = new LinkedHashMap<>();
+        if (create) {
+            data.put(key, new Expiring(hash, 0));
+        }
+        return hash;
+    }
+
+    private static List<String> range(List<String> list, long start, long stop) {
+        int size = list.size();
+        int from = (int) Math.max(0, start < 0 ? size + start : start);
+        int to = (int) Math.min(size - 1, stop < 0 ? size + stop : stop);
+        return from > to ? List.of() : list.subList(from, to + 1);
+    }
+
+    private static byte[] bulk(String value) {
+        return value == null ? null : value.getBytes(BYTES);
+    }
+
+    private static List<byte[]> bulks(List<String> values) {
+        List<byte[]> bulks = new ArrayList<>(values.size());
+        for (String value : values) {
+            bulks.add(bulk(value));
+        }
+        return bulks;
+    }
+
+    private static List<String> readCommand(InputStream in) throws IOException {
+        int type = in.read();
+        if (type < 0) {
+            throw new EOFException();
+        }
+        if (type != '*') {
+            // Inline command, as typed into telnet
+            String line = (char) type + readLine(in);
+            return List.of(line.trim().split("\\s+"));
+        }
+        int count = Integer.parseInt(readLine(in));
+        List<String> command = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            if (in.read() != '$') {
+                throw new IOException("Expected a bulk string");
+            }
+            int length = Integer.parseInt(readLine(in));
+            byte[] bytes = in.readNBytes(length);
+            in.readNBytes(2);
+            command.add(new String(bytes, BYTES));
+        }
+        return command;
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        for (int c = in.read(); c != '\r'; c = in.read()) {
+            if (c < 0) {
+                throw new EOFException();
+            }
+            line.append((char) c);
+        }
+        in.read();
+        return line.toString();
+    }
+
+    private static void write(OutputStream out, Object reply) throws IOException {
+        switch (reply) {
+            case null -> out.write("$-1\r\n".getBytes(StandardCharsets.US_ASCII));
+            case String status -> out.write((status + "\r\n").getBytes(StandardCharsets.UTF_8));
+            case ErrorReply error -> out.write(("-" + error.message() + "\r\n").getBytes(StandardCharsets.UTF_8));
+            case Long integer -> out.write((":" + integer + "\r\n").getBytes(StandardCharsets.US_ASCII));
+            case byte[] bytes -> {
+                out.write(("$" + bytes.length + "\r\n").getBytes(StandardCharsets.US_ASCII));
+                out.write(bytes);
+                out.write('\r');
+                out.write('\n');
+            }
+            case List<?> items -> {
+                out.write(("*" + items.size() + "\r\n").getBytes(StandardCharsets.US_ASCII));
+                for (Object item : items) {
+                    write(out, item);
+                }
+            }
+            default -> throw new IllegalStateException("Unexpected reply " + reply);
+        }
+    }
+
+    private static String sha1(String value) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            return HexFormat.of().formatHex(digest.digest(value.getBytes(BYTES)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
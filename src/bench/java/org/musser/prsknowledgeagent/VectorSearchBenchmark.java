@@ -0,0 +1,185 @@
+package org.musser.prsknowledgeagent;
+
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.store.embedding.EmbeddingMatch;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import dev.langchain4j.store.embedding.EmbeddingStore;
+import dev.langchain4j.store.embedding.inmemory.InMemoryEmbeddingStore;
+
+/**
+ * Top-5 search latency of the embedding stores over clustered random 384-dimensional unit
+ * vectors (the shape of MiniLM embeddings). Recall@5 of each store against an exact scan is
+ * printed during setup, since a faster approximate search is only worth it at high recall, along
+ * with the heap (and, for the flat store, direct memory) the loaded store retains.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx10g")
+@State(Scope.Benchmark)
+public class VectorSearchBenchmark {
+
+    private static final int DIMENSION = 384;
+    private static final int CLUSTERS = 200;
+    private static final int QUERIES = 256;
+    private static final int MAX_RESULTS = 5;
+
+    @Param({ "hnsw", "flat", "in-memory" })
+    public String store;
+
+    @Param({ "10000", "100000", "1000000" })
+    public int size;
+
+    private EmbeddingStore<TextSegment> embeddingStore;
+    private List<EmbeddingSearchRequest> requests;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        long heapBefore = usedHeap();
+        long directBefore = usedDirect();
+        embeddingStore = switch (store) {
+            case "hnsw" -> new HnswEmbeddingStore(16, 100, 50);
+            case "flat" -> new FlatVectorStore();
+            case "in-memory" -> new InMemoryEmbeddingStore<>();
+            default -> throw new IllegalArgumentException(store);
+        };
+        double recall = load();
+        // The generated vectors are garbage by now, so what is left is the store (and the few
+        // query embeddings)
+        System.out.printf("%n%s, %d vectors: recall@%d %.3f, retained heap %d MB, direct memory %d MB%n", store,
+                size, MAX_RESULTS, recall, (usedHeap() - heapBefore) >> 20, (usedDirect() - directBefore) >> 20);
+    }
+
+    /**
+     * Fills the store and builds the queries.
+     *
+     * @return recall of the store against an exact scan
+     */
+    private double load() {
+        Random random = new Random(42);
+        float[][] centroids = new float[CLUSTERS][];
+        for (int i = 0; i < CLUSTERS; i++) {
+            centroids[i] = near(new float[DIMENSION], 1.0f, random);
+        }
+        List<String> ids = new ArrayList<>(size);
+        List<Embedding> embeddings = new ArrayList<>(size);
+        List<TextSegment> segments = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            ids.add("v" + i);
+            embeddings.add(Embedding.from(near(centroids[random.nextInt(CLUSTERS)], 0.6f, random)));
+            segments.add(TextSegment.from("segment " + i));
+        }
+        embeddingStore.addAll(ids, embeddings, segments);
+
+        requests = new ArrayList<>(QUERIES);
+        int found = 0;
+        for (int i = 0; i < QUERIES; i++) {
+            EmbeddingSearchRequest request = EmbeddingSearchRequest.builder()
+                    .queryEmbedding(Embedding.from(near(centroids[random.nextInt(CLUSTERS)], 0.6f, random)))
+                    .maxResults(MAX_RESULTS)
+                    .build();
+            requests.add(request);
+            Set<String> expected = exactIds(request.queryEmbedding().vector(), embeddings);
+            expected.retainAll(ids(embeddingStore.search(request).matches()));
+            found += expected.size();
+        }
+        return found / (double) (QUERIES * MAX_RESULTS);
+    }
+
+    @Benchmark
+    public List<EmbeddingMatch<TextSegment>> search() {
+        EmbeddingSearchRequest request = requests.get(next++ & (QUERIES - 1));
+        return embeddingStore.search(request).matches();
+    }
+
+    private static long usedHeap() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    /**
+     * Off-heap vectors (the flat store) are direct buffers, freed when the buffer is collected.
+     */
+    private static long usedDirect() {
+        return ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class).stream()
+                .filter(pool -> pool.getName().equals("direct"))
+                .mapToLong(BufferPoolMXBean::getMemoryUsed)
+                .sum();
+    }
+
+    /**
+     * Exact top results by a plain scan, so that no second store skews the memory figures.
+     */
+    private static Set<String> exactIds(float[] query, List<Embedding> embeddings) {
+        PriorityQueue<Map.Entry<Integer, Float>> top = new PriorityQueue<>(Map.Entry.comparingByValue());
+        for (int i = 0; i < embeddings.size(); i++) {
+            float score = VectorMath.dot(query, embeddings.get(i).vector());
+            if (top.size() < MAX_RESULTS || score > top.peek().getValue()) {
+                top.offer(Map.entry(i, score));
+                if (top.size() > MAX_RESULTS) {
+                    top.poll();
+                }
+            }
+        }
+        Set<String> ids = new HashSet<>();
+        for (Map.Entry<Integer, Float> entry : top) {
+            ids.add("v" + entry.getKey());
+        }
+        return ids;
+    }
+
+    private static Set<String> ids(List<EmbeddingMatch<TextSegment>> matches) {
+        Set<String> ids = new HashSet<>();
+        for (EmbeddingMatch<TextSegment> match : matches) {
+            ids.add(match.embeddingId());
+        }
+        return ids;
+    }
+
+    /**
+     * @return a unit vector at about {@code spread} (as a norm) from {@code center}
+     */
+    private static float[] near(float[] center, float spread, Random random) {
+        float sigma = spread / (float) Math.sqrt(DIMENSION);
+        float[] vector = new float[DIMENSION];
+        double norm = 0;
+        for (int i = 0; i < DIMENSION; i++) {
+            vector[i] = center[i] + sigma * (float) random.nextGaussian();
+            norm += vector[i] * vector[i];
+        }
+        float scale = (float) (1 / Math.sqrt(norm));
+        for (int i = 0; i < DIMENSION; i++) {
+            vector[i] *= scale;
+        }
+        return vector;
+    }
+}
@@ -0,0 +1,484 @@
+package org.musser.prsknowledgeagent;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import dev.langchain4j.data.segment.TextSegment;
+
+/**
+ * In-process BM25 inverted index over the same segments as the embedding store, for queries that
+ * hinge on exact terms (model names like "Custom 24-08" or "McCarty 594") which the embedding
+ * model blurs.
+ *
+ * Text is lower-cased and split into runs of letters and digits; runs joined by a single
+ * {@code -}, {@code /} or {@code .} are also indexed as one term, so "24-08", "85/15" and
+ * "24.594" match as written. Each term's postings are parallel {@code int} arrays of document
+ * numbers and term frequencies. Removal leaves a tombstone that scoring skips; the index is
+ * rebuilt once tombstones outnumber live documents.
+ *
+ * Queries share a read lock, changes take the write lock.
+ */
+public class Bm25Index {
+
+    private static final int MAGIC = 0x50525342; // "PRSB"
+    private static final int FORMAT_VERSION = 1;
+    private static final float K1 = 1.2f;
+    private static final float B = 0.75f;
+
+    public record Match(String id, TextSegment segment, double score) {
+    }
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, Integer> terms = new HashMap<>();
+    private final Map<String, Integer> docsById = new HashMap<>();
+    // Per term: document numbers (ascending), frequencies, used length, live document frequency
+    private int[][] postingDocs = new int[0][];
+    private int[][] postingFreqs = new int[0][];
+    private int[] postingSizes = new int[0];
+    private int[] documentFrequencies = new int[0];
+    // Per document number
+    private String[] docIds = new String[0];
+    private TextSegment[] segments = new TextSegment[0];
+    private int[] lengths = new int[0];
+    private int[][] docTerms = new int[0][];
+    private int docCount;
+    private int liveDocs;
+    private long liveLength;
+
+    public void add(String id, TextSegment segment) {
+        lock.writeLock().lock();
+        try {
+            remove(id);
+            insert(id, segment);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void removeAll(Collection<String> ids) {
+        lock.writeLock().lock();
+        try {
+            for (String id : ids) {
+                remove(id);
+            }
+            if (docCount - liveDocs > liveDocs) {
+                compact();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            reset();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Swaps the whole contents under one write lock, so queries see either the old segments or
+     * the new ones.
+     */
+    public void replaceAll(Map<String, TextSegment> segmentsById) {
+        lock.writeLock().lock();
+        try {
+            reset();
+            segmentsById.forEach(this::insert);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return liveDocs;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return up to {@code maxResults} segments containing at least one query term, best BM25
+     *         score first
+     */
+    public List<Match> search(String query, int maxResults) {
+        List<String> queryTerms = tokens(query);
+        lock.readLock().lock();
+        try {
+            if (liveDocs == 0 || maxResults < 1) {
+                return List.of();
+            }
+            float averageLength = (float) liveLength / liveDocs;
+            float[] scores = new float[docCount];
+            int[] touched = new int[16];
+            int touchedCount = 0;
+            int[] seenTerms = new int[queryTerms.size()];
+            int seenCount = 0;
+            for (String term : queryTerms) {
+                Integer termId = terms.get(term);
+                if (termId == null || contains(seenTerms, seenCount, termId)) {
+                    continue;
+                }
+                seenTerms[seenCount++] = termId;
+                int df = documentFrequencies[termId];
+                if (df == 0) {
+                    continue;
+                }
+                float idf = (float) Math.log(1 + (liveDocs - df + 0.5) / (df + 0.5));
+                int[] docs = postingDocs[termId];
+                int[] freqs = postingFreqs[termId];
+                for (int i = 0, n = postingSizes[termId]; i < n; i++) {
+                    int doc = docs[i];
+                    if (segments[doc] == null) {
+                        continue;
+                    }
+                    float tf = freqs[i];
+                    if (scores[doc] == 0) {
+                        if (touchedCount == touched.length) {
+                            touched = Arrays.copyOf(touched, touchedCount * 2);
+                        }
+                        touched[touchedCount++] = doc;
+                    }
+                    scores[doc] += idf * tf * (K1 + 1) / (tf + K1 * (1 - B + B * lengths[doc] / averageLength));
+                }
+            }
+            NodeHeap best = NodeHeap.minFirst(maxResults);
+            for (int i = 0; i < touchedCount; i++) {
+                best.offer(touched[i], scores[touched[i]], maxResults);
+            }
+            List<Match> matches = new ArrayList<>(best.size());
+            for (int position : best.descendingPositions()) {
+                int doc = best.nodeAt(position);
+                matches.add(new Match(docIds[doc], segments[doc], best.scoreAt(position)));
+            }
+            return matches;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Writes the terms, postings and document ids (not the segment text, which the embedding
+     * snapshot already holds) to {@code file} via a temporary file and an atomic move, tagged with
+     * {@code version} so a stale index is not loaded later.
+     */
+    public void save(Path file, String version) throws IOException {
+        lock.readLock().lock();
+        try {
+            // Renumber live documents densely, dropping tombstones
+            int[] renumbered = new int[docCount];
+            int live = 0;
+            for (int doc = 0; doc < docCount; doc++) {
+                renumbered[doc] = segments[doc] != null ? live++ : -1;
+            }
+            Path parent = file.toAbsolutePath().getParent();
+            Files.createDirectories(parent);
+            Path tmp = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+            try (OutputStream os = Files.newOutputStream(tmp);
+                    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(os, 1 << 16))) {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                EmbeddingSnapshot.writeShortString(out, version);
+                out.writeInt(live);
+                for (int doc = 0; doc < docCount; doc++) {
+                    if (renumbered[doc] >= 0) {
+                        EmbeddingSnapshot.writeShortString(out, docIds[doc]);
+                        out.writeInt(lengths[doc]);
+                    }
+                }
+                out.writeInt(terms.size());
+                for (Map.Entry<String, Integer> term : terms.entrySet()) {
+                    int termId = term.getValue();
+                    EmbeddingSnapshot.writeShortString(out, term.getKey());
+                    out.writeInt(documentFrequencies[termId]);
+                    for (int i = 0, n = postingSizes[termId]; i < n; i++) {
+                        int doc = renumbered[postingDocs[termId][i]];
+                        if (doc >= 0) {
+                            out.writeInt(doc);
+                            out.writeInt(postingFreqs[termId][i]);
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                Files.deleteIfExists(tmp);
+                throw e;
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Replaces the contents of this index with one written by {@link #save(Path, String)},
+     * taking the segment text from {@code segments} (by id).
+     *
+     * @return false, leaving the index untouched, if the file is missing, does not carry
+     *         {@code version} or refers to a segment not in {@code segments}
+     */
+    public boolean load(Path file, String version, Map<String, TextSegment> segmentsById) throws IOException {
+        if (!Files.isRegularFile(file)) {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (in.remaining() < 8 || in.getInt() != MAGIC || in.getInt() != FORMAT_VERSION
+                    || !version.equals(EmbeddingSnapshot.readShortString(in))) {
+                return false;
+            }
+            Bm25Index loaded = new Bm25Index();
+            int docs = in.getInt();
+            loaded.growDocs(docs);
+            for (int doc = 0; doc < docs; doc++) {
+                String id = EmbeddingSnapshot.readShortString(in);
+                TextSegment segment = segmentsById.get(id);
+                if (segment == null) {
+                    return false;
+                }
+                loaded.docIds[doc] = id;
+                loaded.segments[doc] = segment;
+                loaded.lengths[doc] = in.getInt();
+                loaded.liveLength += loaded.lengths[doc];
+                loaded.docsById.put(id, doc);
+            }
+            loaded.docCount = docs;
+            loaded.liveDocs = docs;
+            int termCount = in.getInt();
+            loaded.growTerms(termCount);
+            int[] termCounts = new int[docs];
+            for (int termId = 0; termId < termCount; termId++) {
+                loaded.terms.put(EmbeddingSnapshot.readShortString(in), termId);
+                int df = in.getInt();
+                loaded.documentFrequencies[termId] = df;
+                loaded.postingDocs[termId] = new int[df];
+                loaded.postingFreqs[termId] = new int[df];
+                loaded.postingSizes[termId] = df;
+                for (int i = 0; i < df; i++) {
+                    int doc = in.getInt();
+                    loaded.postingDocs[termId][i] = doc;
+                    loaded.postingFreqs[termId][i] = in.getInt();
+                    termCounts[doc]++;
+                }
+            }
+            // Rebuild each document's term list, needed to update frequencies on removal
+            for (int doc = 0; doc < docs; doc++) {
+                loaded.docTerms[doc] = new int[termCounts[doc]];
+                termCounts[doc] = 0;
+            }
+            for (int termId = 0; termId < termCount; termId++) {
+                for (int i = 0; i < loaded.postingSizes[termId]; i++) {
+                    int doc = loaded.postingDocs[termId][i];
+                    loaded.docTerms[doc][termCounts[doc]++] = termId;
+                }
+            }
+            lock.writeLock().lock();
+            try {
+                copyFrom(loaded);
+            } finally {
+                lock.writeLock().unlock();
+            }
+            return true;
+        }
+    }
+
+    /**
+     * @return the index terms of {@code text}, in order and with repeats
+     */
+    static List<String> tokens(String text) {
+        List<String> tokens = new ArrayList<>();
+        StringBuilder word = new StringBuilder();
+        StringBuilder joined = new StringBuilder();
+        int parts = 0;
+        for (int i = 0; i <= text.length(); i++) {
+            char c = i < text.length() ? Character.toLowerCase(text.charAt(i)) : ' ';
+            if (Character.isLetterOrDigit(c)) {
+                word.append(c);
+                joined.append(c);
+                continue;
+            }
+            if (word.length() > 0) {
+                tokens.add(word.toString());
+                word.setLength(0);
+                parts++;
+                boolean joiner = (c == '-' || c == '/' || c == '.') && i + 1 < text.length()
+                        && Character.isLetterOrDigit(text.charAt(i + 1));
+                if (joiner) {
+                    joined.append(c);
+                    continue;
+                }
+            }
+            if (parts > 1) {
+                tokens.add(joined.toString());
+            }
+            joined.setLength(0);
+            parts = 0;
+        }
+        return tokens;
+    }
+
+    private void insert(String id, TextSegment segment) {
+        List<String> tokens = tokens(segment.text());
+        int[] termIds = new int[tokens.size()];
+        for (int i = 0; i < termIds.length; i++) {
+            Integer termId = terms.get(tokens.get(i));
+            if (termId == null) {
+                termId = terms.size();
+                terms.put(tokens.get(i), termId);
+                growTerms(termId + 1);
+            }
+            termIds[i] = termId;
+        }
+        Arrays.sort(termIds);
+        int doc = docCount++;
+        growDocs(docCount);
+        int[] unique = new int[termIds.length];
+        int uniqueCount = 0;
+        for (int i = 0; i < termIds.length;) {
+            int termId = termIds[i];
+            int j = i;
+            while (j < termIds.length && termIds[j] == termId) {
+                j++;
+            }
+            appendPosting(termId, doc, j - i);
+            unique[uniqueCount++] = termId;
+            i = j;
+        }
+        docIds[doc] = id;
+        segments[doc] = segment;
+        lengths[doc] = termIds.length;
+        docTerms[doc] = Arrays.copyOf(unique, uniqueCount);
+        docsById.put(id, doc);
+        liveDocs++;
+        liveLength += termIds.length;
+    }
+
+    private void remove(String id) {
+        Integer doc = docsById.remove(id);
+        if (doc == null) {
+            return;
+        }
+        for (int termId : docTerms[doc]) {
+            documentFrequencies[termId]--;
+        }
+        segments[doc] = null;
+        docTerms[doc] = null;
+        liveDocs--;
+        liveLength -= lengths[doc];
+    }
+
+    private void compact() {
+        List<String> ids = new ArrayList<>(liveDocs);
+        List<TextSegment> live = new ArrayList<>(liveDocs);
+        for (int doc = 0; doc < docCount; doc++) {
+            if (segments[doc] != null) {
+                ids.add(docIds[doc]);
+                live.add(segments[doc]);
+            }
+        }
+        reset();
+        for (int i = 0; i < ids.size(); i++) {
+            insert(ids.get(i), live.get(i));
+        }
+    }
+
+    private void reset() {
+        terms.clear();
+        docsById.clear();
+        postingDocs = new int[0][];
+        postingFreqs = new int[0][];
+        postingSizes = new int[0];
+        documentFrequencies = new int[0];
+        docIds = new String[0];
+        segments = new TextSegment[0];
+        lengths = new int[0];
+        docTerms = new int[0][];
+        docCount = 0;
+        liveDocs = 0;
+        liveLength = 0;
+    }
+
+    private void copyFrom(Bm25Index other) {
+        reset();
+        terms.putAll(other.terms);
+        docsById.putAll(other.docsById);
+        postingDocs = other.postingDocs;
+        postingFreqs = other.postingFreqs;
+        postingSizes = other.postingSizes;
+        documentFrequencies = other.documentFrequencies;
+        docIds = other.docIds;
+        segments = other.segments;
+        lengths = other.lengths;
+        docTerms = other.docTerms;
+        docCount = other.docCount;
+        liveDocs = other.liveDocs;
+        liveLength = other.liveLength;
+    }
+
+    private void appendPosting(int termId, int doc, int freq) {
+        int size = postingSizes[termId];
+        if (size == postingDocs[termId].length) {
+            int capacity = Math.max(4, size * 2);
+            postingDocs[termId] = Arrays.copyOf(postingDocs[termId], capacity);
+            postingFreqs[termId] = Arrays.copyOf(postingFreqs[termId], capacity);
+        }
+        postingDocs[termId][size] = doc;
+        postingFreqs[termId][size] = freq;
+        postingSizes[termId] = size + 1;
+        documentFrequencies[termId]++;
+    }
+
+    private void growTerms(int count) {
+        int old = postingDocs.length;
+        if (count <= old) {
+            return;
+        }
+        int capacity = Math.max(count, old * 2);
+        postingDocs = Arrays.copyOf(postingDocs, capacity);
+        postingFreqs = Arrays.copyOf(postingFreqs, capacity);
+        postingSizes = Arrays.copyOf(postingSizes, capacity);
+        documentFrequencies = Arrays.copyOf(documentFrequencies, capacity);
+        for (int i = old; i < capacity; i++) {
+            postingDocs[i] = new int[0];
+            postingFreqs[i] = new int[0];
+        }
+    }
+
+    private void growDocs(int count) {
+        if (count <= docIds.length) {
+            return;
+        }
+        int capacity = Math.max(count, docIds.length * 2);
+        docIds = Arrays.copyOf(docIds, capacity);
+        segments = Arrays.copyOf(segments, capacity);
+        lengths = Arrays.copyOf(lengths, capacity);
+        docTerms = Arrays.copyOf(docTerms, capacity);
+    }
+
+    private static boolean contains(int[] values, int count, int value) {
+        for (int i = 0; i < count; i++) {
+            if (values[i] == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
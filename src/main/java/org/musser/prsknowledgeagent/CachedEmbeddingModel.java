@@ -0,0 +1,73 @@
+package org.musser.prsknowledgeagent;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.output.Response;
+
+/**
+ * Caches query embeddings in front of the in-process ONNX model, so repeated and
+ * near-identical questions skip inference on the request path.
+ *
+ * Queries are keyed on a normalized form (case, whitespace and trailing punctuation folded;
+ * MiniLM is uncased, so lower-casing does not change the vector). The normalized form is also
+ * what gets embedded, so all variants share one vector whichever of them arrives first. Vectors
+ * are held as primitive arrays and copied on the way out, since callers are free to normalize an
+ * {@link Embedding} in place. Cache misses run through a {@link ConcurrencyLimiter}. Batch calls
+ * ({@link #embedAll(List)}) are document ingestion and bypass both.
+ */
+public class CachedEmbeddingModel implements EmbeddingModel {
+
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+    private static final Pattern TRAILING_PUNCTUATION = Pattern.compile("[\\s?!.]+$");
+
+    private final EmbeddingModel delegate;
+    private final BoundedCache<String, float[]> cache;
+    private final ConcurrencyLimiter limiter;
+
+    public CachedEmbeddingModel(EmbeddingModel delegate, int maxSize, Duration ttl, ConcurrencyLimiter limiter) {
+        this.delegate = delegate;
+        this.cache = new BoundedCache<>(maxSize, ttl, false);
+        this.limiter = limiter;
+    }
+
+    static String normalize(String text) {
+        String folded = WHITESPACE.matcher(text.trim().toLowerCase(Locale.ROOT)).replaceAll(" ");
+        return TRAILING_PUNCTUATION.matcher(folded).replaceAll("");
+    }
+
+    @Override
+    public Response<Embedding> embed(String text) {
+        float[] vector = cache.computeIfAbsent(normalize(text), key -> {
+            // Inference is CPU-bound; more concurrent runs than cores only adds latency
+            try (ConcurrencyLimiter.Permit permit = limiter.acquire()) {
+                return delegate.embed(key).content().vector();
+            }
+        });
+        return Response.from(Embedding.from(vector.clone()));
+    }
+
+    @Override
+    public Response<Embedding> embed(TextSegment textSegment) {
+        return embed(textSegment.text());
+    }
+
+    @Override
+    public Response<List<Embedding>> embedAll(List<TextSegment> textSegments) {
+        return delegate.embedAll(textSegments);
+    }
+
+    @Override
+    public int dimension() {
+        return delegate.dimension();
+    }
+
+    public BoundedCache<String, float[]> cache() {
+        return cache;
+    }
+}
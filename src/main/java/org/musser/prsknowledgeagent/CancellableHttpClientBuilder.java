@@ -0,0 +1,78 @@
+package org.musser.prsknowledgeagent;
+
+import java.time.Duration;
+
+import dev.langchain4j.exception.HttpException;
+import dev.langchain4j.http.client.HttpClient;
+import dev.langchain4j.http.client.HttpClientBuilder;
+import dev.langchain4j.http.client.HttpClientBuilderLoader;
+import dev.langchain4j.http.client.HttpRequest;
+import dev.langchain4j.http.client.SuccessfulHttpResponse;
+import dev.langchain4j.http.client.sse.ServerSentEventListener;
+import dev.langchain4j.http.client.sse.ServerSentEventParser;
+
+/**
+ * {@link HttpClientBuilder} whose streaming requests can be cancelled through the
+ * {@link StreamingCall} bound to the thread that sends them. Everything else is delegated to the
+ * HTTP client langchain4j would pick by default.
+ */
+public class CancellableHttpClientBuilder implements HttpClientBuilder {
+
+    private final HttpClientBuilder delegate;
+
+    public CancellableHttpClientBuilder() {
+        this(HttpClientBuilderLoader.loadHttpClientBuilder());
+    }
+
+    public CancellableHttpClientBuilder(HttpClientBuilder delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public Duration connectTimeout() {
+        return delegate.connectTimeout();
+    }
+
+    @Override
+    public CancellableHttpClientBuilder connectTimeout(Duration timeout) {
+        delegate.connectTimeout(timeout);
+        return this;
+    }
+
+    @Override
+    public Duration readTimeout() {
+        return delegate.readTimeout();
+    }
+
+    @Override
+    public CancellableHttpClientBuilder readTimeout(Duration timeout) {
+        delegate.readTimeout(timeout);
+        return this;
+    }
+
+    @Override
+    public HttpClient build() {
+        HttpClient client = delegate.build();
+        return new HttpClient() {
+
+            @Override
+            public SuccessfulHttpResponse execute(HttpRequest request) throws HttpException {
+                return client.execute(request);
+            }
+
+            @Override
+            public void execute(HttpRequest request, ServerSentEventParser parser, ServerSentEventListener listener) {
+                // The body is parsed on the client's own thread, so capture the call here
+                StreamingCall call = StreamingCall.current();
+                if (call == null) {
+                    client.execute(request, parser, listener);
+                    return;
+                }
+                client.execute(request, (body, eventListener) -> {
+                    call.attach(body);
+                    parser.parse(body, eventListener);
+                }, listener);
+            }
+        };
+    }
+}
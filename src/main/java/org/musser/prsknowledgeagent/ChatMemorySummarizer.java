@@ -0,0 +1,226 @@
+package org.musser.prsknowledgeagent;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.jsoup.Jsoup;
+
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.SystemMessage;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.model.TokenCountEstimator;
+import dev.langchain4j.model.chat.ChatModel;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Compacts old chat turns into a rolling summary in the background.
+ *
+ * {@link SummarizingChatMemory} only sends the newest turns that fit the token budget. Once the
+ * stored turns exceed that budget, the oldest ones are handed to the chat model together with
+ * the previous summary, and the new summary replaces them in {@link RedisChatMemoryStore}. That
+ * happens on a small bounded pool, never on the request thread; if the pool is saturated the
+ * compaction is simply retried on a later turn.
+ */
+public class ChatMemorySummarizer implements AutoCloseable {
+
+    private static final String INSTRUCTIONS = """
+            Summarize the conversation below between a user and a Paul Reed Smith guitars assistant.
+            Keep every fact the assistant may need later: guitars, models, specs, years, prices and the
+            user's preferences, plans and open questions. Write plain text, at most 150 words.
+            If a previous summary is given, merge it into the new summary.
+            """;
+
+    private final RedisChatMemoryStore store;
+    private final ChatModel chatModel;
+    private final TokenCountEstimator tokenizer;
+    private final int maxTokens;
+    private final int maxMessages;
+    private final ThreadPoolExecutor executor;
+    private final Set<Object> pending = ConcurrentHashMap.newKeySet();
+    private final ReentrantLock[] locks = new ReentrantLock[64];
+    private final BoundedCache<ChatMessage, Integer> tokenCounts = new BoundedCache<>(50_000, Duration.ofHours(1), true);
+
+    private final DistributionSummary tokensSent;
+    private final DistributionSummary tokensSaved;
+    private final Counter summariesWritten;
+    private final Counter summariesFailed;
+    private final Timer summaryLatency;
+
+    public ChatMemorySummarizer(RedisChatMemoryStore store, ChatModel chatModel, TokenCountEstimator tokenizer,
+            int maxTokens, int maxMessages, MeterRegistry meterRegistry) {
+        this.store = store;
+        this.chatModel = chatModel;
+        this.tokenizer = tokenizer;
+        this.maxTokens = maxTokens;
+        this.maxMessages = maxMessages;
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new ReentrantLock();
+        }
+        this.executor = new ThreadPoolExecutor(1, 2, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(100), r -> {
+            Thread thread = new Thread(r, "prs-chat-summarizer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.tokensSent = DistributionSummary.builder("prs.chat.memory.tokens.sent")
+                .description("Chat history tokens sent to the model per turn")
+                .register(meterRegistry);
+        this.tokensSaved = DistributionSummary.builder("prs.chat.memory.tokens.saved")
+                .description("Chat history tokens per turn not sent thanks to the token budget and summary")
+                .register(meterRegistry);
+        this.summariesWritten = Counter.builder("prs.chat.memory.summaries").tag("result", "success")
+                .register(meterRegistry);
+        this.summariesFailed = Counter.builder("prs.chat.memory.summaries").tag("result", "failure")
+                .register(meterRegistry);
+        this.summaryLatency = Timer.builder("prs.chat.memory.summary.latency").register(meterRegistry);
+    }
+
+    int maxTokens() {
+        return maxTokens;
+    }
+
+    int maxMessages() {
+        return maxMessages;
+    }
+
+    RedisChatMemoryStore store() {
+        return store;
+    }
+
+    /**
+     * Serializes changes to one session's stored messages between request and summarizer threads.
+     */
+    ReentrantLock lock(Object memoryId) {
+        return locks[Math.floorMod(memoryId.hashCode(), locks.length)];
+    }
+
+    int tokens(ChatMessage message) {
+        return tokenCounts.computeIfAbsent(message, tokenizer::estimateTokenCountInMessage);
+    }
+
+    void recordTurn(int sent, int saved) {
+        tokensSent.record(sent);
+        tokensSaved.record(saved);
+    }
+
+    /**
+     * Schedules a compaction of {@code memoryId} unless one is already queued or running.
+     */
+    void compactLater(Object memoryId) {
+        if (pending.add(memoryId)) {
+            try {
+                executor.execute(() -> {
+                    try {
+                        compact(memoryId);
+                    } finally {
+                        pending.remove(memoryId);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // Saturated or shutting down; a later turn schedules it again
+                pending.remove(memoryId);
+            }
+        }
+    }
+
+    /**
+     * Folds the oldest turns into the summary until the remaining turns take at most half the
+     * budget, so a session is not re-summarized on every turn.
+     */
+    private void compact(Object memoryId) {
+        List<ChatMessage> messages = store.getMessages(memoryId);
+        int first = messages.isEmpty() || !(messages.get(0) instanceof SystemMessage) ? 0 : 1;
+        int total = 0;
+        for (int i = first; i < messages.size(); i++) {
+            total += tokens(messages.get(i));
+        }
+        if (total <= maxTokens) {
+            return;
+        }
+        // Cut at a user message, so the kept turns never start with an orphaned answer
+        int cut = first;
+        int remaining = total;
+        for (int i = first; i < messages.size() - 1 && remaining > maxTokens / 2; i++) {
+            remaining -= tokens(messages.get(i));
+            if (messages.get(i + 1) instanceof UserMessage) {
+                cut = i + 1;
+            }
+        }
+        if (cut == first) {
+            return;
+        }
+        List<ChatMessage> folded = List.copyOf(messages.subList(first, cut));
+        int foldedTokens = 0;
+        for (ChatMessage message : folded) {
+            foldedTokens += tokens(message);
+        }
+
+        RedisChatMemoryStore.Summary previous = store.getSummary(memoryId);
+        String text;
+        long start = System.nanoTime();
+        try {
+            text = chatModel.chat(List.of(SystemMessage.from(INSTRUCTIONS), UserMessage.from(transcript(previous, folded))))
+                    .aiMessage().text();
+            summaryLatency.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        } catch (RuntimeException e) {
+            summariesFailed.increment();
+            System.out.println("Could not summarize chat session " + memoryId + ": " + e.getMessage());
+            return;
+        }
+        if (text == null || text.isBlank()) {
+            summariesFailed.increment();
+            return;
+        }
+
+        ReentrantLock lock = lock(memoryId);
+        lock.lock();
+        try {
+            // New turns may have arrived meanwhile; only drop the ones that were summarized
+            List<ChatMessage> current = new ArrayList<>(store.getMessages(memoryId));
+            int at = current.isEmpty() || !(current.get(0) instanceof SystemMessage) ? 0 : 1;
+            if (current.size() - at < folded.size() || !current.subList(at, at + folded.size()).equals(folded)) {
+                return;
+            }
+            int summarized = foldedTokens + (previous == null ? 0 : previous.summarizedTokens());
+            store.updateSummary(memoryId, new RedisChatMemoryStore.Summary(text.trim(), summarized));
+            current.subList(at, at + folded.size()).clear();
+            store.updateMessages(memoryId, current);
+            summariesWritten.increment();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static String transcript(RedisChatMemoryStore.Summary previous, List<ChatMessage> messages) {
+        StringBuilder transcript = new StringBuilder();
+        if (previous != null) {
+            transcript.append("Previous summary:\n").append(previous.text()).append("\n\n");
+        }
+        transcript.append("Conversation:\n");
+        for (ChatMessage message : messages) {
+            if (message instanceof UserMessage user && user.hasSingleText()) {
+                transcript.append("User: ").append(user.singleText()).append('\n');
+            } else if (message instanceof AiMessage ai && ai.text() != null) {
+                // Answers are HTML; the markup is not worth summarizing
+                transcript.append("Assistant: ").append(Jsoup.parse(ai.text()).text()).append('\n');
+            }
+        }
+        return transcript.toString();
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,237 @@
+package org.musser.prsknowledgeagent;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Caps the number of concurrent calls to one upstream (the chat model API, the ONNX embedding
+ * model).
+ *
+ * With request handling on virtual threads, threads are no longer the limit on how much work is
+ * in flight, so each upstream gets an explicit one instead. Callers over the limit queue for up
+ * to {@code maxWait}; when the queue is full or the wait runs out they are rejected with
+ * {@link LimitExceededException}, which the controller turns into a 503.
+ *
+ * A {@linkplain #fixed fixed} limiter never changes its limit. An {@linkplain #adaptive adaptive}
+ * one adjusts it from what each call reports when its {@link Permit} is released (AIMD):
+ * <ul>
+ * <li>rate limited or timed out ({@link Permit#dropped()}): halve the limit;</li>
+ * <li>latency above {@value #LATENCY_TOLERANCE} times the lowest latency seen over the last
+ * {@value #BASELINE_WINDOW} to twice as many calls: shrink it by 10%, since the upstream is
+ * queueing. As in TCP Vegas, the recent minimum stands for the upstream's unloaded latency; unlike
+ * an average it does not drift up with the queueing it is meant to detect, and the window still
+ * lets it follow a lasting change such as a slower model;</li>
+ * <li>otherwise, while at least half the limit is in use: grow it by one per limit's worth of
+ * calls.</li>
+ * </ul>
+ */
+public class ConcurrencyLimiter {
+
+    static final double LATENCY_TOLERANCE = 2.0;
+    static final int BASELINE_WINDOW = 100;
+
+    /**
+     * Thrown when no permit became free within the limiter's maximum wait.
+     */
+    public static class LimitExceededException extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        LimitExceededException(String name, int limit) {
+            super("Too many concurrent " + name + " calls (limit " + limit + ")");
+        }
+    }
+
+    /**
+     * Held for the duration of one upstream call. Release it exactly one way; later calls are
+     * ignored, so releasing from both a completion and a cleanup path is harmless.
+     */
+    public final class Permit implements AutoCloseable {
+
+        private final long startNanos = System.nanoTime();
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Permit() {
+        }
+
+        /**
+         * Releases the permit, using the time since it was acquired as the latency sample.
+         */
+        public void success() {
+            success(System.nanoTime() - startNanos);
+        }
+
+        public void success(long latencyNanos) {
+            if (released.compareAndSet(false, true)) {
+                release(latencyNanos, false);
+            }
+        }
+
+        /**
+         * Releases the permit after the upstream rejected or timed out the call.
+         */
+        public void dropped() {
+            if (released.compareAndSet(false, true)) {
+                release(-1, true);
+            }
+        }
+
+        /**
+         * Releases the permit without feedback, e.g. for a failure unrelated to load.
+         */
+        @Override
+        public void close() {
+            if (released.compareAndSet(false, true)) {
+                release(-1, false);
+            }
+        }
+    }
+
+    private final String name;
+    private final int minLimit;
+    private final int maxLimit;
+    private final int maxQueue;
+    private final long maxWaitNanos;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition available = lock.newCondition();
+    private final LongAdder rejected = new LongAdder();
+    private volatile double limit;
+    private long windowMinNanos = Long.MAX_VALUE;
+    private long previousWindowMinNanos = Long.MAX_VALUE;
+    private int windowSamples;
+    private int inFlight;
+    private int waiting;
+
+    private ConcurrencyLimiter(String name, int initialLimit, int minLimit, int maxLimit, int maxQueue,
+            Duration maxWait) {
+        if (minLimit < 1 || minLimit > maxLimit || initialLimit < minLimit || initialLimit > maxLimit) {
+            throw new IllegalArgumentException("Expected 1 <= min <= initial <= max limit");
+        }
+        this.name = name;
+        this.limit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.maxQueue = maxQueue;
+        this.maxWaitNanos = maxWait.toNanos();
+    }
+
+    public static ConcurrencyLimiter fixed(String name, int limit, Duration maxWait) {
+        return new ConcurrencyLimiter(name, limit, limit, limit, Integer.MAX_VALUE, maxWait);
+    }
+
+    public static ConcurrencyLimiter adaptive(String name, int initialLimit, int minLimit, int maxLimit,
+            int maxQueue, Duration maxWait) {
+        return new ConcurrencyLimiter(name, initialLimit, minLimit, maxLimit, maxQueue, maxWait);
+    }
+
+    public Permit acquire() {
+        lock.lock();
+        try {
+            if (inFlight >= limit()) {
+                await();
+            }
+            inFlight++;
+            return new Permit();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void await() {
+        if (waiting >= maxQueue) {
+            throw reject();
+        }
+        waiting++;
+        try {
+            long remaining = maxWaitNanos;
+            while (inFlight >= limit()) {
+                if (remaining <= 0) {
+                    throw reject();
+                }
+                remaining = available.awaitNanos(remaining);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw reject();
+        } finally {
+            waiting--;
+        }
+    }
+
+    private LimitExceededException reject() {
+        rejected.increment();
+        return new LimitExceededException(name, limit());
+    }
+
+    private void release(long latencyNanos, boolean dropped) {
+        lock.lock();
+        try {
+            int used = inFlight;
+            inFlight--;
+            if (minLimit < maxLimit) {
+                adjust(latencyNanos, dropped, used);
+            }
+            available.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void adjust(long latencyNanos, boolean dropped, int used) {
+        if (dropped) {
+            limit = Math.max(minLimit, limit / 2);
+            return;
+        }
+        if (latencyNanos < 0) {
+            return;
+        }
+        windowMinNanos = Math.min(windowMinNanos, latencyNanos);
+        long baselineNanos = Math.min(windowMinNanos, previousWindowMinNanos);
+        if (latencyNanos > LATENCY_TOLERANCE * baselineNanos) {
+            limit = Math.max(minLimit, limit * 0.9);
+        } else if (used * 2 >= limit) {
+            limit = Math.min(maxLimit, limit + 1 / limit);
+        }
+        if (++windowSamples == BASELINE_WINDOW) {
+            previousWindowMinNanos = windowMinNanos;
+            windowMinNanos = Long.MAX_VALUE;
+            windowSamples = 0;
+        }
+    }
+
+    public String name() {
+        return name;
+    }
+
+    /**
+     * @return the current limit; constant for a fixed limiter
+     */
+    public int limit() {
+        return (int) limit;
+    }
+
+    public int inFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int waiting() {
+        lock.lock();
+        try {
+            return waiting;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long rejected() {
+        return rejected.sum();
+    }
+}
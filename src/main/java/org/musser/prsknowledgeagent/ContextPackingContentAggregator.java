@@ -0,0 +1,190 @@
+package org.musser.prsknowledgeagent;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.TokenCountEstimator;
+import dev.langchain4j.rag.content.Content;
+import dev.langchain4j.rag.content.aggregator.ContentAggregator;
+import dev.langchain4j.rag.content.aggregator.DefaultContentAggregator;
+import dev.langchain4j.rag.query.Query;
+
+/**
+ * Packs the retrieved segments into a token budget before they are injected into the prompt.
+ *
+ * Results are first fused as by {@link DefaultContentAggregator}; their order is the ranking.
+ * Segments that are near-duplicates of a better-ranked one ({@link NearDuplicateIndex}) are
+ * dropped. The rest are grouped per page into one block, in segment order: consecutive segments
+ * share up to {@link DocumentIndexer#MAX_OVERLAP_TOKENS} tokens of overlap, which is kept once,
+ * and gaps between segments are marked {@code [...]}. Blocks rank as their best segment and
+ * are taken in that order until {@code maxTokens} by the {@link TokenCountEstimator} is used up; a
+ * block that does not fit is cut at a word to what is left of the budget.
+ *
+ * Tokens before and after packing go to {@link RagMetrics#context}; packing is timed as the
+ * {@code context_packing} stage.
+ */
+public class ContextPackingContentAggregator implements ContentAggregator {
+
+    private static final String GAP = "\n\n[...]\n\n";
+    // Shorter matches between the end of a segment and the start of the next are coincidence
+    private static final int MIN_OVERLAP_CHARS = 16;
+    // Less of a block than this is not worth its place in the prompt
+    private static final int MIN_CUT_TOKENS = 64;
+
+    private static final class Block {
+        final Content best;
+        final List<Integer> indexes = new ArrayList<>();
+        final List<String> texts = new ArrayList<>();
+        int segmentTokens;
+
+        Block(Content best) {
+            this.best = best;
+        }
+
+        void add(int index, String text, int tokens) {
+            segmentTokens += tokens;
+            int position = 0;
+            while (position < indexes.size() && indexes.get(position) < index) {
+                position++;
+            }
+            indexes.add(position, index);
+            texts.add(position, text);
+        }
+
+        String text() {
+            StringBuilder text = new StringBuilder(texts.get(0));
+            for (int i = 1; i < texts.size(); i++) {
+                String next = texts.get(i);
+                int overlap = indexes.get(i) == indexes.get(i - 1) + 1 ? overlap(texts.get(i - 1), next) : 0;
+                if (overlap > 0) {
+                    text.append(next, overlap, next.length());
+                } else {
+                    text.append(GAP).append(next);
+                }
+            }
+            return text.toString();
+        }
+    }
+
+    private final ContentAggregator fusion = new DefaultContentAggregator();
+    private final TokenCountEstimator tokenizer;
+    private final int maxTokens;
+    private final RagMetrics metrics;
+
+    public ContextPackingContentAggregator(TokenCountEstimator tokenizer, int maxTokens, RagMetrics metrics) {
+        this.tokenizer = tokenizer;
+        this.maxTokens = maxTokens;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public List<Content> aggregate(Map<Query, Collection<List<Content>>> queryToContents) {
+        List<Content> contents = fusion.aggregate(queryToContents);
+        return metrics.time("context_packing", () -> pack(contents));
+    }
+
+    List<Content> pack(List<Content> contents) {
+        NearDuplicateIndex seen = new NearDuplicateIndex();
+        Map<String, Block> blocks = new LinkedHashMap<>();
+        int retrievedTokens = 0;
+        for (int rank = 0; rank < contents.size(); rank++) {
+            Content content = contents.get(rank);
+            TextSegment segment = content.textSegment();
+            int tokens = tokenizer.estimateTokenCountInText(segment.text());
+            retrievedTokens += tokens;
+            Long simhash = segment.metadata().getLong(DocumentIndexer.SIMHASH);
+            long fingerprint = simhash != null ? simhash : NearDuplicateIndex.fingerprint(segment.text());
+            String pageId = segment.metadata().getString(PageDocuments.PAGE_ID);
+            String index = segment.metadata().getString(DocumentIndexer.SEGMENT_INDEX);
+            if (seen.find(fingerprint, segment.text()) != null) {
+                continue;
+            }
+            seen.add(String.valueOf(pageId), Integer.toString(rank), fingerprint);
+            // Segments without a page or position cannot be merged with anything
+            String key = pageId != null && index != null ? pageId : "#" + rank;
+            blocks.computeIfAbsent(key, k -> new Block(content))
+                    .add(index != null ? Integer.parseInt(index) : 0, segment.text(), tokens);
+        }
+
+        List<Content> packed = new ArrayList<>(blocks.size());
+        int packedTokens = 0;
+        for (Block block : blocks.values()) {
+            String text = block.text();
+            int tokens = block.texts.size() == 1 ? block.segmentTokens : tokenizer.estimateTokenCountInText(text);
+            if (packedTokens + tokens > maxTokens) {
+                if (maxTokens - packedTokens < MIN_CUT_TOKENS) {
+                    continue;
+                }
+                text = cut(text, tokens, maxTokens - packedTokens);
+                tokens = tokenizer.estimateTokenCountInText(text);
+            }
+            packedTokens += tokens;
+            TextSegment best = block.best.textSegment();
+            packed.add(Content.from(TextSegment.from(text, best.metadata()), block.best.metadata()));
+        }
+        metrics.context(retrievedTokens, packedTokens);
+        return packed;
+    }
+
+    /**
+     * The splitter re-joins the overlapping sentences, so line breaks between them may differ:
+     * any run of whitespace matches any other.
+     *
+     * @return where {@code next} continues after repeating the longest end of {@code previous},
+     *         or 0 if that end is shorter than {@value #MIN_OVERLAP_CHARS} characters
+     */
+    static int overlap(String previous, String next) {
+        int first = skipWhitespace(next, 0);
+        if (first == next.length()) {
+            return 0;
+        }
+        for (int start = previous.indexOf(next.charAt(first)); start >= 0
+                && previous.length() - start >= MIN_OVERLAP_CHARS; start = previous.indexOf(next.charAt(first), start + 1)) {
+            int i = start;
+            int j = first;
+            while (i < previous.length() && j < next.length()) {
+                if (Character.isWhitespace(previous.charAt(i)) && Character.isWhitespace(next.charAt(j))) {
+                    i = skipWhitespace(previous, i);
+                    j = skipWhitespace(next, j);
+                } else if (previous.charAt(i) == next.charAt(j)) {
+                    i++;
+                    j++;
+                } else {
+                    break;
+                }
+            }
+            if (skipWhitespace(previous, i) == previous.length()) {
+                return j;
+            }
+        }
+        return 0;
+    }
+
+    private static int skipWhitespace(String text, int from) {
+        while (from < text.length() && Character.isWhitespace(text.charAt(from))) {
+            from++;
+        }
+        return from;
+    }
+
+    /**
+     * Shortens {@code text} of {@code tokens} tokens at a word boundary until it fits in
+     * {@code maxTokens}: first in proportion, then by a tenth at a time.
+     */
+    private String cut(String text, int tokens, int maxTokens) {
+        int length = (int) ((long) text.length() * maxTokens / tokens);
+        while (length > 0) {
+            int end = text.lastIndexOf(' ', length);
+            text = text.substring(0, end > 0 ? end : length);
+            if (tokenizer.estimateTokenCountInText(text) <= maxTokens) {
+                return text;
+            }
+            length = text.length() * 9 / 10;
+        }
+        return "";
+    }
+}
@@ -0,0 +1,264 @@
+package org.musser.prsknowledgeagent;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * On-disk record of what the crawler fetched: per URL the HTTP validators (ETag,
+ * Last-Modified), a hash of the body, when it was last fetched, and the extracted page and its
+ * links, so an unchanged page costs a conditional GET and no parsing.
+ *
+ * Records are appended to a journal and flushed as pages complete. A {@code run} marker file
+ * holds the start time of the crawl in progress; it is only removed by {@link #finish()}. If a
+ * crawl dies, the next one finds the marker and resumes: pages fetched since that start time are
+ * taken from the journal without touching the network, so the frontier rebuilds itself from
+ * their links and only the pages that were in flight are fetched again.
+ *
+ * Journal layout (big-endian): int magic ("PRSC"), int format version, then records of a type
+ * byte followed by
+ * <pre>
+ *   'P' page:  url, etag, last-modified, content hash, long fetched-at, markdown, int link count, links
+ *   'T' touch: url, long fetched-at   (page confirmed unchanged)
+ * </pre>
+ * with strings as int length + UTF-8 bytes. A record cut short by a crash is ignored.
+ */
+public class CrawlDatabase implements Closeable {
+
+    private static final int MAGIC = 0x50525343; // "PRSC"
+    // Version 2: pages extracted by MarkdownExtractor; older extractions are not reused
+    private static final int FORMAT_VERSION = 2;
+    private static final byte RECORD_PAGE = 'P';
+    private static final byte RECORD_TOUCH = 'T';
+
+    /**
+     * One crawled page. {@code etag} and {@code lastModified} are empty when the server sent none.
+     */
+    public record Page(String url, String etag, String lastModified, String contentHash, long fetchedAt,
+            String markdown, List<String> links) {
+
+        Page touched(long at) {
+            return new Page(url, etag, lastModified, contentHash, at, markdown, links);
+        }
+    }
+
+    private final Path journal;
+    private final Path runMarker;
+    private final Map<String, Page> pages = new ConcurrentHashMap<>();
+    private final long runStartedAt;
+    private final boolean resumed;
+    private DataOutputStream out;
+
+    private CrawlDatabase(Path dir) throws IOException {
+        Files.createDirectories(dir);
+        this.journal = dir.resolve("pages.db");
+        this.runMarker = dir.resolve("run");
+        long validBytes = load();
+        if (Files.isRegularFile(runMarker)) {
+            this.runStartedAt = Long.parseLong(Files.readString(runMarker).trim());
+            this.resumed = true;
+        } else {
+            this.runStartedAt = System.currentTimeMillis();
+            this.resumed = false;
+            writeAtomically(runMarker, Long.toString(runStartedAt).getBytes(StandardCharsets.UTF_8));
+        }
+        if (validBytes < 0) {
+            rewrite();
+        } else {
+            // Drop a torn record at the end so new records follow the last complete one
+            try (SeekableByteChannel channel = Files.newByteChannel(journal, StandardOpenOption.WRITE)) {
+                channel.truncate(validBytes);
+            }
+        }
+        this.out = openJournal();
+    }
+
+    /**
+     * Opens the database in {@code dir}, starting a crawl or resuming the one that was interrupted.
+     */
+    public static CrawlDatabase open(Path dir) throws IOException {
+        return new CrawlDatabase(dir);
+    }
+
+    public Page get(String url) {
+        return pages.get(url);
+    }
+
+    /**
+     * @return true if the page was already fetched during the current (resumed) crawl
+     */
+    public boolean fetchedThisRun(Page page) {
+        return page != null && page.fetchedAt() >= runStartedAt;
+    }
+
+    public boolean resumed() {
+        return resumed;
+    }
+
+    public int size() {
+        return pages.size();
+    }
+
+    public synchronized void put(Page page) throws IOException {
+        pages.put(page.url(), page);
+        writePage(out, page);
+        out.flush();
+    }
+
+    /**
+     * Records that the page was fetched again and found unchanged.
+     */
+    public synchronized Page touch(Page page) throws IOException {
+        Page touched = page.touched(System.currentTimeMillis());
+        pages.put(page.url(), touched);
+        out.writeByte(RECORD_TOUCH);
+        writeString(out, page.url());
+        out.writeLong(touched.fetchedAt());
+        out.flush();
+        return touched;
+    }
+
+    /**
+     * Ends the crawl: compacts the journal to the pages seen in this crawl (pages no longer
+     * linked are dropped) and removes the run marker.
+     */
+    public synchronized void finish() throws IOException {
+        pages.values().removeIf(page -> !fetchedThisRun(page));
+        out.close();
+        rewrite();
+        out = openJournal();
+        Files.deleteIfExists(runMarker);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        out.close();
+    }
+
+    /**
+     * @return the length of the valid part of the journal, or -1 if it is missing or unreadable
+     */
+    private long load() throws IOException {
+        if (!Files.isRegularFile(journal)) {
+            return -1;
+        }
+        ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(journal));
+        if (in.remaining() < 8 || in.getInt() != MAGIC || in.getInt() != FORMAT_VERSION) {
+            return -1;
+        }
+        int valid = in.position();
+        try {
+            while (in.hasRemaining()) {
+                byte type = in.get();
+                if (type == RECORD_PAGE) {
+                    String url = readString(in);
+                    String etag = readString(in);
+                    String lastModified = readString(in);
+                    String contentHash = readString(in);
+                    long fetchedAt = in.getLong();
+                    String markdown = readString(in);
+                    int count = in.getInt();
+                    if (count < 0 || count > in.remaining() / Integer.BYTES) {
+                        throw new BufferUnderflowException();
+                    }
+                    List<String> links = new ArrayList<>(count);
+                    for (int i = 0; i < count; i++) {
+                        links.add(readString(in));
+                    }
+                    pages.put(url, new Page(url, etag, lastModified, contentHash, fetchedAt, markdown, links));
+                } else if (type == RECORD_TOUCH) {
+                    String url = readString(in);
+                    long fetchedAt = in.getLong();
+                    pages.computeIfPresent(url, (key, page) -> page.touched(fetchedAt));
+                } else {
+                    break;
+                }
+                valid = in.position();
+            }
+        } catch (BufferUnderflowException e) {
+            // A crash mid-append leaves a partial last record
+        }
+        if (valid < in.limit()) {
+            System.out.println("Ignoring incomplete record at the end of " + journal);
+        }
+        return valid;
+    }
+
+    /**
+     * Writes the current pages as a fresh journal and atomically moves it into place.
+     */
+    private void rewrite() throws IOException {
+        Path tmp = Files.createTempFile(journal.getParent(), journal.getFileName().toString(), ".tmp");
+        try (DataOutputStream tmpOut = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+            tmpOut.writeInt(MAGIC);
+            tmpOut.writeInt(FORMAT_VERSION);
+            for (Page page : pages.values()) {
+                writePage(tmpOut, page);
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+        Files.move(tmp, journal, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private DataOutputStream openJournal() throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(journal, StandardOpenOption.APPEND), 1 << 16));
+    }
+
+    private static void writeAtomically(Path file, byte[] content) throws IOException {
+        Path tmp = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName().toString(), ".tmp");
+        try {
+            Files.write(tmp, content);
+        } catch (IOException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void writePage(DataOutputStream out, Page page) throws IOException {
+        out.writeByte(RECORD_PAGE);
+        writeString(out, page.url());
+        writeString(out, page.etag());
+        writeString(out, page.lastModified());
+        writeString(out, page.contentHash());
+        out.writeLong(page.fetchedAt());
+        writeString(out, page.markdown());
+        out.writeInt(page.links().size());
+        for (String link : page.links()) {
+            writeString(out, link);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = (value == null ? "" : value).getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0 || length > in.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,192 @@
+package org.musser.prsknowledgeagent;
+
+import java.io.IOException;
+import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+import org.jsoup.HttpStatusException;
+
+/**
+ * Concurrent, per-host polite crawler.
+ *
+ * A fixed number of worker threads (virtual threads; they spend nearly all their time waiting on
+ * the network or on the rate limit) take URLs from a shared frontier. Before each fetch a worker
+ * takes a token from the host's bucket in {@link HostRateLimiter}; links returned by the
+ * {@link PageVisitor} are queued one level deeper, once per normalized URL ({@link UrlSeenSet}).
+ * A 429 or 503 pauses the host and the page is retried once.
+ *
+ * All state belongs to one {@link #crawl} call, so every crawl starts from the seeds.
+ */
+public class CrawlEngine {
+
+    /**
+     * Fetches and processes one page.
+     */
+    @FunctionalInterface
+    public interface PageVisitor {
+
+        /**
+         * @return the absolute URLs linked from the page; they are filtered and deduplicated by
+         *         the engine
+         */
+        Collection<String> visit(String url, int depth) throws IOException;
+
+        /**
+         * @return false if {@link #visit} will not contact the host for this URL (e.g. it is
+         *         served from a local copy), so it need not wait for the host's rate limit
+         */
+        default boolean fetches(String url) {
+            return true;
+        }
+    }
+
+    public record Result(int pagesVisited, int pagesFailed, int urlsSeen, Duration elapsed) {
+    }
+
+    private record Task(String url, int depth, int attempt) {
+    }
+
+    private static final Duration HOST_BACK_OFF = Duration.ofSeconds(30);
+
+    private final int workers;
+    private final double requestsPerSecond;
+    private final int burst;
+
+    /**
+     * @param workers concurrent fetches across all hosts
+     * @param requestsPerSecond sustained fetch rate per host
+     * @param burst fetches a host may get back to back after being idle
+     */
+    public CrawlEngine(int workers, double requestsPerSecond, int burst) {
+        if (workers < 1) {
+            throw new IllegalArgumentException("workers must be positive");
+        }
+        this.workers = workers;
+        this.requestsPerSecond = requestsPerSecond;
+        this.burst = burst;
+    }
+
+    public Result crawl(List<String> seeds, int maxDepth, Predicate<String> follow, PageVisitor visitor)
+            throws InterruptedException {
+        Run run = new Run(maxDepth, follow, visitor);
+        for (String seed : seeds) {
+            run.offer(seed, 0);
+        }
+        long start = System.nanoTime();
+        List<Thread> threads = new ArrayList<>(workers);
+        for (int i = 0; i < workers; i++) {
+            threads.add(Thread.ofVirtual().name("prs-crawler-" + i).start(run::work));
+        }
+        try {
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        } catch (InterruptedException e) {
+            threads.forEach(Thread::interrupt);
+            throw e;
+        }
+        return new Result(run.visited.intValue(), run.failed.intValue(), run.seen.size(),
+                Duration.ofNanos(System.nanoTime() - start));
+    }
+
+    /**
+     * Frontier and counters of one crawl.
+     */
+    private final class Run {
+
+        private final int maxDepth;
+        private final Predicate<String> follow;
+        private final PageVisitor visitor;
+        private final LinkedBlockingQueue<Task> frontier = new LinkedBlockingQueue<>();
+        private final UrlSeenSet seen = new UrlSeenSet();
+        private final HostRateLimiter hosts = new HostRateLimiter(requestsPerSecond, burst);
+        // Queued plus in-progress tasks; the crawl is over when it drops to zero
+        private final AtomicInteger pending = new AtomicInteger();
+        private final LongAdder visited = new LongAdder();
+        private final LongAdder failed = new LongAdder();
+
+        Run(int maxDepth, Predicate<String> follow, PageVisitor visitor) {
+            this.maxDepth = maxDepth;
+            this.follow = follow;
+            this.visitor = visitor;
+        }
+
+        void offer(String url, int depth) {
+            if (seen.add(url)) {
+                pending.incrementAndGet();
+                frontier.add(new Task(url, depth, 0));
+            }
+        }
+
+        void work() {
+            try {
+                while (pending.get() > 0) {
+                    Task task = frontier.poll(100, TimeUnit.MILLISECONDS);
+                    if (task != null) {
+                        try {
+                            process(task);
+                        } finally {
+                            // Children were queued first, so this cannot hit zero early
+                            pending.decrementAndGet();
+                        }
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private void process(Task task) throws InterruptedException {
+            String host = host(task.url());
+            if (visitor.fetches(task.url())) {
+                hosts.acquire(host);
+            }
+            Collection<String> links;
+            try {
+                links = visitor.visit(task.url(), task.depth());
+                visited.increment();
+            } catch (HttpStatusException e) {
+                if ((e.getStatusCode() == 429 || e.getStatusCode() == 503) && task.attempt() == 0) {
+                    hosts.backOff(host, HOST_BACK_OFF);
+                    pending.incrementAndGet();
+                    frontier.add(new Task(task.url(), task.depth(), 1));
+                } else {
+                    fail(task, e);
+                }
+                return;
+            } catch (IOException | RuntimeException e) {
+                fail(task, e);
+                return;
+            }
+            if (task.depth() < maxDepth) {
+                for (String link : links) {
+                    if (follow.test(link)) {
+                        offer(link, task.depth() + 1);
+                    }
+                }
+            }
+        }
+
+        private void fail(Task task, Exception e) {
+            failed.increment();
+            System.out.println("Could not crawl " + task.url() + ": " + e.getMessage());
+        }
+    }
+
+    private static String host(String url) {
+        try {
+            String host = URI.create(url).getHost();
+            return host == null ? "" : host;
+        } catch (IllegalArgumentException e) {
+            return "";
+        }
+    }
+}
@@ -9,15 +9,24 @@ import org.springframework.stereotype.Service;
 public class DataPopulation {
 
     PrsCrawler prsCrawler;
-    public DataPopulation(PrsCrawler prsCrawler) {
+    DocumentIndexer documentIndexer;
+    public DataPopulation(PrsCrawler prsCrawler, DocumentIndexer documentIndexer) {
         this.prsCrawler = prsCrawler;
+        this.documentIndexer = documentIndexer;
     }
 
 
     public String loadPrsDocs() throws IOException 
     {   
         prsCrawler.crawlPrs();
-        return "Complete";
+        // Only pages the crawl added, changed or dropped are re-embedded
+        try {
+            DocumentIndexer.Result result = documentIndexer.reindex(PrsCrawler.readOutput());
+            return "Complete: " + result;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return "Interrupted";
+        }
     }
 
     public String createEmbedding() throws IOException 
@@ -0,0 +1,555 @@
+package org.musser.prsknowledgeagent;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+import dev.langchain4j.data.document.Document;
+import dev.langchain4j.data.document.DocumentSplitter;
+import dev.langchain4j.data.document.splitter.DocumentSplitters;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.TokenCountEstimator;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.store.embedding.EmbeddingStore;
+import dev.langchain4j.store.embedding.inmemory.InMemoryEmbeddingStore;
+
+/**
+ * Keeps the embedding store in sync with the crawler output (prs-docs.txt or its shards) one
+ * page at a time.
+ *
+ * Every {@code ## Page:} block becomes its own document with a stable page id and a content
+ * hash (see {@link PageDocuments}). Its segments get deterministic ids ({@code pageId-index}),
+ * so on re-index only new or changed pages are split and embedded, and the segments of changed
+ * or removed pages are deleted from the store by id.
+ *
+ * The segments are also added to a {@link Bm25Index} for lexical retrieval, in the same pass and
+ * saved next to the snapshot.
+ *
+ * Segments that are near-duplicates of one already in the index (menus, signatures and quotes
+ * repeated across pages; see {@link NearDuplicateIndex}) are not embedded. Which segment each
+ * dropped one duplicates is kept next to the snapshot; when that segment goes away, the pages
+ * that relied on it are embedded again.
+ *
+ * With a {@link RedisVectorIndex} shared between instances, one instance (the writer) indexes
+ * as above into a local store and publishes every new version of the contents to it; the others
+ * never embed and only follow the published versions with {@link #syncSharedIndex()}.
+ */
+public class DocumentIndexer {
+
+    // Splitter settings are part of the snapshot fingerprint
+    static final int MAX_SEGMENT_TOKENS = 500;
+    static final int MAX_OVERLAP_TOKENS = 100;
+    static final String SEGMENT_INDEX = "index";
+    static final String SIMHASH = "simhash";
+
+    // segments: number of segment ids the page uses, including dropped duplicates
+    private record IndexedPage(String contentHash, int segments) {
+    }
+
+    private record Duplicate(String keeperId, int bytes, String contentHash) {
+    }
+
+    /**
+     * Outcome of one {@link #reindex(List)} call.
+     */
+    public record Result(int pagesAdded, int pagesChanged, int pagesRemoved, int pagesUnchanged,
+            int segmentsEmbedded, int segmentsRemoved, int duplicatesSkipped, long duplicateBytesSkipped) {
+
+        boolean changed() {
+            return pagesAdded + pagesChanged + pagesRemoved > 0;
+        }
+    }
+
+    private final EmbeddingStore<TextSegment> embeddingStore;
+    private final EmbeddingModel embeddingModel;
+    private final TokenCountEstimator tokenizer;
+    private final IngestionStatus ingestionStatus;
+    private final Path snapshotPath;
+    private final int batchSize;
+    private final int workers;
+    private final boolean deduplicate;
+    private final Bm25Index lexicalIndex;
+    private final RedisVectorIndex sharedIndex;
+    private final boolean publishes;
+    private final Map<String, IndexedPage> pages = new HashMap<>();
+    private final NearDuplicateIndex nearDuplicates = new NearDuplicateIndex();
+    // Dropped segment id -> the indexed segment it duplicates
+    private final Map<String, Duplicate> duplicates = new HashMap<>();
+    private volatile String indexVersion = "";
+    private String savedGraphVersion = "";
+    private String savedLexicalVersion = "";
+
+    /**
+     * @param lexicalIndex kept in sync with the embedding store; null when only the snapshot is
+     *        needed (as when the crawler builds the bundled one)
+     */
+    public DocumentIndexer(EmbeddingStore<TextSegment> embeddingStore, EmbeddingModel embeddingModel,
+            TokenCountEstimator tokenizer, IngestionStatus ingestionStatus, Path snapshotPath, int batchSize, int workers,
+            boolean deduplicate, Bm25Index lexicalIndex) {
+        this(embeddingStore, embeddingModel, tokenizer, ingestionStatus, snapshotPath, batchSize, workers, deduplicate,
+                lexicalIndex, null, false);
+    }
+
+    /**
+     * @param sharedIndex index shared between instances, or null
+     * @param publishes whether this instance is the one that embeds and publishes to
+     *        {@code sharedIndex}; otherwise it only follows it
+     */
+    public DocumentIndexer(EmbeddingStore<TextSegment> embeddingStore, EmbeddingModel embeddingModel,
+            TokenCountEstimator tokenizer, IngestionStatus ingestionStatus, Path snapshotPath, int batchSize, int workers,
+            boolean deduplicate, Bm25Index lexicalIndex, RedisVectorIndex sharedIndex, boolean publishes) {
+        this.embeddingStore = embeddingStore;
+        this.embeddingModel = embeddingModel;
+        this.tokenizer = tokenizer;
+        this.ingestionStatus = ingestionStatus;
+        this.snapshotPath = snapshotPath;
+        this.batchSize = batchSize;
+        this.workers = workers > 0 ? workers : IngestionPipeline.defaultWorkers();
+        this.deduplicate = deduplicate;
+        this.lexicalIndex = lexicalIndex;
+        this.sharedIndex = sharedIndex;
+        this.publishes = publishes;
+    }
+
+    String fingerprint() {
+        String settings = "pages:recursive:" + MAX_SEGMENT_TOKENS + ":" + MAX_OVERLAP_TOKENS + ":"
+                + modelName(embeddingModel)
+                + (deduplicate ? ":simhash:" + NearDuplicateIndex.MAX_DISTANCE : "");
+        return EmbeddingSnapshot.fingerprint(new byte[0], settings);
+    }
+
+    /**
+     * Identifies the model that actually produces the vectors, not a wrapper around it, so that
+     * changing the model invalidates snapshots and wrapping it does not.
+     */
+    static String modelName(EmbeddingModel embeddingModel) {
+        return embeddingModel instanceof PreloadedEmbeddingModel preloaded ? preloaded.modelName()
+                : embeddingModel.getClass().getName();
+    }
+
+    static String segmentId(TextSegment segment) {
+        return segment.metadata().getString(PageDocuments.PAGE_ID) + "-" + segment.metadata().getString(SEGMENT_INDEX);
+    }
+
+    private static String pageOf(String segmentId) {
+        return segmentId.substring(0, segmentId.lastIndexOf('-'));
+    }
+
+    public Path snapshotPath() {
+        return snapshotPath;
+    }
+
+    public EmbeddingStore<TextSegment> embeddingStore() {
+        return embeddingStore;
+    }
+
+    /**
+     * True when this instance serves a shared index published by another one, and so never
+     * re-indexes itself.
+     */
+    public boolean followsSharedIndex() {
+        return sharedIndex != null && !publishes;
+    }
+
+    /**
+     * Catches up with the shared index: when another version has been published since the last
+     * call, the lexical index is rebuilt from its segments and {@link #indexVersion()} moves to
+     * it. Queries keep using the previous contents until then.
+     *
+     * @return number of segments loaded, 0 if already on the published version, or -1 if
+     *         nothing has been published yet
+     */
+    public synchronized int syncSharedIndex() {
+        String version = sharedIndex.version();
+        if (version == null) {
+            return -1;
+        }
+        if (version.equals(indexVersion)) {
+            return 0;
+        }
+        Map<String, TextSegment> segments = new HashMap<>();
+        sharedIndex.forEachSegment(version, segments::put);
+        if (lexicalIndex != null) {
+            lexicalIndex.replaceAll(segments);
+        }
+        indexVersion = version;
+        return segments.size();
+    }
+
+    /**
+     * Identifies the current index contents; it changes whenever a re-index adds, changes or
+     * removes a page, so anything derived from retrieval results can key on it.
+     */
+    public String indexVersion() {
+        return indexVersion;
+    }
+
+    private String computeIndexVersion(Map<String, IndexedPage> pages) {
+        StringBuilder manifest = new StringBuilder(fingerprint());
+        pages.entrySet().stream()
+                .sorted(Map.Entry.comparingByKey())
+                .forEach(e -> manifest.append('\n').append(e.getKey()).append(':').append(e.getValue().contentHash()));
+        return PageDocuments.sha256(manifest.toString()).substring(0, 16);
+    }
+
+    /**
+     * The HNSW graph is saved next to the snapshot, so a restart does not have to rebuild it.
+     */
+    static Path graphPath(Path snapshotPath) {
+        return snapshotPath.resolveSibling(snapshotPath.getFileName() + ".hnsw");
+    }
+
+    /**
+     * The BM25 index is saved next to the snapshot as well; it refers to segments by id.
+     */
+    static Path lexicalIndexPath(Path snapshotPath) {
+        return snapshotPath.resolveSibling(snapshotPath.getFileName() + ".bm25");
+    }
+
+    /**
+     * The dropped duplicates are listed next to the snapshot, one "segmentId keeperId bytes contentHash"
+     * per line; pages made up only of duplicates have no segments in the snapshot itself.
+     */
+    static Path duplicatesPath(Path snapshotPath) {
+        return snapshotPath.resolveSibling(snapshotPath.getFileName() + ".dups");
+    }
+
+    /**
+     * @return every file saved next to the snapshot, which has to travel with it when it is copied
+     */
+    static List<Path> sidecarPaths(Path snapshotPath) {
+        return List.of(duplicatesPath(snapshotPath), lexicalIndexPath(snapshotPath), graphPath(snapshotPath));
+    }
+
+    /**
+     * Loads the segments of a previous run from a snapshot, so the following
+     * {@link #reindex(List)} only has to embed what changed since. An HNSW store and the BM25
+     * index are restored from their saved files instead when those were written for the same
+     * index contents.
+     *
+     * @return number of segments loaded, or -1 if the snapshot is missing or was built with
+     *         different settings
+     */
+    public synchronized int loadSnapshot(Path file) throws IOException {
+        Map<String, IndexedPage> loaded = new HashMap<>();
+        Map<String, TextSegment> kept = new LinkedHashMap<>();
+        Function<TextSegment, String> collect = segment -> {
+            String pageId = segment.metadata().getString(PageDocuments.PAGE_ID);
+            String hash = segment.metadata().getString(PageDocuments.CONTENT_HASH);
+            int ids = Integer.parseInt(segment.metadata().getString(SEGMENT_INDEX)) + 1;
+            loaded.merge(pageId, new IndexedPage(hash, ids),
+                    (a, b) -> new IndexedPage(a.contentHash(), Math.max(a.segments(), b.segments())));
+            String id = segmentId(segment);
+            kept.put(id, TextSegment.from(segment.text(), segment.metadata()));
+            return id;
+        };
+        if (embeddingStore instanceof HnswEmbeddingStore hnsw) {
+            int count = EmbeddingSnapshot.read(file, fingerprint(), (embedding, segment) -> collect.apply(segment));
+            if (count >= 0) {
+                Map<String, Duplicate> dups = readDuplicates(file, loaded);
+                String version = computeIndexVersion(loaded);
+                if (hnsw.load(graphPath(file), version)) {
+                    loaded(file, loaded, kept, dups, version);
+                    savedGraphVersion = version;
+                    return count;
+                }
+            }
+            loaded.clear();
+            kept.clear();
+        }
+        int count = EmbeddingSnapshot.load(file, fingerprint(), embeddingStore, collect);
+        if (count >= 0) {
+            Map<String, Duplicate> dups = readDuplicates(file, loaded);
+            loaded(file, loaded, kept, dups, computeIndexVersion(loaded));
+        }
+        return count;
+    }
+
+    /**
+     * Reads the duplicates sidecar, adding the pages it mentions to {@code loaded}: pages made up
+     * only of duplicates have no segments in the snapshot.
+     */
+    private Map<String, Duplicate> readDuplicates(Path file, Map<String, IndexedPage> loaded) throws IOException {
+        Map<String, Duplicate> dups = new HashMap<>();
+        Path dupsFile = duplicatesPath(file);
+        if (!Files.isRegularFile(dupsFile)) {
+            return dups;
+        }
+        for (String line : Files.readAllLines(dupsFile)) {
+            String[] fields = line.split(" ");
+            if (fields.length == 4) {
+                String id = fields[0];
+                int ids = Integer.parseInt(id.substring(id.lastIndexOf('-') + 1)) + 1;
+                loaded.merge(pageOf(id), new IndexedPage(fields[3], ids),
+                        (a, b) -> new IndexedPage(a.contentHash(), Math.max(a.segments(), b.segments())));
+                dups.put(id, new Duplicate(fields[1], Integer.parseInt(fields[2]), fields[3]));
+            }
+        }
+        // A page whose duplicate points at nothing indexed is embedded again on the next reindex
+        for (Iterator<Map.Entry<String, Duplicate>> it = dups.entrySet().iterator(); it.hasNext();) {
+            Map.Entry<String, Duplicate> entry = it.next();
+            if (!loaded.containsKey(pageOf(entry.getValue().keeperId()))) {
+                it.remove();
+                loaded.computeIfPresent(pageOf(entry.getKey()), (id, page) -> new IndexedPage("", page.segments()));
+            }
+        }
+        return dups;
+    }
+
+    private void loaded(Path file, Map<String, IndexedPage> loaded, Map<String, TextSegment> kept,
+            Map<String, Duplicate> dups, String version) throws IOException {
+        if (lexicalIndex != null) {
+            if (lexicalIndex.load(lexicalIndexPath(file), version, kept)) {
+                savedLexicalVersion = version;
+            } else {
+                lexicalIndex.clear();
+                kept.forEach(lexicalIndex::add);
+            }
+        }
+        pages.putAll(loaded);
+        duplicates.putAll(dups);
+        for (Map.Entry<String, TextSegment> entry : kept.entrySet()) {
+            TextSegment segment = entry.getValue();
+            Long fingerprint = segment.metadata().getLong(SIMHASH);
+            nearDuplicates.add(segment.metadata().getString(PageDocuments.PAGE_ID), entry.getKey(),
+                    fingerprint != null ? fingerprint : NearDuplicateIndex.fingerprint(segment.text()));
+        }
+        reportDuplicates();
+    }
+
+    public Result reindex(byte[] source) throws IOException, InterruptedException {
+        return reindex(List.of(source));
+    }
+
+    /**
+     * Brings the store in line with {@code sources}, embedding only new and changed pages and
+     * removing the segments of changed and deleted ones. The sources (shards) are parsed in
+     * parallel. The snapshot is rewritten when anything changed.
+     */
+    public synchronized Result reindex(List<byte[]> sources) throws IOException, InterruptedException {
+        if (followsSharedIndex()) {
+            throw new IllegalStateException("This instance follows the shared vector index; re-index on the writer");
+        }
+        List<Document> documents = sources.parallelStream()
+                .flatMap(source -> PageDocuments.parse(new String(source, StandardCharsets.UTF_8)).stream())
+                .toList();
+
+        List<Document> toEmbed = new ArrayList<>();
+        Set<String> toEmbedIds = new HashSet<>();
+        Map<String, Document> current = new HashMap<>();
+        int added = 0;
+        int changed = 0;
+        for (Document document : documents) {
+            String pageId = document.metadata().getString(PageDocuments.PAGE_ID);
+            String hash = document.metadata().getString(PageDocuments.CONTENT_HASH);
+            current.put(pageId, document);
+            IndexedPage indexed = pages.get(pageId);
+            if (indexed == null) {
+                added++;
+                toEmbed.add(document);
+                toEmbedIds.add(pageId);
+            } else if (!indexed.contentHash().equals(hash)) {
+                changed++;
+                toEmbed.add(document);
+                toEmbedIds.add(pageId);
+            }
+        }
+
+        requeueOrphanedDuplicates(current, toEmbed, toEmbedIds);
+
+        List<String> staleIds = new ArrayList<>();
+        int removed = 0;
+        for (Map.Entry<String, IndexedPage> entry : pages.entrySet()) {
+            String pageId = entry.getKey();
+            boolean gone = !current.containsKey(pageId);
+            if (gone || toEmbedIds.contains(pageId)) {
+                removed += gone ? 1 : 0;
+                for (int i = 0; i < entry.getValue().segments(); i++) {
+                    staleIds.add(pageId + "-" + i);
+                }
+                nearDuplicates.removePage(pageId);
+            }
+        }
+        pages.keySet().retainAll(current.keySet());
+        duplicates.keySet().removeIf(id -> !pages.containsKey(pageOf(id)) || toEmbedIds.contains(pageOf(id)));
+
+        DocumentSplitter documentSplitter = DocumentSplitters.recursive(MAX_SEGMENT_TOKENS, MAX_OVERLAP_TOKENS, tokenizer);
+        List<TextSegment> segments = documentSplitter.splitAll(toEmbed);
+        Map<String, Integer> segmentCounts = new HashMap<>();
+        for (TextSegment segment : segments) {
+            segmentCounts.merge(segment.metadata().getString(PageDocuments.PAGE_ID), 1, Integer::sum);
+        }
+        int duplicatesBefore = duplicates.size();
+        long duplicateBytesBefore = duplicateBytes();
+        List<TextSegment> unique = skipDuplicates(segments);
+        ingestionStatus.total(ingestionStatus.segmentsDone() + unique.size());
+
+        // The stale segments keep answering until their replacements are in. The HNSW and flat
+        // stores and the BM25 index replace a segment whose id is reused in place; the in-memory
+        // store would keep both, so the reused ids are taken out of it up front.
+        Set<String> reusedIds = new HashSet<>();
+        for (TextSegment segment : unique) {
+            reusedIds.add(segmentId(segment));
+        }
+        reusedIds.retainAll(new HashSet<>(staleIds));
+        if (embeddingStore instanceof InMemoryEmbeddingStore && !reusedIds.isEmpty()) {
+            embeddingStore.removeAll(reusedIds);
+        }
+
+        List<Embedding> freshEmbeddings = new ArrayList<>(unique.size());
+        List<TextSegment> freshSegments = new ArrayList<>(unique.size());
+        IngestionPipeline pipeline = new IngestionPipeline(embeddingModel, embeddingStore, batchSize, workers,
+                DocumentIndexer::segmentId);
+        pipeline.ingest(unique, (batch, batchEmbeddings) -> {
+            if (lexicalIndex != null) {
+                for (TextSegment segment : batch) {
+                    lexicalIndex.add(segmentId(segment), segment);
+                }
+            }
+            freshSegments.addAll(batch);
+            freshEmbeddings.addAll(batchEmbeddings);
+            ingestionStatus.progress(batch.size());
+        });
+        List<String> removedIds = staleIds.stream().filter(id -> !reusedIds.contains(id)).toList();
+        if (!removedIds.isEmpty()) {
+            embeddingStore.removeAll(removedIds);
+            if (lexicalIndex != null) {
+                lexicalIndex.removeAll(removedIds);
+            }
+        }
+        for (Document document : toEmbed) {
+            String pageId = document.metadata().getString(PageDocuments.PAGE_ID);
+            pages.put(pageId, new IndexedPage(document.metadata().getString(PageDocuments.CONTENT_HASH),
+                    segmentCounts.getOrDefault(pageId, 0)));
+        }
+
+        Result result = new Result(added, changed, removed, documents.size() - added - changed,
+                unique.size(), staleIds.size(), duplicates.size() - duplicatesBefore,
+                duplicateBytes() - duplicateBytesBefore);
+        reportDuplicates();
+        if (result.changed()) {
+            rewriteSnapshot(freshEmbeddings, freshSegments);
+        }
+        indexVersion = computeIndexVersion(pages);
+        if (embeddingStore instanceof HnswEmbeddingStore hnsw && !indexVersion.equals(savedGraphVersion)) {
+            hnsw.save(graphPath(snapshotPath), indexVersion);
+            savedGraphVersion = indexVersion;
+        }
+        if (lexicalIndex != null && !indexVersion.equals(savedLexicalVersion)) {
+            lexicalIndex.save(lexicalIndexPath(snapshotPath), indexVersion);
+            savedLexicalVersion = indexVersion;
+        }
+        if (sharedIndex != null) {
+            int published = sharedIndex.publish(indexVersion, snapshotPath, fingerprint());
+            if (published >= 0) {
+                System.out.println("Published " + published + " segments to the shared vector index as version "
+                        + indexVersion);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Pages whose segments were dropped as duplicates of segments that are now being removed have
+     * to be embedded again, or that text would silently disappear from the index. Repeats until
+     * no more pages are affected, since re-embedded pages can in turn be what others relied on.
+     */
+    private void requeueOrphanedDuplicates(Map<String, Document> current, List<Document> toEmbed,
+            Set<String> toEmbedIds) {
+        boolean requeued = true;
+        while (requeued) {
+            requeued = false;
+            for (Map.Entry<String, Duplicate> entry : duplicates.entrySet()) {
+                String pageId = pageOf(entry.getKey());
+                String keeperPageId = pageOf(entry.getValue().keeperId());
+                boolean keeperGoing = !current.containsKey(keeperPageId) || toEmbedIds.contains(keeperPageId);
+                if (keeperGoing && current.containsKey(pageId) && toEmbedIds.add(pageId)) {
+                    toEmbed.add(current.get(pageId));
+                    requeued = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Fingerprints the segments (kept in their metadata) and returns those that are not
+     * near-duplicates of an indexed segment or of an earlier one in the list.
+     */
+    private List<TextSegment> skipDuplicates(List<TextSegment> segments) {
+        List<TextSegment> unique = new ArrayList<>(segments.size());
+        for (TextSegment segment : segments) {
+            long fingerprint = NearDuplicateIndex.fingerprint(segment.text());
+            segment.metadata().put(SIMHASH, fingerprint);
+            String id = segmentId(segment);
+            String keeperId = deduplicate ? nearDuplicates.find(fingerprint, segment.text()) : null;
+            if (keeperId != null) {
+                duplicates.put(id, new Duplicate(keeperId, segment.text().getBytes(StandardCharsets.UTF_8).length,
+                        segment.metadata().getString(PageDocuments.CONTENT_HASH)));
+            } else {
+                nearDuplicates.add(segment.metadata().getString(PageDocuments.PAGE_ID), id, fingerprint);
+                unique.add(segment);
+            }
+        }
+        return unique;
+    }
+
+    private long duplicateBytes() {
+        long bytes = 0;
+        for (Duplicate duplicate : duplicates.values()) {
+            bytes += duplicate.bytes();
+        }
+        return bytes;
+    }
+
+    private void reportDuplicates() {
+        ingestionStatus.duplicates(duplicates.size(), duplicateBytes());
+    }
+
+    /**
+     * Writes a new snapshot from the entries of the previous one that are still current plus the
+     * segments embedded in this run. The old entries are copied straight from the mapped file, so
+     * only the new segments are held in memory.
+     */
+    private void rewriteSnapshot(List<Embedding> freshEmbeddings, List<TextSegment> freshSegments) throws IOException {
+        Set<String> freshIds = new HashSet<>();
+        for (TextSegment segment : freshSegments) {
+            freshIds.add(segmentId(segment));
+        }
+        EmbeddingSnapshot.rewrite(snapshotPath, fingerprint(), segment -> {
+            String pageId = segment.metadata().getString(PageDocuments.PAGE_ID);
+            String hash = segment.metadata().getString(PageDocuments.CONTENT_HASH);
+            IndexedPage page = pages.get(pageId);
+            return page != null && page.contentHash().equals(hash) && !freshIds.contains(segmentId(segment));
+        }, freshEmbeddings, freshSegments);
+        writeDuplicates();
+    }
+
+    private void writeDuplicates() throws IOException {
+        StringBuilder lines = new StringBuilder();
+        for (Map.Entry<String, Duplicate> entry : duplicates.entrySet()) {
+            lines.append(entry.getKey()).append(' ').append(entry.getValue().keeperId()).append(' ')
+                    .append(entry.getValue().bytes()).append(' ').append(entry.getValue().contentHash()).append('\n');
+        }
+        Path file = duplicatesPath(snapshotPath);
+        Path tmp = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName().toString(), ".tmp");
+        try {
+            Files.writeString(tmp, lines);
+        } catch (IOException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,328 @@
+package org.musser.prsknowledgeagent;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+import dev.langchain4j.data.document.Metadata;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.store.embedding.EmbeddingStore;
+
+/**
+ * Compact binary snapshot of embedded text segments.
+ *
+ * Layout (all numbers big-endian except the vector block):
+ * <pre>
+ *   int    magic ("PRSE")
+ *   int    format version
+ *   short  fingerprint length, fingerprint bytes (UTF-8)
+ *   int    dimension
+ *   int    segment count
+ *   float  count * dimension vector components (little-endian, contiguous)
+ *   per segment: int text length, text bytes, short metadata entries,
+ *                then per entry: key (short length + bytes), type tag, value
+ * </pre>
+ *
+ * The fingerprint ties a snapshot to the splitter settings and embedding model that produced
+ * it, so a snapshot built with other settings is simply ignored and rebuilt. Which pages are
+ * still current is decided per segment from its metadata (see {@link DocumentIndexer}).
+ * Snapshots are read through a memory-mapped file, which lets a cold start skip re-embedding.
+ */
+public class EmbeddingSnapshot {
+
+    private static final int MAGIC = 0x50525345; // "PRSE"
+    private static final int FORMAT_VERSION = 1;
+    private static final int LOAD_BATCH_SIZE = 1024;
+
+    private static final byte TYPE_STRING = 'S';
+    private static final byte TYPE_INTEGER = 'I';
+    private static final byte TYPE_LONG = 'L';
+    private static final byte TYPE_FLOAT = 'F';
+    private static final byte TYPE_DOUBLE = 'D';
+
+    private EmbeddingSnapshot() {
+    }
+
+    /**
+     * Content hash of {@code source} combined with the settings that change the resulting
+     * vectors (splitter settings and embedding model).
+     */
+    public static String fingerprint(byte[] source, String settings) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(settings.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(source);
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Writes the snapshot to a temporary file next to {@code file} and atomically moves it into
+     * place, so a crash mid-write never leaves a truncated snapshot behind.
+     */
+    public static void write(Path file, String fingerprint, List<Embedding> embeddings, List<TextSegment> segments)
+            throws IOException {
+        write(file, fingerprint, null, segment -> false, embeddings, segments);
+    }
+
+    /**
+     * Like {@link #write}, but also keeps the entries of the existing snapshot at {@code file}
+     * that {@code keep} accepts, ahead of the new ones. Kept entries are copied as they are from
+     * the memory-mapped old file, so only the new entries are held in memory. A missing or stale
+     * old snapshot contributes nothing.
+     */
+    public static void rewrite(Path file, String fingerprint, Predicate<TextSegment> keep,
+            List<Embedding> embeddings, List<TextSegment> segments) throws IOException {
+        write(file, fingerprint, file, keep, embeddings, segments);
+    }
+
+    private static void write(Path file, String fingerprint, Path previous, Predicate<TextSegment> keep,
+            List<Embedding> embeddings, List<TextSegment> segments) throws IOException {
+        if (embeddings.size() != segments.size()) {
+            throw new IllegalArgumentException("embeddings and segments must have the same size");
+        }
+        Path parent = file.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Path tmp = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+
+        try (FileChannel channel = previous != null && Files.isRegularFile(previous)
+                ? FileChannel.open(previous, StandardOpenOption.READ) : null;
+                OutputStream os = Files.newOutputStream(tmp);
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(os, 1 << 16))) {
+            ByteBuffer old = channel == null ? null : channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (old != null && (old.remaining() < 8 || old.getInt() != MAGIC || old.getInt() != FORMAT_VERSION
+                    || !fingerprint.equals(readShortString(old)))) {
+                old = null;
+            }
+            int oldDimension = old == null ? 0 : old.getInt();
+            int oldCount = old == null ? 0 : old.getInt();
+            int oldVectorStart = old == null ? 0 : old.position();
+            int oldVectorBytes = oldDimension * Float.BYTES;
+
+            // The segments follow the vectors: read them first to learn which entries are kept
+            // and where each one's segment starts
+            BitSet kept = new BitSet(oldCount);
+            int[] oldSegmentStarts = new int[oldCount + 1];
+            if (old != null) {
+                old.position(oldVectorStart + oldCount * oldVectorBytes);
+                for (int i = 0; i < oldCount; i++) {
+                    oldSegmentStarts[i] = old.position();
+                    if (keep.test(readSegment(old))) {
+                        kept.set(i);
+                    }
+                }
+                oldSegmentStarts[oldCount] = old.position();
+            }
+            int dimension = !embeddings.isEmpty() ? embeddings.get(0).dimension()
+                    : kept.isEmpty() ? 0 : oldDimension;
+
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            writeShortString(out, fingerprint);
+            out.writeInt(dimension);
+            out.writeInt(kept.cardinality() + embeddings.size());
+
+            byte[] oldVector = new byte[oldVectorBytes];
+            for (int i = kept.nextSetBit(0); i >= 0; i = kept.nextSetBit(i + 1)) {
+                old.get(oldVectorStart + i * oldVectorBytes, oldVector);
+                out.write(oldVector);
+            }
+            ByteBuffer vectorBuffer = ByteBuffer.allocate(dimension * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            for (Embedding embedding : embeddings) {
+                vectorBuffer.clear();
+                vectorBuffer.asFloatBuffer().put(embedding.vector());
+                out.write(vectorBuffer.array());
+            }
+
+            for (int i = kept.nextSetBit(0); i >= 0; i = kept.nextSetBit(i + 1)) {
+                byte[] segment = new byte[oldSegmentStarts[i + 1] - oldSegmentStarts[i]];
+                old.get(oldSegmentStarts[i], segment);
+                out.write(segment);
+            }
+            for (TextSegment segment : segments) {
+                writeSegment(out, segment);
+            }
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Receives snapshot entries in file order.
+     */
+    public interface EntryConsumer {
+        void accept(Embedding embedding, TextSegment segment);
+    }
+
+    /**
+     * Loads the snapshot into the given store if it exists and matches the fingerprint.
+     *
+     * @param ids derives the store id of each segment, or {@code null} to let the store generate ids
+     * @return the number of segments loaded, or -1 if the snapshot is missing or stale
+     */
+    public static int load(Path file, String fingerprint, EmbeddingStore<TextSegment> embeddingStore,
+            Function<TextSegment, String> ids) throws IOException {
+        List<String> batchIds = new ArrayList<>(LOAD_BATCH_SIZE);
+        List<Embedding> embeddings = new ArrayList<>(LOAD_BATCH_SIZE);
+        List<TextSegment> segments = new ArrayList<>(LOAD_BATCH_SIZE);
+        int count = read(file, fingerprint, (embedding, segment) -> {
+            embeddings.add(embedding);
+            segments.add(segment);
+            if (ids != null) {
+                batchIds.add(ids.apply(segment));
+            }
+            if (embeddings.size() == LOAD_BATCH_SIZE) {
+                flush(embeddingStore, batchIds, embeddings, segments);
+            }
+        });
+        if (!embeddings.isEmpty()) {
+            flush(embeddingStore, batchIds, embeddings, segments);
+        }
+        return count;
+    }
+
+    /**
+     * Streams every entry of the snapshot through a memory-mapped view of the file.
+     *
+     * @return the number of entries read, or -1 if the snapshot is missing or stale
+     */
+    public static int read(Path file, String fingerprint, EntryConsumer consumer) throws IOException {
+        if (!Files.isRegularFile(file)) {
+            return -1;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (mapped.remaining() < 8 || mapped.getInt() != MAGIC || mapped.getInt() != FORMAT_VERSION) {
+                return -1;
+            }
+            if (!fingerprint.equals(readShortString(mapped))) {
+                return -1;
+            }
+            int dimension = mapped.getInt();
+            int count = mapped.getInt();
+
+            int vectorStart = mapped.position();
+            FloatBuffer vectors = mapped.duplicate()
+                    .position(vectorStart)
+                    .slice()
+                    .order(ByteOrder.LITTLE_ENDIAN)
+                    .asFloatBuffer();
+            mapped.position(vectorStart + count * dimension * Float.BYTES);
+
+            for (int i = 0; i < count; i++) {
+                float[] vector = new float[dimension];
+                vectors.get(vector);
+                consumer.accept(Embedding.from(vector), readSegment(mapped));
+            }
+            return count;
+        }
+    }
+
+    private static void flush(EmbeddingStore<TextSegment> embeddingStore, List<String> ids,
+            List<Embedding> embeddings, List<TextSegment> segments) {
+        if (ids.isEmpty()) {
+            embeddingStore.addAll(embeddings, segments);
+        } else {
+            embeddingStore.addAll(new ArrayList<>(ids), new ArrayList<>(embeddings), new ArrayList<>(segments));
+        }
+        ids.clear();
+        embeddings.clear();
+        segments.clear();
+    }
+
+    static void writeSegment(DataOutputStream out, TextSegment segment) throws IOException {
+        byte[] text = segment.text().getBytes(StandardCharsets.UTF_8);
+        out.writeInt(text.length);
+        out.write(text);
+        Map<String, Object> metadata = segment.metadata().toMap();
+        out.writeShort(metadata.size());
+        for (Map.Entry<String, Object> entry : metadata.entrySet()) {
+            writeShortString(out, entry.getKey());
+            writeValue(out, entry.getValue());
+        }
+    }
+
+    static TextSegment readSegment(ByteBuffer in) {
+        byte[] text = new byte[in.getInt()];
+        in.get(text);
+        int entries = in.getShort();
+        Metadata metadata = new Metadata();
+        for (int i = 0; i < entries; i++) {
+            String key = readShortString(in);
+            byte type = in.get();
+            switch (type) {
+                case TYPE_INTEGER -> metadata.put(key, in.getInt());
+                case TYPE_LONG -> metadata.put(key, in.getLong());
+                case TYPE_FLOAT -> metadata.put(key, in.getFloat());
+                case TYPE_DOUBLE -> metadata.put(key, in.getDouble());
+                default -> metadata.put(key, readString(in));
+            }
+        }
+        return TextSegment.from(new String(text, StandardCharsets.UTF_8), metadata);
+    }
+
+    private static void writeValue(DataOutputStream out, Object value) throws IOException {
+        if (value instanceof Integer i) {
+            out.writeByte(TYPE_INTEGER);
+            out.writeInt(i);
+        } else if (value instanceof Long l) {
+            out.writeByte(TYPE_LONG);
+            out.writeLong(l);
+        } else if (value instanceof Float f) {
+            out.writeByte(TYPE_FLOAT);
+            out.writeFloat(f);
+        } else if (value instanceof Double d) {
+            out.writeByte(TYPE_DOUBLE);
+            out.writeDouble(d);
+        } else {
+            out.writeByte(TYPE_STRING);
+            byte[] bytes = String.valueOf(value).getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    static void writeShortString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readShortString(ByteBuffer in) {
+        byte[] bytes = new byte[in.getShort() & 0xFFFF];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static String readString(ByteBuffer in) {
+        byte[] bytes = new byte[in.getInt()];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,308 @@
+package org.musser.prsknowledgeagent;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.store.embedding.EmbeddingMatch;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import dev.langchain4j.store.embedding.EmbeddingSearchResult;
+import dev.langchain4j.store.embedding.EmbeddingStore;
+import dev.langchain4j.store.embedding.RelevanceScore;
+import dev.langchain4j.store.embedding.filter.Filter;
+
+/**
+ * Exact-search {@link EmbeddingStore} that keeps vectors and segments off the Java heap.
+ *
+ * Vectors are normalized on insert and packed back to back into native-order direct buffers of
+ * {@value #CHUNK_VECTORS} vectors each, so a query is a sequential dot-product scan with a
+ * bounded primitive min-heap ({@link NodeHeap}) for the top k. Ids and segments are serialized
+ * into a separate direct arena and only decoded for the matches that are returned. The heap
+ * holds just the id index and one location per entry, which keeps large corpora cheap for the
+ * garbage collector. Off-heap memory is bounded by {@code -XX:MaxDirectMemorySize} (the heap
+ * size by default).
+ *
+ * Searches share a read lock, writes take the write lock. Removed entries are skipped by the
+ * scan and the buffers are rewritten once they outnumber live entries.
+ */
+public class FlatVectorStore implements EmbeddingStore<TextSegment> {
+
+    static final int CHUNK_VECTORS = 1 << 14;
+    private static final int ARENA_CHUNK_BYTES = 16 << 20;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, Integer> slots = new HashMap<>();
+    private final List<FloatBuffer> vectorChunks = new ArrayList<>();
+    private final List<ByteBuffer> arenaChunks = new ArrayList<>();
+    private long[] locations = new long[1024];
+    private int dimension;
+    private int count;
+    private int deleted;
+
+    @Override
+    public String add(Embedding embedding) {
+        String id = UUID.randomUUID().toString();
+        add(id, embedding);
+        return id;
+    }
+
+    @Override
+    public void add(String id, Embedding embedding) {
+        addAll(List.of(id), List.of(embedding), null);
+    }
+
+    @Override
+    public String add(Embedding embedding, TextSegment segment) {
+        String id = UUID.randomUUID().toString();
+        addAll(List.of(id), List.of(embedding), List.of(segment));
+        return id;
+    }
+
+    @Override
+    public List<String> addAll(List<Embedding> embeddings) {
+        List<String> ids = generateIds(embeddings.size());
+        addAll(ids, embeddings, null);
+        return ids;
+    }
+
+    @Override
+    public void addAll(List<String> ids, List<Embedding> embeddings, List<TextSegment> segments) {
+        if (ids.size() != embeddings.size() || (segments != null && segments.size() != embeddings.size())) {
+            throw new IllegalArgumentException("ids, embeddings and segments must have the same size");
+        }
+        lock.writeLock().lock();
+        try {
+            for (int i = 0; i < ids.size(); i++) {
+                append(ids.get(i), embeddings.get(i).vector(), segments == null ? null : segments.get(i));
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void removeAll(Collection<String> ids) {
+        lock.writeLock().lock();
+        try {
+            for (String id : ids) {
+                Integer slot = slots.remove(id);
+                if (slot != null) {
+                    locations[slot] = -1;
+                    deleted++;
+                }
+            }
+            if (deleted > count - deleted) {
+                compact();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void removeAll(Filter filter) {
+        List<String> matching = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            for (int slot = 0; slot < count; slot++) {
+                if (locations[slot] >= 0) {
+                    ByteBuffer record = record(slot);
+                    String id = EmbeddingSnapshot.readShortString(record);
+                    TextSegment segment = record.get() != 0 ? EmbeddingSnapshot.readSegment(record) : null;
+                    if (segment != null && filter.test(segment.metadata())) {
+                        matching.add(id);
+                    }
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        removeAll(matching);
+    }
+
+    @Override
+    public void removeAll() {
+        lock.writeLock().lock();
+        try {
+            slots.clear();
+            vectorChunks.clear();
+            arenaChunks.clear();
+            locations = new long[1024];
+            dimension = 0;
+            count = 0;
+            deleted = 0;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return slots.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public EmbeddingSearchResult<TextSegment> search(EmbeddingSearchRequest request) {
+        lock.readLock().lock();
+        try {
+            if (count == deleted) {
+                return new EmbeddingSearchResult<>(List.of());
+            }
+            float[] query = VectorMath.normalized(request.queryEmbedding().vector());
+            if (query.length != dimension) {
+                throw new IllegalArgumentException("Expected dimension " + dimension + " but got " + query.length);
+            }
+            int k = request.maxResults();
+            Filter filter = request.filter();
+            // Only scores at or above minScore can be returned, so keep nothing below it
+            float minCosine = (float) (2 * request.minScore() - 1);
+            NodeHeap top = NodeHeap.minFirst(k);
+
+            for (int chunk = 0; chunk * CHUNK_VECTORS < count; chunk++) {
+                FloatBuffer vectors = vectorChunks.get(chunk);
+                int first = chunk * CHUNK_VECTORS;
+                int n = Math.min(CHUNK_VECTORS, count - first);
+                for (int i = 0; i < n; i++) {
+                    int slot = first + i;
+                    if (locations[slot] < 0) {
+                        continue;
+                    }
+                    float score = VectorMath.dot(query, vectors, i * dimension);
+                    if (score < minCosine || (top.size() == k && score <= top.topScore())) {
+                        continue;
+                    }
+                    if (filter != null && !matches(filter, slot)) {
+                        continue;
+                    }
+                    top.offer(slot, score, k);
+                }
+            }
+
+            List<EmbeddingMatch<TextSegment>> matches = new ArrayList<>(top.size());
+            for (int position : top.descendingPositions()) {
+                int slot = top.nodeAt(position);
+                ByteBuffer record = record(slot);
+                String id = EmbeddingSnapshot.readShortString(record);
+                TextSegment segment = record.get() != 0 ? EmbeddingSnapshot.readSegment(record) : null;
+                float[] vector = new float[dimension];
+                vectorChunks.get(slot / CHUNK_VECTORS).get((slot % CHUNK_VECTORS) * dimension, vector);
+                matches.add(new EmbeddingMatch<>(RelevanceScore.fromCosineSimilarity(top.scoreAt(position)), id,
+                        Embedding.from(vector), segment));
+            }
+            return new EmbeddingSearchResult<>(matches);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private boolean matches(Filter filter, int slot) {
+        ByteBuffer record = record(slot);
+        EmbeddingSnapshot.readShortString(record);
+        return record.get() != 0 && filter.test(EmbeddingSnapshot.readSegment(record).metadata());
+    }
+
+    private void append(String id, float[] raw, TextSegment segment) {
+        if (count - deleted == 0 && dimension != raw.length) {
+            removeAll();
+            dimension = raw.length;
+        } else if (dimension != raw.length) {
+            throw new IllegalArgumentException("Expected dimension " + dimension + " but got " + raw.length);
+        }
+        Integer existing = slots.remove(id);
+        if (existing != null) {
+            locations[existing] = -1;
+            deleted++;
+        }
+
+        int slot = count;
+        if (slot / CHUNK_VECTORS == vectorChunks.size()) {
+            vectorChunks.add(ByteBuffer.allocateDirect(CHUNK_VECTORS * dimension * Float.BYTES)
+                    .order(ByteOrder.nativeOrder())
+                    .asFloatBuffer());
+        }
+        vectorChunks.get(slot / CHUNK_VECTORS).put((slot % CHUNK_VECTORS) * dimension, VectorMath.normalized(raw));
+
+        if (slot == locations.length) {
+            locations = Arrays.copyOf(locations, locations.length * 2);
+        }
+        locations[slot] = writeRecord(id, segment);
+        slots.put(id, slot);
+        count++;
+    }
+
+    /**
+     * @return the arena location of the record: chunk index in the high and offset in the low 32 bits
+     */
+    private long writeRecord(String id, TextSegment segment) {
+        byte[] bytes;
+        try {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream(256);
+            DataOutputStream out = new DataOutputStream(buffer);
+            EmbeddingSnapshot.writeShortString(out, id);
+            out.writeBoolean(segment != null);
+            if (segment != null) {
+                EmbeddingSnapshot.writeSegment(out, segment);
+            }
+            bytes = buffer.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        ByteBuffer chunk = arenaChunks.isEmpty() ? null : arenaChunks.get(arenaChunks.size() - 1);
+        if (chunk == null || chunk.remaining() < bytes.length) {
+            chunk = ByteBuffer.allocateDirect(Math.max(ARENA_CHUNK_BYTES, bytes.length));
+            arenaChunks.add(chunk);
+        }
+        long location = ((long) (arenaChunks.size() - 1) << 32) | chunk.position();
+        chunk.put(bytes);
+        return location;
+    }
+
+    private ByteBuffer record(int slot) {
+        long location = locations[slot];
+        return arenaChunks.get((int) (location >>> 32)).duplicate().position((int) location);
+    }
+
+    /**
+     * Rewrites vectors and arena without the removed entries.
+     */
+    private void compact() {
+        List<String> ids = new ArrayList<>(count - deleted);
+        List<Embedding> embeddings = new ArrayList<>(count - deleted);
+        List<TextSegment> segments = new ArrayList<>(count - deleted);
+        for (int slot = 0; slot < count; slot++) {
+            if (locations[slot] >= 0) {
+                ByteBuffer record = record(slot);
+                ids.add(EmbeddingSnapshot.readShortString(record));
+                segments.add(record.get() != 0 ? EmbeddingSnapshot.readSegment(record) : null);
+                float[] vector = new float[dimension];
+                vectorChunks.get(slot / CHUNK_VECTORS).get((slot % CHUNK_VECTORS) * dimension, vector);
+                embeddings.add(Embedding.from(vector));
+            }
+        }
+        int dim = dimension;
+        removeAll();
+        dimension = dim;
+        for (int i = 0; i < ids.size(); i++) {
+            append(ids.get(i), embeddings.get(i).vector(), segments.get(i));
+        }
+    }
+}
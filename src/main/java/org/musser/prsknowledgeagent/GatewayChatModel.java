@@ -0,0 +1,129 @@
+package org.musser.prsknowledgeagent;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import dev.langchain4j.exception.HttpException;
+import dev.langchain4j.exception.RateLimitException;
+import dev.langchain4j.exception.TimeoutException;
+import dev.langchain4j.model.ModelProvider;
+import dev.langchain4j.model.chat.Capability;
+import dev.langchain4j.model.chat.ChatModel;
+import dev.langchain4j.model.chat.listener.ChatModelListener;
+import dev.langchain4j.model.chat.request.ChatRequest;
+import dev.langchain4j.model.chat.request.ChatRequestParameters;
+import dev.langchain4j.model.chat.response.ChatResponse;
+
+/**
+ * Gateway in front of the chat model API.
+ *
+ * Identical requests that are in flight at the same time (typically the same first question from
+ * several users: same instructions, retrieved context and question) are coalesced into one
+ * upstream call whose response is handed to every caller. Upstream calls go through an adaptive
+ * {@link ConcurrencyLimiter}, which learns from latency, 429s and timeouts how much concurrency
+ * the provider currently takes; callers beyond that wait briefly in a bounded queue or fail fast
+ * with {@link ConcurrencyLimiter.LimitExceededException}. Calls are timed as the {@code llm}
+ * stage of {@link RagMetrics}, waiting for a coalesced or queued call included.
+ */
+public class GatewayChatModel implements ChatModel {
+
+    private final ChatModel delegate;
+    private final ConcurrencyLimiter limiter;
+    private final ConcurrentHashMap<ChatRequest, CompletableFuture<ChatResponse>> inFlight = new ConcurrentHashMap<>();
+    private final LongAdder coalesced = new LongAdder();
+    private final RagMetrics metrics;
+
+    public GatewayChatModel(ChatModel delegate, ConcurrencyLimiter limiter, RagMetrics metrics) {
+        this.delegate = delegate;
+        this.limiter = limiter;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public ChatResponse chat(ChatRequest request) {
+        return metrics.time("llm", () -> coalesce(request));
+    }
+
+    private ChatResponse coalesce(ChatRequest request) {
+        CompletableFuture<ChatResponse> call = new CompletableFuture<>();
+        CompletableFuture<ChatResponse> existing = inFlight.putIfAbsent(request, call);
+        if (existing != null) {
+            coalesced.increment();
+            try {
+                return existing.join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException cause ? cause : e;
+            }
+        }
+        try {
+            ChatResponse response = call(request);
+            call.complete(response);
+            return response;
+        } catch (RuntimeException e) {
+            call.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(request, call);
+        }
+    }
+
+    private ChatResponse call(ChatRequest request) {
+        ConcurrencyLimiter.Permit permit = limiter.acquire();
+        try {
+            ChatResponse response = delegate.chat(request);
+            permit.success();
+            return response;
+        } catch (RuntimeException e) {
+            if (overloaded(e)) {
+                permit.dropped();
+            } else {
+                permit.close();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * @return whether {@code error} means the upstream (or this gateway) is over capacity, as
+     *         opposed to a failure a retry would not fix
+     */
+    static boolean overloaded(Throwable error) {
+        for (Throwable t = error; t != null; t = t.getCause()) {
+            if (t instanceof ConcurrencyLimiter.LimitExceededException || t instanceof RateLimitException
+                    || t instanceof TimeoutException || t instanceof java.util.concurrent.TimeoutException
+                    || (t instanceof HttpException http && http.statusCode() == 429)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public long coalesced() {
+        return coalesced.sum();
+    }
+
+    @Override
+    public ChatRequestParameters defaultRequestParameters() {
+        return delegate.defaultRequestParameters();
+    }
+
+    @Override
+    public List<ChatModelListener> listeners() {
+        // The delegate notifies its own listeners for the calls it actually makes
+        return List.of();
+    }
+
+    @Override
+    public ModelProvider provider() {
+        return delegate.provider();
+    }
+
+    @Override
+    public Set<Capability> supportedCapabilities() {
+        return delegate.supportedCapabilities();
+    }
+}
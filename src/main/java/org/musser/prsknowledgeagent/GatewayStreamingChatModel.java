@@ -0,0 +1,214 @@
+package org.musser.prsknowledgeagent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import dev.langchain4j.model.ModelProvider;
+import dev.langchain4j.model.chat.Capability;
+import dev.langchain4j.model.chat.StreamingChatModel;
+import dev.langchain4j.model.chat.listener.ChatModelListener;
+import dev.langchain4j.model.chat.request.ChatRequest;
+import dev.langchain4j.model.chat.request.ChatRequestParameters;
+import dev.langchain4j.model.chat.response.ChatResponse;
+import dev.langchain4j.model.chat.response.StreamingChatResponseHandler;
+
+/**
+ * Streaming counterpart of {@link GatewayChatModel}. Identical streams in flight at the same time
+ * share one upstream stream: a caller that joins late first gets the tokens it missed, then the
+ * rest as they arrive. Streams share the chat model's adaptive {@link ConcurrencyLimiter},
+ * holding one permit per upstream stream until it completes or fails. The latency reported to
+ * the limiter is the time to the first token, since the total depends on the answer length.
+ *
+ * A caller whose {@link StreamingCall} is cancelled stops receiving the stream; the upstream
+ * call is only aborted once every caller sharing it has been cancelled. The time to the first
+ * token and to the end of the stream are the {@code llm_first_token} and {@code llm_stream}
+ * stages of {@link RagMetrics}.
+ */
+public class GatewayStreamingChatModel implements StreamingChatModel {
+
+    private final StreamingChatModel delegate;
+    private final ConcurrencyLimiter limiter;
+    private final RagMetrics metrics;
+    private final ConcurrentHashMap<ChatRequest, Broadcast> inFlight = new ConcurrentHashMap<>();
+    private final LongAdder coalesced = new LongAdder();
+
+    public GatewayStreamingChatModel(StreamingChatModel delegate, ConcurrencyLimiter limiter, RagMetrics metrics) {
+        this.delegate = delegate;
+        this.limiter = limiter;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void chat(ChatRequest request, StreamingChatResponseHandler handler) {
+        StreamingCall call = StreamingCall.current();
+        Broadcast broadcast = new Broadcast(request);
+        Broadcast existing;
+        while ((existing = inFlight.putIfAbsent(request, broadcast)) != null) {
+            if (existing.subscribe(handler, call)) {
+                coalesced.increment();
+                return;
+            }
+            // Finished, about to be removed
+            inFlight.remove(request, existing);
+        }
+        broadcast.subscribe(handler, call);
+        broadcast.start(handler);
+    }
+
+    public long coalesced() {
+        return coalesced.sum();
+    }
+
+    /**
+     * One upstream stream and the callers it is delivered to.
+     */
+    private final class Broadcast implements StreamingChatResponseHandler {
+
+        private final ChatRequest request;
+        private final List<StreamingChatResponseHandler> handlers = new ArrayList<>();
+        private final List<String> partials = new ArrayList<>();
+        private final boolean sampled = metrics.sampled();
+        private StreamingCall upstream;
+        private ConcurrencyLimiter.Permit permit;
+        private long start;
+        private long firstTokenNanos = -1;
+        private boolean finished;
+        private boolean abandoned;
+
+        Broadcast(ChatRequest request) {
+            this.request = request;
+        }
+
+        /**
+         * @return false if the stream already finished, so the caller needs a stream of its own
+         */
+        synchronized boolean subscribe(StreamingChatResponseHandler handler, StreamingCall call) {
+            if (finished) {
+                return false;
+            }
+            handlers.add(handler);
+            partials.forEach(handler::onPartialResponse);
+            if (call != null) {
+                call.onCancel(() -> unsubscribe(handler));
+            }
+            return true;
+        }
+
+        private void unsubscribe(StreamingChatResponseHandler handler) {
+            StreamingCall call;
+            synchronized (this) {
+                if (finished || !handlers.remove(handler) || !handlers.isEmpty()) {
+                    return;
+                }
+                // Nobody is listening anymore; new identical requests get a fresh stream
+                inFlight.remove(request, this);
+                abandoned = true;
+                call = upstream;
+            }
+            if (call != null) {
+                call.cancel();
+            }
+        }
+
+        /**
+         * Starts the upstream stream on the calling thread. If that fails, {@code caller} gets the
+         * exception thrown and everyone who joined in the meantime gets it through onError.
+         */
+        void start(StreamingChatResponseHandler caller) {
+            try {
+                permit = limiter.acquire();
+            } catch (RuntimeException e) {
+                failOthers(caller, e);
+                throw e;
+            }
+            start = System.nanoTime();
+            // Bound while the upstream request is sent, so it is this call that can abort it
+            try (StreamingCall call = StreamingCall.open()) {
+                synchronized (this) {
+                    upstream = call;
+                    if (abandoned) {
+                        call.cancel();
+                    }
+                }
+                delegate.chat(request, this);
+            } catch (RuntimeException e) {
+                permit.close();
+                failOthers(caller, e);
+                throw e;
+            }
+        }
+
+        private void failOthers(StreamingChatResponseHandler caller, RuntimeException error) {
+            for (StreamingChatResponseHandler handler : finish()) {
+                if (handler != caller) {
+                    handler.onError(error);
+                }
+            }
+        }
+
+        @Override
+        public synchronized void onPartialResponse(String partialResponse) {
+            if (firstTokenNanos < 0) {
+                firstTokenNanos = System.nanoTime() - start;
+            }
+            partials.add(partialResponse);
+            for (StreamingChatResponseHandler handler : handlers) {
+                handler.onPartialResponse(partialResponse);
+            }
+        }
+
+        @Override
+        public void onCompleteResponse(ChatResponse completeResponse) {
+            long elapsed = System.nanoTime() - start;
+            permit.success(firstTokenNanos >= 0 ? firstTokenNanos : elapsed);
+            if (sampled) {
+                metrics.record("llm_first_token", firstTokenNanos >= 0 ? firstTokenNanos : elapsed);
+                metrics.record("llm_stream", elapsed);
+            }
+            for (StreamingChatResponseHandler handler : finish()) {
+                handler.onCompleteResponse(completeResponse);
+            }
+        }
+
+        @Override
+        public void onError(Throwable error) {
+            if (GatewayChatModel.overloaded(error)) {
+                permit.dropped();
+            } else {
+                permit.close();
+            }
+            for (StreamingChatResponseHandler handler : finish()) {
+                handler.onError(error);
+            }
+        }
+
+        private synchronized List<StreamingChatResponseHandler> finish() {
+            finished = true;
+            inFlight.remove(request, this);
+            return List.copyOf(handlers);
+        }
+    }
+
+    @Override
+    public ChatRequestParameters defaultRequestParameters() {
+        return delegate.defaultRequestParameters();
+    }
+
+    @Override
+    public List<ChatModelListener> listeners() {
+        return List.of();
+    }
+
+    @Override
+    public ModelProvider provider() {
+        return delegate.provider();
+    }
+
+    @Override
+    public Set<Capability> supportedCapabilities() {
+        return delegate.supportedCapabilities();
+    }
+}
@@ -0,0 +1,604 @@
+package org.musser.prsknowledgeagent;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.store.embedding.EmbeddingMatch;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import dev.langchain4j.store.embedding.EmbeddingSearchResult;
+import dev.langchain4j.store.embedding.EmbeddingStore;
+import dev.langchain4j.store.embedding.RelevanceScore;
+import dev.langchain4j.store.embedding.filter.Filter;
+
+/**
+ * Approximate nearest-neighbour {@link EmbeddingStore} backed by an HNSW graph
+ * (Malkov &amp; Yashunin, "Efficient and robust approximate nearest neighbor search using
+ * Hierarchical Navigable Small World graphs").
+ *
+ * Vectors are normalized on insert and packed into contiguous float chunks, so similarity is a
+ * plain dot product. {@code m} bounds the links per node (twice that on the bottom layer),
+ * {@code efConstruction} is the beam width used while linking and {@code efSearch} the minimum
+ * beam width of a query; raise either for recall at the cost of latency.
+ *
+ * Writes are serialized by a single lock, reads take no lock at all: a node and its links are
+ * fully built before the node count is published, and link lists are replaced, never mutated in
+ * place. Removal leaves a tombstone that is still traversed but never returned; the graph is
+ * rebuilt once tombstones outnumber live nodes. Scores are relevance scores as in
+ * {@code InMemoryEmbeddingStore}, so {@code minScore} settings carry over unchanged.
+ */
+public class HnswEmbeddingStore implements EmbeddingStore<TextSegment> {
+
+    private static final int MAGIC = 0x50525348; // "PRSH"
+    private static final int FORMAT_VERSION = 1;
+    private static final int CHUNK_SHIFT = 10;
+    private static final int CHUNK_NODES = 1 << CHUNK_SHIFT;
+
+    private static final class Node {
+        final String id;
+        final TextSegment segment;
+        final int level;
+        final AtomicReferenceArray<int[]> links;
+        volatile boolean deleted;
+
+        Node(String id, TextSegment segment, int level) {
+            this.id = id;
+            this.segment = segment;
+            this.level = level;
+            this.links = new AtomicReferenceArray<>(level + 1);
+            for (int l = 0; l <= level; l++) {
+                links.set(l, new int[0]);
+            }
+        }
+    }
+
+    /**
+     * Everything a query reads. Replaced as a whole when the store is cleared or compacted, so
+     * a query always sees one consistent graph.
+     */
+    private static final class Graph {
+        final int dimension;
+        volatile Node[] nodes = new Node[CHUNK_NODES];
+        volatile float[][] vectors = new float[1][];
+        volatile int count;
+        volatile int entryPoint = -1;
+        int deleted;
+
+        Graph(int dimension) {
+            this.dimension = dimension;
+        }
+    }
+
+    private final int m;
+    private final int efConstruction;
+    private final int efSearch;
+    private final double levelFactor;
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+    private final SplittableRandom random = new SplittableRandom(42);
+    private volatile Graph graph = new Graph(0);
+
+    public HnswEmbeddingStore(int m, int efConstruction, int efSearch) {
+        if (m < 2 || efConstruction < 1 || efSearch < 1) {
+            throw new IllegalArgumentException("m must be at least 2, efConstruction and efSearch positive");
+        }
+        this.m = m;
+        this.efConstruction = Math.max(efConstruction, m);
+        this.efSearch = efSearch;
+        this.levelFactor = 1 / Math.log(m);
+    }
+
+    @Override
+    public String add(Embedding embedding) {
+        String id = UUID.randomUUID().toString();
+        add(id, embedding);
+        return id;
+    }
+
+    @Override
+    public void add(String id, Embedding embedding) {
+        addAll(List.of(id), List.of(embedding), null);
+    }
+
+    @Override
+    public String add(Embedding embedding, TextSegment segment) {
+        String id = UUID.randomUUID().toString();
+        addAll(List.of(id), List.of(embedding), List.of(segment));
+        return id;
+    }
+
+    @Override
+    public List<String> addAll(List<Embedding> embeddings) {
+        List<String> generated = generateIds(embeddings.size());
+        addAll(generated, embeddings, null);
+        return generated;
+    }
+
+    @Override
+    public void addAll(List<String> ids, List<Embedding> embeddings, List<TextSegment> segments) {
+        if (ids.size() != embeddings.size() || (segments != null && segments.size() != embeddings.size())) {
+            throw new IllegalArgumentException("ids, embeddings and segments must have the same size");
+        }
+        writeLock.lock();
+        try {
+            for (int i = 0; i < ids.size(); i++) {
+                insert(ids.get(i), embeddings.get(i).vector(), segments == null ? null : segments.get(i));
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public void removeAll(Collection<String> idsToRemove) {
+        writeLock.lock();
+        try {
+            Graph g = graph;
+            for (String id : idsToRemove) {
+                Integer node = ids.remove(id);
+                if (node != null) {
+                    g.nodes[node].deleted = true;
+                    g.deleted++;
+                }
+            }
+            if (g.deleted > g.count - g.deleted) {
+                compact();
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public void removeAll(Filter filter) {
+        List<String> matching = new ArrayList<>();
+        Graph g = graph;
+        int count = g.count;
+        Node[] nodes = g.nodes;
+        for (int i = 0; i < count; i++) {
+            Node node = nodes[i];
+            if (!node.deleted && node.segment != null && filter.test(node.segment.metadata())) {
+                matching.add(node.id);
+            }
+        }
+        removeAll(matching);
+    }
+
+    @Override
+    public void removeAll() {
+        writeLock.lock();
+        try {
+            ids.clear();
+            graph = new Graph(0);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    public int size() {
+        return ids.size();
+    }
+
+    @Override
+    public EmbeddingSearchResult<TextSegment> search(EmbeddingSearchRequest request) {
+        Graph g = graph;
+        // The entry point is published after the node count, so read it first
+        int entryPoint = g.entryPoint;
+        int count = g.count;
+        if (entryPoint < 0) {
+            return new EmbeddingSearchResult<>(List.of());
+        }
+        float[] query = VectorMath.normalized(request.queryEmbedding().vector());
+        int k = request.maxResults();
+        Filter filter = request.filter();
+
+        NodeHeap found;
+        if (filter != null) {
+            // A selective filter can cut the beam off from every matching node, so filtered
+            // queries scan instead; nothing in the retrieval path sets one
+            found = NodeHeap.minFirst(k);
+            for (int i = 0; i < count; i++) {
+                Node node = g.nodes[i];
+                if (!node.deleted && node.segment != null && filter.test(node.segment.metadata())) {
+                    found.offer(i, dot(query, g, i), k);
+                }
+            }
+        } else {
+            int current = entryPoint;
+            float currentScore = dot(query, g, current);
+            for (int level = g.nodes[entryPoint].level; level > 0; level--) {
+                boolean improved = true;
+                while (improved) {
+                    improved = false;
+                    for (int neighbour : g.nodes[current].links.get(level)) {
+                        if (neighbour >= count) {
+                            continue;
+                        }
+                        float score = dot(query, g, neighbour);
+                        if (score > currentScore) {
+                            current = neighbour;
+                            currentScore = score;
+                            improved = true;
+                        }
+                    }
+                }
+            }
+            found = searchLayer(g, count, query, current, currentScore, Math.max(efSearch, k), 0);
+        }
+
+        List<EmbeddingMatch<TextSegment>> matches = new ArrayList<>(Math.min(k, found.size()));
+        for (int position : found.descendingPositions()) {
+            int id = found.nodeAt(position);
+            Node node = g.nodes[id];
+            if (node.deleted) {
+                continue;
+            }
+            double score = RelevanceScore.fromCosineSimilarity(found.scoreAt(position));
+            if (score < request.minScore() || matches.size() == k) {
+                break;
+            }
+            matches.add(new EmbeddingMatch<>(score, node.id, Embedding.from(vector(g, id)), node.segment));
+        }
+        return new EmbeddingSearchResult<>(matches);
+    }
+
+    /**
+     * Writes the graph, vectors, ids and segments to {@code file} (via a temporary file and an
+     * atomic move), tagged with {@code version} so a stale graph is not loaded later.
+     */
+    public void save(Path file, String version) throws IOException {
+        writeLock.lock();
+        try {
+            Graph g = graph;
+            Path parent = file.toAbsolutePath().getParent();
+            Files.createDirectories(parent);
+            Path tmp = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+            try (OutputStream os = Files.newOutputStream(tmp);
+                    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(os, 1 << 16))) {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                EmbeddingSnapshot.writeShortString(out, version);
+                out.writeInt(m);
+                out.writeInt(g.dimension);
+                out.writeInt(g.count);
+                out.writeInt(g.entryPoint);
+                for (int i = 0; i < g.count; i++) {
+                    Node node = g.nodes[i];
+                    out.writeBoolean(node.deleted);
+                    EmbeddingSnapshot.writeShortString(out, node.id);
+                    out.writeInt(node.level);
+                    for (int l = 0; l <= node.level; l++) {
+                        int[] links = node.links.get(l);
+                        out.writeInt(links.length);
+                        for (int link : links) {
+                            out.writeInt(link);
+                        }
+                    }
+                    float[] chunk = g.vectors[i >>> CHUNK_SHIFT];
+                    int offset = (i & (CHUNK_NODES - 1)) * g.dimension;
+                    for (int d = 0; d < g.dimension; d++) {
+                        out.writeFloat(chunk[offset + d]);
+                    }
+                    out.writeBoolean(node.segment != null);
+                    if (node.segment != null) {
+                        EmbeddingSnapshot.writeSegment(out, node.segment);
+                    }
+                }
+            } catch (IOException e) {
+                Files.deleteIfExists(tmp);
+                throw e;
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Replaces the contents of this store with a graph written by {@link #save(Path, String)}.
+     *
+     * @return false, leaving the store untouched, if the file is missing, was written with another
+     *         {@code m} or does not carry {@code version}
+     */
+    public boolean load(Path file, String version) throws IOException {
+        if (!Files.isRegularFile(file)) {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (in.remaining() < 8 || in.getInt() != MAGIC || in.getInt() != FORMAT_VERSION
+                    || !version.equals(EmbeddingSnapshot.readShortString(in)) || in.getInt() != m) {
+                return false;
+            }
+            Graph g = new Graph(in.getInt());
+            int count = in.getInt();
+            int entryPoint = in.getInt();
+            Map<String, Integer> loadedIds = new ConcurrentHashMap<>();
+            for (int i = 0; i < count; i++) {
+                boolean deleted = in.get() != 0;
+                String id = EmbeddingSnapshot.readShortString(in);
+                int level = in.getInt();
+                int[][] links = new int[level + 1][];
+                for (int l = 0; l <= level; l++) {
+                    links[l] = new int[in.getInt()];
+                    for (int j = 0; j < links[l].length; j++) {
+                        links[l][j] = in.getInt();
+                    }
+                }
+                float[] vector = new float[g.dimension];
+                for (int d = 0; d < vector.length; d++) {
+                    vector[d] = in.getFloat();
+                }
+                TextSegment segment = in.get() != 0 ? EmbeddingSnapshot.readSegment(in) : null;
+                Node node = new Node(id, segment, level);
+                for (int l = 0; l <= level; l++) {
+                    node.links.set(l, links[l]);
+                }
+                node.deleted = deleted;
+                append(g, node, vector);
+                if (deleted) {
+                    g.deleted++;
+                } else {
+                    loadedIds.put(id, i);
+                }
+            }
+            g.entryPoint = entryPoint;
+            writeLock.lock();
+            try {
+                ids.clear();
+                ids.putAll(loadedIds);
+                graph = g;
+            } finally {
+                writeLock.unlock();
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Calls {@code consumer} for every live entry, in insertion order.
+     */
+    public void forEach(EmbeddingSnapshot.EntryConsumer consumer) {
+        Graph g = graph;
+        for (int i = 0, n = g.count; i < n; i++) {
+            Node node = g.nodes[i];
+            if (!node.deleted) {
+                consumer.accept(Embedding.from(vector(g, i)), node.segment);
+            }
+        }
+    }
+
+    private void insert(String id, float[] raw, TextSegment segment) {
+        Graph g = graph;
+        if (g.count == 0 && g.dimension != raw.length) {
+            g = new Graph(raw.length);
+            graph = g;
+        } else if (g.dimension != raw.length) {
+            throw new IllegalArgumentException("Expected dimension " + g.dimension + " but got " + raw.length);
+        }
+        Integer existing = ids.remove(id);
+        if (existing != null) {
+            g.nodes[existing].deleted = true;
+            g.deleted++;
+        }
+
+        float[] vector = VectorMath.normalized(raw);
+        int level = Math.min((int) (-Math.log(1 - random.nextDouble()) * levelFactor), 16);
+        Node node = new Node(id, segment, level);
+        int entryPoint = g.entryPoint;
+        int nodeId = g.count;
+
+        if (entryPoint >= 0) {
+            int current = entryPoint;
+            float currentScore = dot(vector, g, current);
+            int top = g.nodes[entryPoint].level;
+            for (int l = top; l > level; l--) {
+                boolean improved = true;
+                while (improved) {
+                    improved = false;
+                    for (int neighbour : g.nodes[current].links.get(l)) {
+                        float score = dot(vector, g, neighbour);
+                        if (score > currentScore) {
+                            current = neighbour;
+                            currentScore = score;
+                            improved = true;
+                        }
+                    }
+                }
+            }
+            for (int l = Math.min(level, top); l >= 0; l--) {
+                NodeHeap found = searchLayer(g, nodeId, vector, current, currentScore, efConstruction, l);
+                int[] positions = found.descendingPositions();
+                node.links.set(l, selectNeighbours(g, found, positions, maxLinks(l)));
+                current = found.nodeAt(positions[0]);
+                currentScore = found.scoreAt(positions[0]);
+            }
+        }
+
+        // Publish the node before anything links to it
+        append(g, node, vector);
+        ids.put(id, nodeId);
+
+        for (int l = Math.min(level, entryPoint >= 0 ? g.nodes[entryPoint].level : -1); l >= 0; l--) {
+            for (int neighbour : node.links.get(l)) {
+                link(g, neighbour, nodeId, l);
+            }
+        }
+        if (entryPoint < 0 || level > g.nodes[entryPoint].level) {
+            g.entryPoint = nodeId;
+        }
+    }
+
+    private void append(Graph g, Node node, float[] vector) {
+        int nodeId = g.count;
+        if (nodeId == g.nodes.length) {
+            g.nodes = Arrays.copyOf(g.nodes, g.nodes.length * 2);
+        }
+        int chunk = nodeId >>> CHUNK_SHIFT;
+        if (chunk == g.vectors.length) {
+            g.vectors = Arrays.copyOf(g.vectors, g.vectors.length * 2);
+        }
+        if (g.vectors[chunk] == null) {
+            float[][] vectors = g.vectors.clone();
+            vectors[chunk] = new float[CHUNK_NODES * g.dimension];
+            g.vectors = vectors;
+        }
+        System.arraycopy(vector, 0, g.vectors[chunk], (nodeId & (CHUNK_NODES - 1)) * g.dimension, g.dimension);
+        g.nodes[nodeId] = node;
+        g.count = nodeId + 1;
+    }
+
+    /**
+     * Adds a back link from {@code from} to {@code to}, pruning {@code from}'s list with the
+     * neighbour heuristic when it is full. The list is replaced, never modified in place.
+     */
+    private void link(Graph g, int from, int to, int level) {
+        int[] links = g.nodes[from].links.get(level);
+        int max = maxLinks(level);
+        int[] updated;
+        if (links.length < max) {
+            updated = Arrays.copyOf(links, links.length + 1);
+            updated[links.length] = to;
+        } else {
+            NodeHeap candidates = NodeHeap.minFirst(links.length + 1);
+            for (int link : links) {
+                candidates.push(link, dot(g, from, link));
+            }
+            candidates.push(to, dot(g, from, to));
+            updated = selectNeighbours(g, candidates, candidates.descendingPositions(), max);
+        }
+        g.nodes[from].links.set(level, updated);
+    }
+
+    /**
+     * Heuristic neighbour selection: a candidate is kept only if it is closer to the base node than
+     * to every neighbour kept so far, which keeps links spread out and the graph navigable.
+     */
+    private static int[] selectNeighbours(Graph g, NodeHeap candidates, int[] positions, int max) {
+        int[] selected = new int[Math.min(max, positions.length)];
+        boolean[] kept = new boolean[positions.length];
+        int size = 0;
+        for (int i = 0; i < positions.length && size < selected.length; i++) {
+            int candidate = candidates.nodeAt(positions[i]);
+            float score = candidates.scoreAt(positions[i]);
+            boolean keep = true;
+            for (int j = 0; j < size && keep; j++) {
+                keep = dot(g, candidate, selected[j]) <= score;
+            }
+            if (keep) {
+                selected[size++] = candidate;
+                kept[i] = true;
+            }
+        }
+        // Top up with the closest rejected candidates so sparse regions still get enough links
+        for (int i = 0; i < positions.length && size < selected.length; i++) {
+            if (!kept[i]) {
+                selected[size++] = candidates.nodeAt(positions[i]);
+            }
+        }
+        return selected;
+    }
+
+    private static NodeHeap searchLayer(Graph g, int count, float[] query, int entry, float entryScore, int ef,
+            int level) {
+        BitSet visited = new BitSet(count);
+        visited.set(entry);
+        NodeHeap candidates = NodeHeap.maxFirst(ef);
+        NodeHeap results = NodeHeap.minFirst(ef + 1);
+        candidates.push(entry, entryScore);
+        results.push(entry, entryScore);
+        while (candidates.size() > 0) {
+            int current = candidates.topNode();
+            float currentScore = candidates.topScore();
+            candidates.pop();
+            if (results.size() >= ef && currentScore < results.topScore()) {
+                break;
+            }
+            for (int neighbour : g.nodes[current].links.get(level)) {
+                if (neighbour >= count || visited.get(neighbour)) {
+                    continue;
+                }
+                visited.set(neighbour);
+                float score = dot(query, g, neighbour);
+                if (results.size() < ef || score > results.topScore()) {
+                    candidates.push(neighbour, score);
+                    results.push(neighbour, score);
+                    if (results.size() > ef) {
+                        results.pop();
+                    }
+                }
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Rebuilds the graph from the live nodes and swaps it in; queries keep using the old graph
+     * until the new one is complete.
+     */
+    private void compact() {
+        Graph old = graph;
+        List<String> liveIds = new ArrayList<>();
+        List<float[]> liveVectors = new ArrayList<>();
+        List<TextSegment> liveSegments = new ArrayList<>();
+        for (int i = 0; i < old.count; i++) {
+            Node node = old.nodes[i];
+            if (!node.deleted) {
+                liveIds.add(node.id);
+                liveVectors.add(vector(old, i));
+                liveSegments.add(node.segment);
+            }
+        }
+        HnswEmbeddingStore rebuilt = new HnswEmbeddingStore(m, efConstruction, efSearch);
+        rebuilt.writeLock.lock();
+        try {
+            for (int i = 0; i < liveIds.size(); i++) {
+                rebuilt.insert(liveIds.get(i), liveVectors.get(i), liveSegments.get(i));
+            }
+        } finally {
+            rebuilt.writeLock.unlock();
+        }
+        graph = rebuilt.graph;
+        ids.clear();
+        ids.putAll(rebuilt.ids);
+    }
+
+    private int maxLinks(int level) {
+        return level == 0 ? 2 * m : m;
+    }
+
+    private static float[] vector(Graph g, int node) {
+        float[] chunk = g.vectors[node >>> CHUNK_SHIFT];
+        int offset = (node & (CHUNK_NODES - 1)) * g.dimension;
+        return Arrays.copyOfRange(chunk, offset, offset + g.dimension);
+    }
+
+    private static float dot(Graph g, int a, int b) {
+        return VectorMath.dot(g.vectors[a >>> CHUNK_SHIFT], (a & (CHUNK_NODES - 1)) * g.dimension,
+                g.vectors[b >>> CHUNK_SHIFT], (b & (CHUNK_NODES - 1)) * g.dimension, g.dimension);
+    }
+
+    private static float dot(float[] query, Graph g, int node) {
+        return VectorMath.dot(query, 0, g.vectors[node >>> CHUNK_SHIFT], (node & (CHUNK_NODES - 1)) * g.dimension, g.dimension);
+    }
+}
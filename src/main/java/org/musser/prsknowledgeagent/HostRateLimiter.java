@@ -0,0 +1,77 @@
+package org.musser.prsknowledgeagent;
+
+import java.time.Duration;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-host token buckets, so the crawler is polite to each site without slowing down the others.
+ *
+ * Each host gets {@code requestsPerSecond} tokens per second, up to {@code burst}. A request that
+ * finds the bucket empty reserves the next token and sleeps until it is due, so waiting workers
+ * are served in order. {@link #backOff} pauses a host, e.g. after a 429.
+ */
+final class HostRateLimiter {
+
+    private static final class Bucket {
+        double tokens;
+        long updatedAt;
+        long pausedUntil;
+    }
+
+    private final double requestsPerSecond;
+    private final double burst;
+    private final ConcurrentHashMap<String, Bucket> buckets = new ConcurrentHashMap<>();
+
+    HostRateLimiter(double requestsPerSecond, int burst) {
+        if (requestsPerSecond <= 0 || burst < 1) {
+            throw new IllegalArgumentException("requestsPerSecond and burst must be positive");
+        }
+        this.requestsPerSecond = requestsPerSecond;
+        this.burst = burst;
+    }
+
+    void acquire(String host) throws InterruptedException {
+        long waitNanos = reserve(bucket(host));
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+
+    void backOff(String host, Duration pause) {
+        Bucket bucket = bucket(host);
+        synchronized (bucket) {
+            bucket.pausedUntil = Math.max(bucket.pausedUntil, System.nanoTime() + pause.toNanos());
+        }
+    }
+
+    private Bucket bucket(String host) {
+        return buckets.computeIfAbsent(host, h -> {
+            Bucket bucket = new Bucket();
+            bucket.tokens = burst;
+            bucket.updatedAt = System.nanoTime();
+            return bucket;
+        });
+    }
+
+    private long reserve(Bucket bucket) {
+        synchronized (bucket) {
+            long now = System.nanoTime();
+            if (bucket.pausedUntil - now > 0) {
+                // Nothing accrues while paused; restart from an empty bucket afterwards
+                bucket.tokens = Math.min(bucket.tokens, 0);
+                bucket.updatedAt = Math.max(bucket.updatedAt, bucket.pausedUntil);
+            }
+            if (now > bucket.updatedAt) {
+                bucket.tokens = Math.min(burst, bucket.tokens + (now - bucket.updatedAt) * requestsPerSecond / 1e9);
+                bucket.updatedAt = now;
+            }
+            bucket.tokens -= 1;
+            if (bucket.tokens >= 0) {
+                return 0;
+            }
+            // Tokens go negative: each waiter owns a later slot
+            return (bucket.updatedAt - now) + (long) (-bucket.tokens / requestsPerSecond * 1e9);
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package org.musser.prsknowledgeagent;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.rag.content.Content;
+import dev.langchain4j.rag.content.ContentMetadata;
+import dev.langchain4j.rag.content.retriever.ContentRetriever;
+import dev.langchain4j.rag.query.Query;
+import dev.langchain4j.store.embedding.EmbeddingMatch;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import dev.langchain4j.store.embedding.EmbeddingStore;
+
+/**
+ * Retrieves segments by combining the vector search with the {@link Bm25Index} using
+ * reciprocal-rank fusion: each segment scores {@code sum(1 / (rrfK + rank))} over the two ranked
+ * lists, so neither list's raw scores need calibrating against the other.
+ *
+ * Both lists take the top {@code candidates}. A segment found only by the vector search still
+ * has to reach {@code minScore}, as with {@code EmbeddingStoreContentRetriever}; a segment that
+ * matches query terms is kept whatever its vector score, which is what lets exact model names
+ * through. The returned contents carry the fused score. The query embedding and both searches
+ * are timed as stages of {@link RagMetrics}.
+ */
+public class HybridContentRetriever implements ContentRetriever {
+
+    private static final class Candidate {
+        final TextSegment segment;
+        double fused;
+        double vectorScore;
+        boolean lexical;
+
+        Candidate(TextSegment segment) {
+            this.segment = segment;
+        }
+    }
+
+    private final EmbeddingStore<TextSegment> embeddingStore;
+    private final EmbeddingModel embeddingModel;
+    private final Bm25Index lexicalIndex;
+    private final int maxResults;
+    private final double minScore;
+    private final int candidates;
+    private final int rrfK;
+    private final RagMetrics metrics;
+
+    public HybridContentRetriever(EmbeddingStore<TextSegment> embeddingStore, EmbeddingModel embeddingModel,
+            Bm25Index lexicalIndex, int maxResults, double minScore, int candidates, int rrfK, RagMetrics metrics) {
+        this.embeddingStore = embeddingStore;
+        this.embeddingModel = embeddingModel;
+        this.lexicalIndex = lexicalIndex;
+        this.maxResults = maxResults;
+        this.minScore = minScore;
+        this.candidates = Math.max(candidates, maxResults);
+        this.rrfK = rrfK;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public List<Content> retrieve(Query query) {
+        Embedding queryEmbedding = metrics.time("query_embedding", () -> embeddingModel.embed(query.text()).content());
+        List<EmbeddingMatch<TextSegment>> vectorMatches = metrics.time("vector_search",
+                () -> embeddingStore.search(EmbeddingSearchRequest.builder()
+                        .queryEmbedding(queryEmbedding)
+                        .maxResults(candidates)
+                        .minScore(0.0)
+                        .build()).matches());
+        List<Bm25Index.Match> lexicalMatches = metrics.time("lexical_search",
+                () -> lexicalIndex.search(query.text(), candidates));
+
+        Map<String, Candidate> fused = new LinkedHashMap<>();
+        for (int rank = 0; rank < vectorMatches.size(); rank++) {
+            EmbeddingMatch<TextSegment> match = vectorMatches.get(rank);
+            Candidate candidate = fused.computeIfAbsent(match.embeddingId(), id -> new Candidate(match.embedded()));
+            candidate.fused += 1.0 / (rrfK + rank + 1);
+            candidate.vectorScore = match.score();
+        }
+        for (int rank = 0; rank < lexicalMatches.size(); rank++) {
+            Bm25Index.Match match = lexicalMatches.get(rank);
+            Candidate candidate = fused.computeIfAbsent(match.id(), id -> new Candidate(match.segment()));
+            candidate.fused += 1.0 / (rrfK + rank + 1);
+            candidate.lexical = true;
+        }
+
+        List<Map.Entry<String, Candidate>> ranked = new ArrayList<>(fused.entrySet());
+        ranked.removeIf(e -> e.getValue().segment == null || (!e.getValue().lexical && e.getValue().vectorScore < minScore));
+        ranked.sort(Comparator.comparingDouble((Map.Entry<String, Candidate> e) -> e.getValue().fused).reversed());
+        List<Content> contents = new ArrayList<>(Math.min(maxResults, ranked.size()));
+        for (Map.Entry<String, Candidate> entry : ranked.subList(0, Math.min(maxResults, ranked.size()))) {
+            contents.add(Content.from(entry.getValue().segment, Map.of(
+                    ContentMetadata.SCORE, entry.getValue().fused,
+                    ContentMetadata.EMBEDDING_ID, entry.getKey())));
+        }
+        return contents;
+    }
+}
@@ -0,0 +1,29 @@
+package org.musser.prsknowledgeagent;
+
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.stereotype.Component;
+
+/**
+ * Reports the knowledge index as "ingestion" health. It is part of the readiness group
+ * (see application.properties), so the load balancer only routes to warm instances.
+ */
+@Component
+public class IngestionHealthIndicator implements HealthIndicator {
+
+    private final IngestionStatus ingestionStatus;
+
+    public IngestionHealthIndicator(IngestionStatus ingestionStatus) {
+        this.ingestionStatus = ingestionStatus;
+    }
+
+    @Override
+    public Health health() {
+        Health.Builder builder = switch (ingestionStatus.state()) {
+            case READY -> Health.up();
+            case FAILED -> Health.down();
+            default -> Health.outOfService();
+        };
+        return builder.withDetails(ingestionStatus.toMap()).build();
+    }
+}
@@ -0,0 +1,145 @@
+package org.musser.prsknowledgeagent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.store.embedding.EmbeddingStore;
+
+/**
+ * Staged ingestion: segments are cut into fixed-size batches, embedded on a bounded worker
+ * pool, and bulk-added to the store by the calling thread.
+ *
+ * At most {@code maxInFlightBatches} batches exist between the batching and store stages at
+ * any time, so memory stays flat no matter how large the input is or how slow the store is.
+ */
+public class IngestionPipeline {
+
+    /**
+     * Receives every batch after it has been added to the store, on the calling thread.
+     */
+    public interface BatchListener {
+        void stored(List<TextSegment> segments, List<Embedding> embeddings);
+    }
+
+    private record EmbeddedBatch(List<TextSegment> segments, List<Embedding> embeddings, Throwable error) {
+    }
+
+    private static final AtomicInteger POOL_COUNTER = new AtomicInteger();
+
+    private final EmbeddingModel embeddingModel;
+    private final EmbeddingStore<TextSegment> embeddingStore;
+    private final int batchSize;
+    private final int workers;
+    private final int maxInFlightBatches;
+    private final Function<TextSegment, String> ids;
+
+    public IngestionPipeline(EmbeddingModel embeddingModel, EmbeddingStore<TextSegment> embeddingStore,
+            int batchSize, int workers) {
+        this(embeddingModel, embeddingStore, batchSize, workers, null);
+    }
+
+    /**
+     * @param ids derives the store id of each segment, or {@code null} to let the store generate ids
+     */
+    public IngestionPipeline(EmbeddingModel embeddingModel, EmbeddingStore<TextSegment> embeddingStore,
+            int batchSize, int workers, Function<TextSegment, String> ids) {
+        if (batchSize < 1 || workers < 1) {
+            throw new IllegalArgumentException("batchSize and workers must be positive");
+        }
+        this.embeddingModel = embeddingModel;
+        this.embeddingStore = embeddingStore;
+        this.batchSize = batchSize;
+        this.workers = workers;
+        this.maxInFlightBatches = workers * 2;
+        this.ids = ids;
+    }
+
+    /**
+     * Number of embedding workers to use when none is configured.
+     */
+    public static int defaultWorkers() {
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Embeds and stores all segments, returning once every batch has been added to the store.
+     *
+     * @return number of segments stored
+     */
+    public int ingest(List<TextSegment> segments, BatchListener listener) throws InterruptedException {
+        if (segments.isEmpty()) {
+            return 0;
+        }
+        int batches = (segments.size() + batchSize - 1) / batchSize;
+        int poolId = POOL_COUNTER.incrementAndGet();
+        AtomicInteger threadCounter = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(workers, batches), r -> {
+            Thread thread = new Thread(r, "prs-embed-" + poolId + "-" + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        Semaphore inFlight = new Semaphore(maxInFlightBatches);
+        BlockingQueue<EmbeddedBatch> embedded = new ArrayBlockingQueue<>(maxInFlightBatches);
+
+        // Batching stage runs on its own thread so the caller is free to drain the store stage
+        Thread producer = new Thread(() -> {
+            try {
+                for (int from = 0; from < segments.size(); from += batchSize) {
+                    List<TextSegment> batch = segments.subList(from, Math.min(from + batchSize, segments.size()));
+                    inFlight.acquire();
+                    pool.execute(() -> embedded.add(embed(batch)));
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "prs-batch-" + poolId);
+        producer.setDaemon(true);
+        producer.start();
+
+        try {
+            int stored = 0;
+            for (int i = 0; i < batches; i++) {
+                EmbeddedBatch batch = embedded.take();
+                inFlight.release();
+                if (batch.error() != null) {
+                    throw new IllegalStateException("Embedding failed", batch.error());
+                }
+                if (ids == null) {
+                    embeddingStore.addAll(batch.embeddings(), batch.segments());
+                } else {
+                    List<String> batchIds = new ArrayList<>(batch.segments().size());
+                    for (TextSegment segment : batch.segments()) {
+                        batchIds.add(ids.apply(segment));
+                    }
+                    embeddingStore.addAll(batchIds, batch.embeddings(), batch.segments());
+                }
+                stored += batch.segments().size();
+                if (listener != null) {
+                    listener.stored(batch.segments(), batch.embeddings());
+                }
+            }
+            return stored;
+        } finally {
+            producer.interrupt();
+            pool.shutdownNow();
+        }
+    }
+
+    private EmbeddedBatch embed(List<TextSegment> batch) {
+        try {
+            return new EmbeddedBatch(batch, embeddingModel.embedAll(batch).content(), null);
+        } catch (Throwable t) {
+            return new EmbeddedBatch(batch, null, t);
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package org.musser.prsknowledgeagent;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.springframework.stereotype.Component;
+
+/**
+ * Tracks the state of background document ingestion so request handling and the
+ * readiness probe can tell whether the embedding store is complete.
+ */
+@Component
+public class IngestionStatus {
+
+    public enum State {
+        PENDING, INGESTING, READY, FAILED
+    }
+
+    private volatile State state = State.PENDING;
+    private volatile Instant startedAt;
+    private volatile Instant finishedAt;
+    private volatile String failure;
+    private final AtomicInteger segmentsTotal = new AtomicInteger();
+    private final AtomicInteger segmentsDone = new AtomicInteger();
+    private volatile int duplicatesSkipped;
+    private volatile long duplicateBytesSkipped;
+    private final CountDownLatch finished = new CountDownLatch(1);
+
+    void started() {
+        startedAt = Instant.now();
+        state = State.INGESTING;
+    }
+
+    void total(int total) {
+        segmentsTotal.set(total);
+    }
+
+    void progress(int segments) {
+        segmentsDone.addAndGet(segments);
+    }
+
+    void ready() {
+        finishedAt = Instant.now();
+        state = State.READY;
+        finished.countDown();
+    }
+
+    void failed(Throwable t) {
+        finishedAt = Instant.now();
+        failure = String.valueOf(t);
+        state = State.FAILED;
+        finished.countDown();
+    }
+
+    public State state() {
+        return state;
+    }
+
+    public boolean isReady() {
+        return state == State.READY;
+    }
+
+    /**
+     * Waits up to {@code timeout} for ingestion to finish.
+     *
+     * @return true if the index is ready
+     */
+    public boolean awaitReady(Duration timeout) {
+        if (isReady() || timeout.isZero() || timeout.isNegative()) {
+            return isReady();
+        }
+        try {
+            finished.await(timeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return isReady();
+    }
+
+    public int segmentsDone() {
+        return segmentsDone.get();
+    }
+
+    public int segmentsTotal() {
+        return segmentsTotal.get();
+    }
+
+    public double embeddingsPerSecond() {
+        Instant start = startedAt;
+        if (start == null) {
+            return 0;
+        }
+        Instant end = finishedAt != null ? finishedAt : Instant.now();
+        long millis = Math.max(1, Duration.between(start, end).toMillis());
+        return segmentsDone.get() * 1000.0 / millis;
+    }
+
+    /**
+     * Records how many near-duplicate segments the index currently leaves out, and their size.
+     */
+    public void duplicates(int segments, long bytes) {
+        duplicatesSkipped = segments;
+        duplicateBytesSkipped = bytes;
+    }
+
+    public int duplicatesSkipped() {
+        return duplicatesSkipped;
+    }
+
+    public long duplicateBytesSkipped() {
+        return duplicateBytesSkipped;
+    }
+
+    public Map<String, Object> toMap() {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("state", state);
+        map.put("segmentsDone", segmentsDone());
+        map.put("segmentsTotal", segmentsTotal());
+        map.put("embeddingsPerSecond", Math.round(embeddingsPerSecond() * 10) / 10.0);
+        map.put("duplicatesSkipped", duplicatesSkipped);
+        map.put("duplicateBytesSkipped", duplicateBytesSkipped);
+        if (startedAt != null) {
+            map.put("startedAt", startedAt.toString());
+        }
+        if (finishedAt != null) {
+            map.put("finishedAt", finishedAt.toString());
+        }
+        if (failure != null) {
+            map.put("failure", failure);
+        }
+        return map;
+    }
+}
@@ -0,0 +1,186 @@
+package org.musser.prsknowledgeagent;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import org.jsoup.nodes.Element;
+import org.jsoup.nodes.Node;
+import org.jsoup.nodes.TextNode;
+import org.jsoup.parser.Parser;
+import org.jsoup.parser.StreamParser;
+
+/**
+ * Converts a crawled HTML page to the markdown stored in prs-docs (headings, paragraphs and list
+ * items) while it is being parsed.
+ *
+ * The page is read with jsoup's {@link StreamParser}, which hands over each element as soon as
+ * it is closed. An element outside any extracted block is rendered (if it is a block) and then
+ * detached, so the tree in memory stays about as deep as the current element instead of holding
+ * the whole page. Each block's text is appended straight to the output; a list item renders its
+ * own text and its nested lists as indented items, so nested text is written once (selecting
+ * {@code p, li} and calling {@code text()} on each emitted it once per enclosing item).
+ * Navigation, footers and scripts are skipped, but their links are still collected for the
+ * crawl.
+ */
+final class MarkdownExtractor {
+
+    record Page(String markdown, List<String> links) {
+    }
+
+    private static final Set<String> BLOCKS = Set.of("h1", "h2", "h3", "p", "li");
+    private static final Set<String> LISTS = Set.of("ul", "ol");
+    private static final Set<String> BOILERPLATE = Set.of("script", "style", "noscript", "template", "nav",
+            "footer", "aside");
+
+    private MarkdownExtractor() {
+    }
+
+    static Page extract(InputStream html, Charset charset, String url) throws IOException {
+        return extract(new InputStreamReader(html, charset), url);
+    }
+
+    static Page extract(Reader html, String url) throws IOException {
+        StringBuilder markdown = new StringBuilder(8192);
+        List<String> links = new ArrayList<>();
+        String title = null;
+        try (StreamParser parser = new StreamParser(Parser.htmlParser()).parse(html, url)) {
+            Iterator<Element> elements = parser.iterator();
+            while (elements.hasNext()) {
+                Element element = elements.next();
+                String tag = element.normalName();
+                if (tag.equals("a") && element.hasAttr("href")) {
+                    links.add(element.absUrl("href"));
+                } else if (tag.equals("title") && title == null) {
+                    title = text(element, new StringBuilder()).toString();
+                }
+                if (enclosingBlock(element) != null) {
+                    // Rendered with its enclosing block once that closes
+                    continue;
+                }
+                if (BLOCKS.contains(tag) && !inBoilerplate(element)) {
+                    render(element, 0, markdown);
+                }
+                if (element.parent() != null && !tag.equals("body")) {
+                    element.remove();
+                }
+            }
+        }
+        // Page title as H1
+        markdown.insert(0, "# " + (title == null ? "" : title) + "\n\n");
+        return new Page(markdown.toString(), links);
+    }
+
+    private static Element enclosingBlock(Element element) {
+        for (Element parent = element.parent(); parent != null; parent = parent.parent()) {
+            if (BLOCKS.contains(parent.normalName())) {
+                return parent;
+            }
+        }
+        return null;
+    }
+
+    private static boolean inBoilerplate(Element element) {
+        for (Element e = element; e != null; e = e.parent()) {
+            if (BOILERPLATE.contains(e.normalName())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void render(Element block, int indent, StringBuilder out) {
+        String tag = block.normalName();
+        if (!tag.equals("li") && out.length() > 0 && out.charAt(out.length() - 1) == '\n'
+                && (out.length() < 2 || out.charAt(out.length() - 2) != '\n')) {
+            // End the preceding list
+            out.append('\n');
+        }
+        int start = out.length();
+        if (tag.equals("li")) {
+            out.append("  ".repeat(indent)).append("- ");
+        } else if (tag.charAt(0) == 'h') {
+            out.append("#".repeat(tag.charAt(1) - '0')).append(' ');
+        }
+        int textStart = out.length();
+        List<Element> nested = new ArrayList<>();
+        appendText(block, out, nested);
+        trimTrailingSpace(out);
+        if (out.length() == textStart && nested.isEmpty()) {
+            out.setLength(start);
+            return;
+        }
+        out.append(tag.equals("li") ? "\n" : "\n\n");
+        for (Element list : nested) {
+            for (Element item : list.children()) {
+                if (item.normalName().equals("li")) {
+                    render(item, indent + 1, out);
+                }
+            }
+        }
+    }
+
+    /**
+     * Appends the normalized text under {@code element} the way {@link Element#text()} would,
+     * except that lists are not descended into but collected in {@code nested}.
+     */
+    private static void appendText(Element element, StringBuilder out, List<Element> nested) {
+        for (Node child : element.childNodes()) {
+            if (child instanceof TextNode text) {
+                appendNormalized(out, text.getWholeText());
+            } else if (child instanceof Element e) {
+                if (nested != null && LISTS.contains(e.normalName())) {
+                    nested.add(e);
+                    continue;
+                }
+                if (e.normalName().equals("br")) {
+                    appendSpace(out);
+                    continue;
+                }
+                boolean block = e.isBlock();
+                if (block) {
+                    appendSpace(out);
+                }
+                appendText(e, out, nested);
+                if (block) {
+                    appendSpace(out);
+                }
+            }
+        }
+    }
+
+    private static StringBuilder text(Element element, StringBuilder out) {
+        appendText(element, out, null);
+        trimTrailingSpace(out);
+        return out;
+    }
+
+    private static void appendNormalized(StringBuilder out, String text) {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (Character.isWhitespace(c) || c == ' ') {
+                appendSpace(out);
+            } else {
+                out.append(c);
+            }
+        }
+    }
+
+    private static void appendSpace(StringBuilder out) {
+        if (out.length() > 0 && out.charAt(out.length() - 1) != ' ' && out.charAt(out.length() - 1) != '\n') {
+            out.append(' ');
+        }
+    }
+
+    private static void trimTrailingSpace(StringBuilder out) {
+        while (out.length() > 0 && out.charAt(out.length() - 1) == ' ') {
+            out.setLength(out.length() - 1);
+        }
+    }
+}
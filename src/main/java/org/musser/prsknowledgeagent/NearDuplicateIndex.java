@@ -0,0 +1,157 @@
+package org.musser.prsknowledgeagent;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Finds text segments that are near-duplicates of segments already indexed, using 64-bit
+ * SimHash fingerprints.
+ *
+ * A fingerprint is built from word 3-shingles of the lower-cased text, so two segments that
+ * share most of their wording (the same menu, signature or quoted post with a few words
+ * changed) end up within a few bits of each other. Segments within {@value #MAX_DISTANCE} bits
+ * are treated as duplicates; segments too short to fingerprint reliably must match exactly.
+ * Lookups split the fingerprint into four 16-bit blocks, one hash table per block: any two
+ * fingerprints within three bits agree on at least one block, so only segments sharing a block
+ * are compared.
+ *
+ * Not thread-safe; {@link DocumentIndexer} only uses it under its own lock.
+ */
+final class NearDuplicateIndex {
+
+    static final int MAX_DISTANCE = 3;
+    static final int MIN_SHINGLES = 8;
+    private static final int SHINGLE = 3;
+    private static final int BLOCKS = 4;
+
+    private record Entry(long fingerprint, String segmentId) {
+    }
+
+    private final List<Map<Integer, List<Entry>>> tables = new ArrayList<>(BLOCKS);
+    private final Map<String, List<Entry>> byPage = new HashMap<>();
+
+    NearDuplicateIndex() {
+        for (int i = 0; i < BLOCKS; i++) {
+            tables.add(new HashMap<>());
+        }
+    }
+
+    /**
+     * @return the SimHash of the word 3-shingles of {@code text} (0 for text without words)
+     */
+    static long fingerprint(String text) {
+        int[] weights = new int[64];
+        List<Long> words = words(text);
+        if (words.isEmpty()) {
+            return 0;
+        }
+        int n = Math.max(1, words.size() - SHINGLE + 1);
+        for (int i = 0; i < n; i++) {
+            long hash = 0x9E3779B97F4A7C15L;
+            for (int j = i; j < Math.min(i + SHINGLE, words.size()); j++) {
+                hash = mix(hash ^ words.get(j));
+            }
+            for (int bit = 0; bit < 64; bit++) {
+                weights[bit] += ((hash >>> bit) & 1) != 0 ? 1 : -1;
+            }
+        }
+        long fingerprint = 0;
+        for (int bit = 0; bit < 64; bit++) {
+            if (weights[bit] > 0) {
+                fingerprint |= 1L << bit;
+            }
+        }
+        return fingerprint;
+    }
+
+    static int shingles(String text) {
+        return Math.max(0, words(text).size() - SHINGLE + 1);
+    }
+
+    /**
+     * @return the id of an indexed segment that {@code text} (with the given fingerprint)
+     *         duplicates, or null
+     */
+    String find(long fingerprint, String text) {
+        int maxDistance = shingles(text) < MIN_SHINGLES ? 0 : MAX_DISTANCE;
+        for (int block = 0; block < BLOCKS; block++) {
+            List<Entry> candidates = tables.get(block).get(block(fingerprint, block));
+            if (candidates != null) {
+                for (Entry entry : candidates) {
+                    if (Long.bitCount(entry.fingerprint() ^ fingerprint) <= maxDistance) {
+                        return entry.segmentId();
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    void add(String pageId, String segmentId, long fingerprint) {
+        Entry entry = new Entry(fingerprint, segmentId);
+        for (int block = 0; block < BLOCKS; block++) {
+            tables.get(block).computeIfAbsent(block(fingerprint, block), k -> new ArrayList<>(1)).add(entry);
+        }
+        byPage.computeIfAbsent(pageId, k -> new ArrayList<>()).add(entry);
+    }
+
+    void removePage(String pageId) {
+        List<Entry> entries = byPage.remove(pageId);
+        if (entries == null) {
+            return;
+        }
+        for (Entry entry : entries) {
+            for (int block = 0; block < BLOCKS; block++) {
+                int key = block(entry.fingerprint(), block);
+                List<Entry> bucket = tables.get(block).get(key);
+                bucket.remove(entry);
+                if (bucket.isEmpty()) {
+                    tables.get(block).remove(key);
+                }
+            }
+        }
+    }
+
+    void clear() {
+        for (Map<Integer, List<Entry>> table : tables) {
+            table.clear();
+        }
+        byPage.clear();
+    }
+
+    private static int block(long fingerprint, int block) {
+        return (int) (fingerprint >>> (block * 16)) & 0xFFFF;
+    }
+
+    private static List<Long> words(String text) {
+        List<Long> words = new ArrayList<>();
+        long hash = 0;
+        boolean inWord = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = Character.toLowerCase(text.charAt(i));
+            if (Character.isLetterOrDigit(c)) {
+                hash = (inWord ? hash : 0xCBF29CE484222325L) ^ c;
+                hash *= 0x100000001B3L;
+                inWord = true;
+            } else if (inWord) {
+                words.add(hash);
+                inWord = false;
+            }
+        }
+        if (inWord) {
+            words.add(hash);
+        }
+        return words;
+    }
+
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB93F185EC53BL;
+        h ^= h >>> 33;
+        return h;
+    }
+}
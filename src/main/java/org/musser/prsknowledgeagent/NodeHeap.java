@@ -0,0 +1,137 @@
+package org.musser.prsknowledgeagent;
+
+import java.util.Arrays;
+
+/**
+ * Binary heap of (node, score) pairs kept in parallel primitive arrays, so vector searches can
+ * rank thousands of candidates without boxing. A max-heap yields the best score first, a
+ * min-heap the worst, which is what a bounded top-k needs.
+ */
+final class NodeHeap {
+
+    private final boolean maxFirst;
+    private int[] nodes;
+    private float[] scores;
+    private int size;
+
+    NodeHeap(int capacity, boolean maxFirst) {
+        this.maxFirst = maxFirst;
+        this.nodes = new int[Math.max(capacity, 4)];
+        this.scores = new float[nodes.length];
+    }
+
+    static NodeHeap maxFirst(int capacity) {
+        return new NodeHeap(capacity, true);
+    }
+
+    static NodeHeap minFirst(int capacity) {
+        return new NodeHeap(capacity, false);
+    }
+
+    int size() {
+        return size;
+    }
+
+    int topNode() {
+        return nodes[0];
+    }
+
+    float topScore() {
+        return scores[0];
+    }
+
+    void push(int node, float score) {
+        if (size == nodes.length) {
+            nodes = Arrays.copyOf(nodes, size * 2);
+            scores = Arrays.copyOf(scores, size * 2);
+        }
+        int i = size++;
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (!before(score, scores[parent])) {
+                break;
+            }
+            nodes[i] = nodes[parent];
+            scores[i] = scores[parent];
+            i = parent;
+        }
+        nodes[i] = node;
+        scores[i] = score;
+    }
+
+    /**
+     * Keeps the best {@code k} scores seen: pushes while below {@code k}, afterwards replaces the
+     * top of this min-heap only when {@code score} beats it.
+     */
+    void offer(int node, float score, int k) {
+        if (size < k) {
+            push(node, score);
+        } else if (score > scores[0]) {
+            nodes[0] = node;
+            scores[0] = score;
+            siftDown(0);
+        }
+    }
+
+    void pop() {
+        size--;
+        if (size > 0) {
+            nodes[0] = nodes[size];
+            scores[0] = scores[size];
+            siftDown(0);
+        }
+    }
+
+    /**
+     * @return heap positions ordered by descending score; read them with {@link #nodeAt(int)} and
+     *         {@link #scoreAt(int)}. The heap itself is left untouched.
+     */
+    int[] descendingPositions() {
+        // Sort (order-preserving score bits, position) pairs as primitive longs
+        long[] keys = new long[size];
+        for (int i = 0; i < size; i++) {
+            int bits = Float.floatToIntBits(scores[i]);
+            bits ^= (bits >> 31) & 0x7fffffff;
+            keys[i] = ((long) bits << 32) | i;
+        }
+        Arrays.sort(keys);
+        int[] positions = new int[size];
+        for (int i = 0; i < size; i++) {
+            positions[i] = (int) keys[size - 1 - i];
+        }
+        return positions;
+    }
+
+    int nodeAt(int position) {
+        return nodes[position];
+    }
+
+    float scoreAt(int position) {
+        return scores[position];
+    }
+
+    private void siftDown(int i) {
+        int node = nodes[i];
+        float score = scores[i];
+        int half = size >>> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            int right = child + 1;
+            if (right < size && before(scores[right], scores[child])) {
+                child = right;
+            }
+            if (!before(scores[child], score)) {
+                break;
+            }
+            nodes[i] = nodes[child];
+            scores[i] = scores[child];
+            i = child;
+        }
+        nodes[i] = node;
+        scores[i] = score;
+    }
+
+    private boolean before(float a, float b) {
+        return maxFirst ? a > b : a < b;
+    }
+}
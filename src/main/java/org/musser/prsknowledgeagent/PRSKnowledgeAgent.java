@@ -1,5 +1,8 @@
 package org.musser.prsknowledgeagent;
 
+import static dev.langchain4j.service.spring.AiServiceWiringMode.EXPLICIT;
+
+import dev.langchain4j.service.MemoryId;
 import dev.langchain4j.service.Result;
 import dev.langchain4j.service.SystemMessage;
 import dev.langchain4j.service.UserMessage;
@@ -14,8 +17,9 @@ import dev.langchain4j.service.spring.AiService;
  * 1. RETRIEVAL (RAG - Retrieval Augmented Generation):
  *    - Takes the user's question and converts it to an embedding
  *    - Queries the EmbeddingStore (configured in PRSKnowledgeAgentConfiguration)
- *    - Retrieves the most relevant text segments using the EmbeddingStoreContentRetriever
- *    - Filters results by similarity score (minScore=0.6, maxResults=1)
+ *    - Retrieves the most relevant text segments using the HybridContentRetriever, which fuses
+ *      the vector search with a BM25 keyword index (prs.retrieval.mode=vector for vectors only)
+ *    - Filters vector-only results by similarity score (minScore=0.6, maxResults=5)
  * 
  * 2. CONTEXT INJECTION:
  *    - Takes the retrieved documents and injects them into the system message
@@ -48,15 +52,31 @@ import dev.langchain4j.service.spring.AiService;
  * but hides these important details.
  * 
  * Configuration beans used (defined in PRSKnowledgeAgentConfiguration):
- * - OpenAiChatModel: The LLM (configured for Grok/xAI)
- * - EmbeddingStoreContentRetriever: Retrieves relevant context documents
- * - ChatMemoryProvider: Manages conversation history per user
+ * - GatewayChatModel: The LLM (OpenAiChatModel configured for Grok/xAI) behind request coalescing
+ *   and an adaptive concurrency limit; wired explicitly as there is more than one ChatModel bean
+ * - retrievalAugmentor: Retrieves relevant context documents (contentRetriever, a
+ *   HybridContentRetriever) and injects them into the user message; both stages are timed
+ *   by RagMetrics
+ * - ChatMemoryProvider: Manages conversation history per browser session (RedisChatMemoryStore)
  * - EmbeddingModel: Converts text to embeddings (AllMiniLmL6V2)
- * - EmbeddingStore: Stores document embeddings (InMemoryEmbeddingStore)
+ * - EmbeddingStore: Stores document embeddings, chosen by prs.embedding-store.type: an
+ *   HnswEmbeddingStore by default, or a FlatVectorStore, InMemoryEmbeddingStore or the shared
+ *   RedisVectorIndex
  */
-@AiService
+@AiService(wiringMode = EXPLICIT, chatModel = "gatewayChatModel",
+        retrievalAugmentor = "retrievalAugmentor", chatMemoryProvider = "chatMemoryProvider")
 public interface PRSKnowledgeAgent {
 
+    /**
+     * Instructions shared with {@link PRSKnowledgeStreamingAgent}.
+     */
+    String SYSTEM_MESSAGE = """
+            You are a Paul Reed Smith Guitars expert.
+            Answer only guitar questions with medium detail. 
+            Reply using HTML markup.
+            Today is {{current_date}}.            
+            """;
+
     /**
      * Answers a guitar-related question using RAG (Retrieval Augmented Generation).
      * 
@@ -64,6 +84,7 @@ public interface PRSKnowledgeAgent {
      * The {{current_date}} placeholder is automatically replaced with today's date.
      * Retrieved context documents are automatically injected into the conversation.
      * 
+     * @param sessionId The browser's chat session id; each session has its own conversation memory
      * @param userMessage The user's question
      * @return Result containing:
      *         - content: The AI's response as HTML
@@ -71,11 +92,6 @@ public interface PRSKnowledgeAgent {
      *         - tokenUsage: Input/output token counts
      *         - finishReason: Why the generation stopped (STOP, LENGTH, etc.)
      */
-    @SystemMessage("""
-            You are a Paul Reed Smith Guitars expert.
-            Answer only guitar questions with medium detail. 
-            Reply using HTML markup.
-            Today is {{current_date}}.            
-            """)
-    Result<String> answer(@UserMessage String userMessage);
+    @SystemMessage(SYSTEM_MESSAGE)
+    Result<String> answer(@MemoryId String sessionId, @UserMessage String userMessage);
 }
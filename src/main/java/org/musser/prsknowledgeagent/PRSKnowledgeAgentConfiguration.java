@@ -2,30 +2,43 @@ package org.musser.prsknowledgeagent;
 
 import static dev.langchain4j.model.openai.OpenAiChatModelName.GPT_4_O_MINI;
 
-import java.io.IOException;
+import java.nio.file.Path;
 import java.time.Duration;
+import java.util.List;
 
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.web.client.RestTemplateBuilder;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.core.io.ResourceLoader;
+import org.springframework.context.annotation.Primary;
+import org.springframework.core.task.VirtualThreadTaskExecutor;
 import org.springframework.web.client.RestTemplate;
 
-import dev.langchain4j.community.store.embedding.redis.RedisEmbeddingStore;
 import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.http.client.spring.restclient.SpringRestClient;
 import dev.langchain4j.memory.chat.ChatMemoryProvider;
-import dev.langchain4j.memory.chat.MessageWindowChatMemory;
 import dev.langchain4j.model.TokenCountEstimator;
+import dev.langchain4j.model.chat.ChatModel;
+import dev.langchain4j.model.chat.StreamingChatModel;
 import dev.langchain4j.model.embedding.EmbeddingModel;
 import dev.langchain4j.model.embedding.onnx.allminilml6v2q.AllMiniLmL6V2QuantizedEmbeddingModel;
 import dev.langchain4j.model.openai.OpenAiChatModel;
+import dev.langchain4j.model.openai.OpenAiStreamingChatModel;
 import dev.langchain4j.model.openai.OpenAiTokenCountEstimator;
+import dev.langchain4j.rag.DefaultRetrievalAugmentor;
+import dev.langchain4j.rag.RetrievalAugmentor;
+import dev.langchain4j.rag.content.Content;
+import dev.langchain4j.rag.content.injector.ContentInjector;
+import dev.langchain4j.rag.content.injector.DefaultContentInjector;
 import dev.langchain4j.rag.content.retriever.ContentRetriever;
 import dev.langchain4j.rag.content.retriever.EmbeddingStoreContentRetriever;
 import dev.langchain4j.store.embedding.EmbeddingStore;
 import dev.langchain4j.store.embedding.inmemory.InMemoryEmbeddingStore;
 import io.lettuce.core.RedisClient;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
 
 @Configuration
 public class PRSKnowledgeAgentConfiguration {
@@ -36,6 +49,12 @@ public class PRSKnowledgeAgentConfiguration {
         return RedisClient.create(redisUrl);
     }
 
+    @Bean(destroyMethod = "close")
+    SharedRedisConnection sharedRedisConnection(RedisClient redisClient,
+            @Value("${redis.retry-backoff:PT30S}") Duration retryBackoff) {
+        return new SharedRedisConnection(redisClient, retryBackoff);
+    }
+
     
     
 
@@ -48,68 +67,309 @@ public class PRSKnowledgeAgentConfiguration {
         return model;
     }
 
+    /**
+     * The auto-configured chat model behind the gateway: identical concurrent requests are
+     * coalesced and calls are admitted by the adaptive chat-model limiter. The agents are wired
+     * to this bean explicitly, since there are now two ChatModel beans.
+     */
+    @Bean
+    GatewayChatModel gatewayChatModel(@Qualifier("openAiChatModel") ChatModel openAiChatModel,
+            @Qualifier("chatModelLimiter") ConcurrencyLimiter chatModelLimiter, MeterRegistry meterRegistry,
+            RagMetrics ragMetrics) {
+        GatewayChatModel gateway = new GatewayChatModel(openAiChatModel, chatModelLimiter, ragMetrics);
+        FunctionCounter.builder("prs.chat.model.coalesced", gateway, GatewayChatModel::coalesced)
+                .description("Chat model requests answered by an identical call already in flight")
+                .register(meterRegistry);
+        return gateway;
+    }
+
+    /**
+     * Streaming counterpart of the auto-configured chat model, using the same
+     * langchain4j.open-ai.chat-model settings and sharing the gateway's limiter; identical
+     * concurrent streams are coalesced like blocking calls. Its HTTP client lets the SSE endpoint
+     * abort the upstream call when the browser disconnects, and reads each stream on its own
+     * virtual thread: the client's default executor has a single thread, which queued concurrent
+     * streams behind one another.
+     */
     @Bean
-    ChatMemoryProvider chatMemoryProvider() {
-        return memoryId -> MessageWindowChatMemory.builder()
-                .id(memoryId)
-                .maxMessages(100)                
+    StreamingChatModel streamingChatModel(@Qualifier("chatModelLimiter") ConcurrencyLimiter chatModelLimiter,
+            RagMetrics ragMetrics, MeterRegistry meterRegistry,
+            @Value("${langchain4j.open-ai.chat-model.api-key}") String apiKey,
+            @Value("${langchain4j.open-ai.chat-model.base-url}") String baseUrl,
+            @Value("${langchain4j.open-ai.chat-model.model-name}") String modelName,
+            @Value("${langchain4j.open-ai.chat-model.temperature:0.1}") double temperature,
+            @Value("${langchain4j.open-ai.chat-model.top-p:0.9}") double topP,
+            @Value("${langchain4j.open-ai.chat-model.max-tokens:2000}") int maxTokens,
+            @Value("${langchain4j.open-ai.chat-model.timeout:PT60S}") Duration timeout,
+            @Value("${langchain4j.open-ai.chat-model.log-requests:false}") boolean logRequests,
+            @Value("${langchain4j.open-ai.chat-model.log-responses:false}") boolean logResponses) {
+        GatewayStreamingChatModel gateway = new GatewayStreamingChatModel(OpenAiStreamingChatModel.builder()
+                .httpClientBuilder(new CancellableHttpClientBuilder(SpringRestClient.builder()
+                        .streamingRequestExecutor(new VirtualThreadTaskExecutor("prs-stream-"))))
+                .apiKey(apiKey)
+                .baseUrl(baseUrl)
+                .modelName(modelName)
+                .temperature(temperature)
+                .topP(topP)
+                .maxTokens(maxTokens)
+                .timeout(timeout)
+                .logRequests(logRequests)
+                .logResponses(logResponses)
+                .build(), chatModelLimiter, ragMetrics);
+        FunctionCounter.builder("prs.chat.model.stream.coalesced", gateway, GatewayStreamingChatModel::coalesced)
+                .description("Streaming requests served by an identical stream already in flight")
+                .register(meterRegistry);
+        return gateway;
+    }
+
+    @Bean
+    RedisChatMemoryStore redisChatMemoryStore(SharedRedisConnection redis, MeterRegistry meterRegistry,
+            RagMetrics ragMetrics,
+            @Value("${prs.chat-memory.max-cached-sessions:10000}") int maxCachedSessions,
+            @Value("${prs.chat-memory.session-ttl:PT2H}") Duration sessionTtl) {
+        RedisChatMemoryStore store = RedisChatMemoryStore.builder()
+                .connection(redis)
+                .maxSessions(maxCachedSessions)
+                .sessionTtl(sessionTtl)
+                .metrics(ragMetrics)
                 .build();
+        BoundedCache<Object, ?> sessions = store.sessions();
+        FunctionCounter.builder("prs.chat.memory.cache.requests", sessions, BoundedCache::hits)
+                .tag("result", "hit").register(meterRegistry);
+        FunctionCounter.builder("prs.chat.memory.cache.requests", sessions, BoundedCache::misses)
+                .tag("result", "miss").register(meterRegistry);
+        Gauge.builder("prs.chat.memory.cache.size", sessions, BoundedCache::size).register(meterRegistry);
+        return store;
+    }
+
+    @Bean(destroyMethod = "close")
+    ChatMemorySummarizer chatMemorySummarizer(RedisChatMemoryStore redisChatMemoryStore,
+            GatewayChatModel gatewayChatModel, TokenCountEstimator tokenizer, MeterRegistry meterRegistry,
+            @Value("${prs.chat-memory.max-tokens:2000}") int maxTokens,
+            @Value("${prs.chat-memory.max-messages:100}") int maxMessages) {
+        return new ChatMemorySummarizer(redisChatMemoryStore, gatewayChatModel, tokenizer, maxTokens, maxMessages,
+                meterRegistry);
+    }
+
+    @Bean
+    ChatMemoryProvider chatMemoryProvider(ChatMemorySummarizer chatMemorySummarizer) {
+        return memoryId -> new SummarizingChatMemory(memoryId, chatMemorySummarizer);
+    }
+
+    /**
+     * Loaded in the background while the rest of the context starts; see {@link StartupTimeline}.
+     */
+    @Bean
+    @Primary
+    EmbeddingModel embeddingModel(StartupTimeline startupTimeline) {
+        // Batches are already spread over cores by IngestionPipeline, so embed each batch on the
+        // calling thread instead of fanning out again onto the model's own executor
+        return new PreloadedEmbeddingModel(AllMiniLmL6V2QuantizedEmbeddingModel.class.getName(),
+                startupTimeline.load("embedding-model", () -> new AllMiniLmL6V2QuantizedEmbeddingModel(Runnable::run)));
+    }
+
+    @Bean
+    PrsCrawler prsCrawler(EmbeddingModel embeddingModel, TokenCountEstimator tokenizer,
+            @Value("${prs.crawler.workers:8}") int workers,
+            @Value("${prs.crawler.requests-per-second:2}") double requestsPerSecond,
+            @Value("${prs.crawler.burst:2}") int burst,
+            @Value("${prs.crawler.max-depth:3}") int maxDepth,
+            @Value("${prs.crawler.state-dir:${java.io.tmpdir}/prs-crawl}") String stateDir,
+            @Value("${prs.crawler.shards:16}") int shards) {
+        return new PrsCrawler(embeddingModel, tokenizer, new CrawlEngine(workers, requestsPerSecond, burst), maxDepth,
+                Path.of(stateDir), shards);
     }
 
+    /**
+     * The store the retrievers search: in process, or ({@code redis}) the vector index shared by
+     * every instance. The index dimension is configured rather than asked of the embedding model,
+     * which would wait for the model to finish loading.
+     */
     @Bean
-    EmbeddingModel embeddingModel() {
-        return new AllMiniLmL6V2QuantizedEmbeddingModel();
+    EmbeddingStore<TextSegment> embeddingStore(@Value("${prs.embedding-store.type:hnsw}") String type,
+            @Value("${prs.hnsw.m:16}") int m,
+            @Value("${prs.hnsw.ef-construction:100}") int efConstruction,
+            @Value("${prs.hnsw.ef-search:50}") int efSearch,
+            SharedRedisConnection redis, RagMetrics ragMetrics,
+            @Value("${prs.redis-index.name:prs:vectors}") String redisIndexName,
+            @Value("${prs.redis-index.dimension:384}") int redisDimension,
+            @Value("${prs.redis-index.batch-size:256}") int redisBatchSize) {
+        return switch (type) {
+            case "hnsw" -> new HnswEmbeddingStore(m, efConstruction, efSearch);
+            case "flat" -> new FlatVectorStore();
+            case "in-memory" -> new InMemoryEmbeddingStore<>();
+            case "redis" -> new RedisVectorIndex(redis, redisIndexName, redisDimension, redisBatchSize, ragMetrics);
+            default -> throw new IllegalArgumentException("Unknown prs.embedding-store.type: " + type);
+        };
     }
 
-    public EmbeddingStore<TextSegment> redisEmbeddingStore(@Value("${redis.url:redis://localhost:6379}") String uri,
-                        @Value("${redis.dimension:384}") int dimension)  {        
-          try {
+    @Bean
+    DocumentIndexer documentIndexer(EmbeddingStore<TextSegment> embeddingStore, EmbeddingModel embeddingModel,
+            TokenCountEstimator tokenizer, IngestionStatus ingestionStatus,
+            @Value("${prs.snapshot.path:${java.io.tmpdir}/prs-docs-embeddings.bin}") String snapshotPath,
+            @Value("${prs.ingestion.batch-size:64}") int batchSize,
+            @Value("${prs.ingestion.workers:0}") int workers,
+            @Value("${prs.ingestion.deduplicate:true}") boolean deduplicate, Bm25Index lexicalIndex,
+            @Value("${prs.redis-index.writer:false}") boolean redisIndexWriter) {
+        if (embeddingStore instanceof RedisVectorIndex sharedIndex) {
+            // The writer embeds into a local store, snapshotted as usual, and publishes each new
+            // version from the snapshot; the other instances only follow the shared index
+            return new DocumentIndexer(new FlatVectorStore(), embeddingModel, tokenizer, ingestionStatus,
+                    Path.of(snapshotPath), batchSize, workers, deduplicate, lexicalIndex, sharedIndex, redisIndexWriter);
+        }
+        return new DocumentIndexer(embeddingStore, embeddingModel, tokenizer, ingestionStatus, Path.of(snapshotPath),
+                batchSize, workers, deduplicate, lexicalIndex);
+    }
+
+    @Bean
+    Bm25Index lexicalIndex() {
+        return new Bm25Index();
+    }
 
-            RedisEmbeddingStore rs = 
-                RedisEmbeddingStore.builder().uri(uri).dimension(dimension)
-                    .build();            
-            return rs;
-          } catch (Throwable t) {
-            t.printStackTrace();
-            throw t;
-          }
-           
+    /**
+     * Per-stage latency, retrieval and token metrics for the request path; a fraction
+     * {@code prs.metrics.sample-rate} of calls is timed.
+     */
+    @Bean
+    RagMetrics ragMetrics(MeterRegistry meterRegistry,
+            @Value("${prs.metrics.sample-rate:0.1}") double sampleRate) {
+        return new RagMetrics(meterRegistry, sampleRate);
     }
 
     @Bean
-    PrsCrawler prsCrawler(EmbeddingModel embeddingModel, TokenCountEstimator tokenizer) {
-        return new PrsCrawler(embeddingModel, tokenizer);
+    ConcurrencyLimiter chatModelLimiter(MeterRegistry meterRegistry,
+            @Value("${prs.limits.chat-model.initial-concurrent:16}") int initialConcurrent,
+            @Value("${prs.limits.chat-model.min-concurrent:2}") int minConcurrent,
+            @Value("${prs.limits.chat-model.max-concurrent:64}") int maxConcurrent,
+            @Value("${prs.limits.chat-model.max-queue:200}") int maxQueue,
+            @Value("${prs.limits.chat-model.max-wait:PT10S}") Duration maxWait) {
+        return register(ConcurrencyLimiter.adaptive("chat-model", initialConcurrent, minConcurrent, maxConcurrent,
+                maxQueue, maxWait), meterRegistry);
     }
 
     @Bean
-    EmbeddingStore<TextSegment> embeddingStore(EmbeddingModel embeddingModel, ResourceLoader resourceLoader, TokenCountEstimator tokenizer) throws IOException {
+    ConcurrencyLimiter embeddingLimiter(MeterRegistry meterRegistry,
+            @Value("${prs.limits.embedding.max-concurrent:0}") int maxConcurrent,
+            @Value("${prs.limits.embedding.max-wait:PT5S}") Duration maxWait) {
+        // 0 = one per available core
+        int limit = maxConcurrent > 0 ? maxConcurrent : Runtime.getRuntime().availableProcessors();
+        return register(ConcurrencyLimiter.fixed("embedding", limit, maxWait), meterRegistry);
+    }
 
-        InMemoryEmbeddingStore<TextSegment> embeddingStore = new InMemoryEmbeddingStore<>();
-        
-        return embeddingStore;
+    private static ConcurrencyLimiter register(ConcurrencyLimiter limiter, MeterRegistry meterRegistry) {
+        String upstream = limiter.name();
+        Gauge.builder("prs.upstream.limit", limiter, ConcurrencyLimiter::limit)
+                .tag("upstream", upstream).register(meterRegistry);
+        Gauge.builder("prs.upstream.in.flight", limiter, ConcurrencyLimiter::inFlight)
+                .tag("upstream", upstream).register(meterRegistry);
+        Gauge.builder("prs.upstream.waiting", limiter, ConcurrencyLimiter::waiting)
+                .tag("upstream", upstream).register(meterRegistry);
+        FunctionCounter.builder("prs.upstream.rejected", limiter, ConcurrencyLimiter::rejected)
+                .tag("upstream", upstream).register(meterRegistry);
+        return limiter;
     }
 
     @Bean
-    EmbeddingStoreContentRetriever embeddingStoreContentRetriever(EmbeddingStore<TextSegment> embeddingStore, EmbeddingModel embeddingModel) {
+    CachedEmbeddingModel queryEmbeddingModel(EmbeddingModel embeddingModel, MeterRegistry meterRegistry,
+            @Qualifier("embeddingLimiter") ConcurrencyLimiter embeddingLimiter,
+            @Value("${prs.query-embedding-cache.max-size:10000}") int maxSize,
+            @Value("${prs.query-embedding-cache.ttl:PT24H}") Duration ttl) {
+        CachedEmbeddingModel queryEmbeddingModel = new CachedEmbeddingModel(embeddingModel, maxSize, ttl,
+                embeddingLimiter);
+        BoundedCache<String, float[]> cache = queryEmbeddingModel.cache();
+        FunctionCounter.builder("prs.query.embedding.cache.requests", cache, BoundedCache::hits)
+                .tag("result", "hit").register(meterRegistry);
+        FunctionCounter.builder("prs.query.embedding.cache.requests", cache, BoundedCache::misses)
+                .tag("result", "miss").register(meterRegistry);
+        FunctionCounter.builder("prs.query.embedding.cache.evictions", cache, BoundedCache::evictions)
+                .register(meterRegistry);
+        Gauge.builder("prs.query.embedding.cache.size", cache, BoundedCache::size).register(meterRegistry);
+        return queryEmbeddingModel;
+    }
 
-        // You will need to adjust these parameters to find the optimal setting,
-        // which will depend on multiple factors, for example:
-        // - The nature of your data
-        // - The embedding model you are using
-        int maxResults = 5;
-        double minScore = 0.6;
+    @Bean
+    SemanticAnswerCache semanticAnswerCache(CachedEmbeddingModel queryEmbeddingModel, SharedRedisConnection redis,
+            DocumentIndexer documentIndexer, MeterRegistry meterRegistry,
+            @Value("${prs.answer-cache.similarity:0.95}") double similarity,
+            @Value("${prs.answer-cache.max-entries:5000}") int maxEntries,
+            @Value("${prs.answer-cache.ttl:PT24H}") Duration ttl,
+            @Value("${prs.answer-cache.sync-interval:PT30S}") Duration syncInterval,
+            @Value("${prs.answer-cache.key-prefix:prs:answers:}") String keyPrefix) {
+        SemanticAnswerCache answerCache = new SemanticAnswerCache(queryEmbeddingModel, redis,
+                documentIndexer::indexVersion, similarity, maxEntries, ttl, syncInterval, keyPrefix);
+        FunctionCounter.builder("prs.answer.cache.requests", answerCache, SemanticAnswerCache::hits)
+                .tag("result", "hit").register(meterRegistry);
+        FunctionCounter.builder("prs.answer.cache.requests", answerCache, SemanticAnswerCache::misses)
+                .tag("result", "miss").register(meterRegistry);
+        Gauge.builder("prs.answer.cache.size", answerCache, SemanticAnswerCache::size).register(meterRegistry);
+        return answerCache;
+    }
 
+    // You will need to adjust these parameters to find the optimal setting,
+    // which will depend on multiple factors, for example:
+    // - The nature of your data
+    // - The embedding model you are using
+    private static final int MAX_RESULTS = 5;
+    private static final double MIN_SCORE = 0.6;
+
+    @Bean
+    EmbeddingStoreContentRetriever embeddingStoreContentRetriever(EmbeddingStore<TextSegment> embeddingStore,
+            CachedEmbeddingModel queryEmbeddingModel) {
         return EmbeddingStoreContentRetriever.builder()
                 .embeddingStore(embeddingStore)
-                .embeddingModel(embeddingModel)
-                .maxResults(maxResults)                
-                .minScore(minScore)
+                .embeddingModel(queryEmbeddingModel)
+                .maxResults(MAX_RESULTS)
+                .minScore(MIN_SCORE)
+                .build();
+    }
+
+    /**
+     * The retriever the agents use: vector search fused with BM25 ({@code hybrid}), or vector
+     * search alone ({@code vector}). Timed as the {@code retrieval} stage.
+     */
+    @Bean
+    ContentRetriever contentRetriever(@Value("${prs.retrieval.mode:hybrid}") String mode,
+            EmbeddingStoreContentRetriever embeddingStoreContentRetriever, EmbeddingStore<TextSegment> embeddingStore,
+            CachedEmbeddingModel queryEmbeddingModel, Bm25Index lexicalIndex, RagMetrics ragMetrics,
+            @Value("${prs.retrieval.candidates:30}") int candidates,
+            @Value("${prs.retrieval.rrf-k:60}") int rrfK) {
+        ContentRetriever retriever = switch (mode) {
+            case "hybrid" -> new HybridContentRetriever(embeddingStore, queryEmbeddingModel, lexicalIndex, MAX_RESULTS,
+                    MIN_SCORE, candidates, rrfK, ragMetrics);
+            case "vector" -> embeddingStoreContentRetriever;
+            default -> throw new IllegalArgumentException("Unknown prs.retrieval.mode: " + mode);
+        };
+        return query -> {
+            List<Content> contents = ragMetrics.time("retrieval", () -> retriever.retrieve(query));
+            ragMetrics.retrieved(contents);
+            return contents;
+        };
+    }
+
+    /**
+     * Retrieval, context packing and prompt assembly, so the agents' prompt assembly can be timed
+     * as the {@code prompt_assembly} stage. The retrieved segments are packed into
+     * {@code prs.context.max-tokens} before they are injected.
+     */
+    @Bean
+    RetrievalAugmentor retrievalAugmentor(ContentRetriever contentRetriever, RagMetrics ragMetrics,
+            TokenCountEstimator tokenizer, @Value("${prs.context.max-tokens:1800}") int maxContextTokens) {
+        ContentInjector injector = new DefaultContentInjector();
+        return DefaultRetrievalAugmentor.builder()
+                .contentRetriever(contentRetriever)
+                .contentAggregator(new ContextPackingContentAggregator(tokenizer, maxContextTokens, ragMetrics))
+                .contentInjector((contents, message) -> ragMetrics.time("prompt_assembly",
+                        () -> injector.inject(contents, message)))
                 .build();
     }
 
+    /**
+     * Loaded in the background, like the embedding model: reading the vocabulary takes seconds.
+     */
     @Bean
-    TokenCountEstimator tokenCountEstimator() {
-        return new OpenAiTokenCountEstimator(GPT_4_O_MINI);
+    TokenCountEstimator tokenCountEstimator(StartupTimeline startupTimeline) {
+        return new PreloadedTokenCountEstimator(startupTimeline.load("tokenizer",
+                () -> new OpenAiTokenCountEstimator(GPT_4_O_MINI)));
     }
 
     @Bean
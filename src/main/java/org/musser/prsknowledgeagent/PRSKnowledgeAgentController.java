@@ -1,38 +1,183 @@
 package org.musser.prsknowledgeagent;
 
 import dev.firecrawl.exception.FirecrawlException;
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.memory.ChatMemory;
+import dev.langchain4j.memory.chat.ChatMemoryProvider;
 import dev.langchain4j.service.Result;
 
 import java.io.IOException;
+import java.time.Duration;
+import java.util.Map;
+import java.util.UUID;
+import java.util.regex.Pattern;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 import org.springframework.web.servlet.view.RedirectView;
 
 @RestController
 public class PRSKnowledgeAgentController {
 
+    private static final Pattern SESSION_ID = Pattern.compile("[A-Za-z0-9_-]{1,64}");
+    private static final String BUSY_MESSAGE = "I'm answering a lot of questions right now. Please try again in a moment.";
+    private static final String ERROR_MESSAGE = "Sorry, I encountered an error. Please try again.";
+
     private final PRSKnowledgeAgent prsKnowledgeAgent;
+    private final IngestionStatus ingestionStatus;
+    private final Duration readyWait;
+    private final SemanticAnswerCache answerCache;
+    private final boolean answerCacheEnabled;
+    private final RedisChatMemoryStore chatMemoryStore;
+    private final ChatMemoryProvider chatMemoryProvider;
+    private final PRSKnowledgeStreamingAgent streamingAgent;
+    private final Duration streamTimeout;
+    private final RagMetrics metrics;
 
-    public PRSKnowledgeAgentController(PRSKnowledgeAgent prsKnowledgeAgent) {
+    public PRSKnowledgeAgentController(PRSKnowledgeAgent prsKnowledgeAgent, IngestionStatus ingestionStatus,
+            @Value("${prs.ingestion.ready-wait:PT5S}") Duration readyWait, SemanticAnswerCache answerCache,
+            @Value("${prs.answer-cache.enabled:true}") boolean answerCacheEnabled, RedisChatMemoryStore chatMemoryStore,
+            ChatMemoryProvider chatMemoryProvider, PRSKnowledgeStreamingAgent streamingAgent,
+            @Value("${prs.stream.timeout:PT2M}") Duration streamTimeout, RagMetrics metrics) {
         this.prsKnowledgeAgent = prsKnowledgeAgent;
+        this.ingestionStatus = ingestionStatus;
+        this.readyWait = readyWait;
+        this.answerCache = answerCache;
+        this.answerCacheEnabled = answerCacheEnabled;
+        this.chatMemoryStore = chatMemoryStore;
+        this.chatMemoryProvider = chatMemoryProvider;
+        this.streamingAgent = streamingAgent;
+        this.streamTimeout = streamTimeout;
+        this.metrics = metrics;
     }
 
     @Autowired
     DataPopulation dp;
 
     @GetMapping("/prsKnowledgeAgent")
-    public String prsKnowledgeAgent(@RequestParam String userMessage) {
+    public ResponseEntity<String> prsKnowledgeAgent(@RequestParam String userMessage,
+            @RequestParam(required = false) String sessionId) {
+        sessionId = sessionId(sessionId);
+        if (sessionId == null) {
+            return ResponseEntity.badRequest().body("Invalid sessionId");
+        }
+        // Answering against a half-populated index gives confidently wrong answers, so wait
+        // briefly for ingestion and otherwise ask the client to retry
+        if (!ingestionStatus.awaitReady(readyWait)) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .header(HttpHeaders.RETRY_AFTER, "10")
+                    .body(stillLoadingMessage());
+        }
         try {
-        Result<String> result = prsKnowledgeAgent.answer(userMessage);
-        return result.content();
-        } catch (Throwable t) {
-            return t.getMessage();
+            // Cached answers ignore conversation context, so only use them for a session's first question
+            boolean firstQuestion = answerCacheEnabled && chatMemoryStore.getMessages(sessionId).isEmpty();
+            String cached = firstQuestion ? metrics.time("answer_cache", () -> answerCache.lookup(userMessage)) : null;
+            if (cached != null) {
+                remember(sessionId, userMessage, cached);
+                return ResponseEntity.ok(cached);
+            }
+            String session = sessionId;
+            Result<String> result = metrics.time("answer", () -> prsKnowledgeAgent.answer(session, userMessage));
+            metrics.tokens("answer", result.tokenUsage());
+            if (firstQuestion && result.content() != null && !result.content().isBlank()) {
+                answerCache.put(userMessage, result.content());
+            }
+            return ResponseEntity.ok(result.content());
+        } catch (RuntimeException e) {
+            // Overload is expected under spikes and worth a retry; anything else is logged, not shown
+            if (GatewayChatModel.overloaded(e)) {
+                return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                        .header(HttpHeaders.RETRY_AFTER, "5")
+                        .body(BUSY_MESSAGE);
+            }
+            System.out.println("Answer failed: " + e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(ERROR_MESSAGE);
         }
     }
 
+    /**
+     * Streams the answer as Server-Sent Events: {@code token} events carry {"text": ...} chunks,
+     * {@code done} ends the answer and {@code notice} replaces it with a message for the user
+     * (invalid session, index still loading, model error). The upstream model call is cancelled
+     * when the browser disconnects.
+     */
+    @GetMapping(path = "/prsKnowledgeAgent/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter prsKnowledgeAgentStream(@RequestParam String userMessage,
+            @RequestParam(required = false) String sessionId) {
+        SseEmitter emitter = new SseEmitter(streamTimeout.toMillis());
+        String session = sessionId(sessionId);
+        if (session == null) {
+            notice(emitter, "Invalid sessionId");
+            return emitter;
+        }
+        if (!ingestionStatus.awaitReady(readyWait)) {
+            notice(emitter, stillLoadingMessage());
+            return emitter;
+        }
+        StreamingCall call = StreamingCall.open();
+        try {
+            boolean firstQuestion = answerCacheEnabled && chatMemoryStore.getMessages(session).isEmpty();
+            String cached = firstQuestion ? metrics.time("answer_cache", () -> answerCache.lookup(userMessage)) : null;
+            if (cached != null) {
+                remember(session, userMessage, cached);
+                send(emitter, call, "token", cached);
+                send(emitter, call, "done", "");
+                emitter.complete();
+                return emitter;
+            }
+            // Disconnects and timeouts cancel the upstream call; cancelling a finished call does nothing
+            emitter.onCompletion(call::cancel);
+            emitter.onTimeout(call::cancel);
+            emitter.onError(e -> call.cancel());
+            streamingAgent.answer(session, userMessage)
+                    .onPartialResponse(token -> send(emitter, call, "token", token))
+                    .onCompleteResponse(response -> {
+                        // A cancelled stream still completes, with whatever arrived before the abort
+                        // and usually without token usage
+                        if (call.cancelled()) {
+                            return;
+                        }
+                        metrics.tokens("stream", response.tokenUsage());
+                        String answer = response.aiMessage().text();
+                        if (firstQuestion && answer != null && !answer.isBlank()) {
+                            answerCache.put(userMessage, answer);
+                        }
+                        send(emitter, call, "done", "");
+                        emitter.complete();
+                    })
+                    .onError(error -> {
+                        // After a cancel the aborted read surfaces here; nobody is listening anymore
+                        if (!call.cancelled()) {
+                            System.out.println("Streaming answer failed: " + error);
+                            notice(emitter, GatewayChatModel.overloaded(error) ? BUSY_MESSAGE : ERROR_MESSAGE);
+                        }
+                    })
+                    .start();
+        } catch (RuntimeException e) {
+            if (!GatewayChatModel.overloaded(e)) {
+                System.out.println("Streaming answer failed: " + e);
+            }
+            notice(emitter, GatewayChatModel.overloaded(e) ? BUSY_MESSAGE : ERROR_MESSAGE);
+        } finally {
+            call.close();
+        }
+        return emitter;
+    }
+
+    @GetMapping("/ingestion/status")
+    public Map<String, Object> ingestionStatus() {
+        return ingestionStatus.toMap();
+    }
+
     @GetMapping("/loadDocs")
     public String loadDocs() throws IOException, FirecrawlException {
         String result = dp.loadPrsDocs();
@@ -43,4 +188,48 @@ public class PRSKnowledgeAgentController {
     public RedirectView redirectToIndex() {
         return new RedirectView("/index.html");
     }
+
+    /**
+     * @return the session id to use, or null if the given one is invalid
+     */
+    private static String sessionId(String sessionId) {
+        if (sessionId == null || sessionId.isBlank()) {
+            // No session: answer statelessly rather than sharing one conversation between callers
+            return "anonymous-" + UUID.randomUUID();
+        }
+        return SESSION_ID.matcher(sessionId).matches() ? sessionId : null;
+    }
+
+    /**
+     * Records a question answered from the cache in the session's memory, as the agent would
+     * have, so that follow-up questions have it as context.
+     */
+    private void remember(String sessionId, String userMessage, String answer) {
+        ChatMemory memory = chatMemoryProvider.get(sessionId);
+        memory.add(UserMessage.from(userMessage));
+        memory.add(AiMessage.from(answer));
+    }
+
+    private String stillLoadingMessage() {
+        return "I'm still loading my PRS knowledge (" + ingestionStatus.segmentsDone() + " of "
+                + ingestionStatus.segmentsTotal() + " segments). Please try again in a moment.";
+    }
+
+    private static void send(SseEmitter emitter, StreamingCall call, String event, String text) {
+        try {
+            emitter.send(SseEmitter.event().name(event).data(Map.of("text", text), MediaType.APPLICATION_JSON));
+        } catch (IOException | IllegalStateException e) {
+            // The browser went away; stop generating for it
+            call.cancel();
+        }
+    }
+
+    private static void notice(SseEmitter emitter, String text) {
+        try {
+            emitter.send(SseEmitter.event().name("notice").data(Map.of("text", text), MediaType.APPLICATION_JSON));
+            emitter.complete();
+        } catch (IOException | IllegalStateException e) {
+            emitter.completeWithError(e);
+        }
+    }
 }
@@ -0,0 +1,28 @@
+package org.musser.prsknowledgeagent;
+
+import static dev.langchain4j.service.spring.AiServiceWiringMode.EXPLICIT;
+
+import dev.langchain4j.service.MemoryId;
+import dev.langchain4j.service.SystemMessage;
+import dev.langchain4j.service.TokenStream;
+import dev.langchain4j.service.UserMessage;
+import dev.langchain4j.service.spring.AiService;
+
+/**
+ * Streaming variant of {@link PRSKnowledgeAgent}: same instructions, retrieval and chat memory,
+ * but the answer is delivered token by token through a {@link TokenStream}. Used by the
+ * Server-Sent Events endpoint so the browser can render the answer while it is generated.
+ */
+@AiService(wiringMode = EXPLICIT, streamingChatModel = "streamingChatModel",
+        retrievalAugmentor = "retrievalAugmentor", chatMemoryProvider = "chatMemoryProvider")
+public interface PRSKnowledgeStreamingAgent {
+
+    /**
+     * @param sessionId The browser's chat session id; each session has its own conversation memory
+     * @param userMessage The user's question
+     * @return a stream that starts calling the model on {@link TokenStream#start()}; the answer is
+     *         added to the session's memory once it is complete
+     */
+    @SystemMessage(PRSKnowledgeAgent.SYSTEM_MESSAGE)
+    TokenStream answer(@MemoryId String sessionId, @UserMessage String userMessage);
+}
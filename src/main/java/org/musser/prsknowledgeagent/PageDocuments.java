@@ -0,0 +1,71 @@
+package org.musser.prsknowledgeagent;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+
+import dev.langchain4j.data.document.Document;
+import dev.langchain4j.data.document.Metadata;
+
+/**
+ * Splits the crawler output into one {@link Document} per {@code ## Page: <url>} block.
+ *
+ * Each document carries a stable page id derived from its URL and a hash of its content, so
+ * re-indexing can tell unchanged pages from new, changed and removed ones.
+ */
+public class PageDocuments {
+
+    public static final String PAGE_HEADER = "## Page: ";
+    public static final String URL = "url";
+    public static final String PAGE_ID = "page_id";
+    public static final String CONTENT_HASH = "content_hash";
+
+    private PageDocuments() {
+    }
+
+    public static List<Document> parse(String text) {
+        List<Document> pages = new ArrayList<>();
+        Map<String, Integer> seen = new HashMap<>();
+        int start = 0;
+        String url = "";
+        while (start < text.length()) {
+            int next = text.indexOf("\n" + PAGE_HEADER, start == 0 && text.startsWith(PAGE_HEADER) ? 1 : start);
+            int end = next < 0 ? text.length() : next + 1;
+            if (text.startsWith(PAGE_HEADER, start)) {
+                int eol = text.indexOf('\n', start);
+                url = text.substring(start + PAGE_HEADER.length(), eol < 0 ? text.length() : eol).trim();
+            }
+            String body = text.substring(start, end);
+            if (!body.isBlank()) {
+                // The same URL can appear twice in a hand-edited file; keep both, with distinct ids
+                int occurrence = seen.merge(url, 1, Integer::sum);
+                String id = sha256(url).substring(0, 16) + (occurrence > 1 ? "-" + occurrence : "");
+                Metadata metadata = new Metadata()
+                        .put(URL, url)
+                        .put(PAGE_ID, id)
+                        .put(CONTENT_HASH, sha256(body));
+                pages.add(Document.from(body, metadata));
+            }
+            start = end;
+        }
+        return pages;
+    }
+
+    static String sha256(String value) {
+        return sha256(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    static String sha256(byte[] value) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(value));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
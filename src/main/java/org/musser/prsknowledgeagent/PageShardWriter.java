@@ -0,0 +1,175 @@
+package org.musser.prsknowledgeagent;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Writes crawled pages as {@code ## Page:} blocks into a fixed number of shard files
+ * ({@code prs-docs-NN.txt}), which ingestion parses in parallel.
+ *
+ * A page always lands in the shard picked by its URL, so re-crawls rewrite the same shards and a
+ * page never appears in two of them. Each shard has its own lock, an encoder and a 64 KB buffer
+ * in front of a {@link FileChannel}, so concurrent crawler threads rarely contend and pages are
+ * encoded straight into the buffer. Shards are written to temporary files and only moved into
+ * place by {@link #commit()}.
+ */
+final class PageShardWriter implements Closeable {
+
+    static final String SHARD_GLOB = "prs-docs-*.txt";
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final Path dir;
+    private final Shard[] shards;
+    private boolean committed;
+
+    private static final class Shard {
+
+        final ReentrantLock lock = new ReentrantLock();
+        final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        final Path target;
+        final Path tmp;
+        final FileChannel channel;
+
+        Shard(Path target) throws IOException {
+            this.target = target;
+            this.tmp = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+            this.channel = FileChannel.open(tmp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        }
+
+        void write(CharSequence text) throws IOException {
+            CharBuffer chars = CharBuffer.wrap(text);
+            while (true) {
+                CoderResult result = encoder.encode(chars, buffer, true);
+                if (result.isOverflow()) {
+                    drain();
+                } else {
+                    if (result.isError()) {
+                        result.throwException();
+                    }
+                    encoder.reset();
+                    return;
+                }
+            }
+        }
+
+        void drain() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+
+    PageShardWriter(Path dir, int shardCount) throws IOException {
+        if (shardCount < 1) {
+            throw new IllegalArgumentException("shardCount must be positive");
+        }
+        this.dir = dir;
+        Files.createDirectories(dir);
+        this.shards = new Shard[shardCount];
+        try {
+            for (int i = 0; i < shardCount; i++) {
+                shards[i] = new Shard(dir.resolve(shardName(i)));
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    static String shardName(int index) {
+        return String.format(Locale.ROOT, "prs-docs-%02d.txt", index);
+    }
+
+    void write(String url, CharSequence markdown) throws IOException {
+        Shard shard = shards[Math.floorMod(url.hashCode(), shards.length)];
+        shard.lock.lock();
+        try {
+            shard.write(PageDocuments.PAGE_HEADER);
+            shard.write(url);
+            shard.write("\n\n");
+            shard.write(markdown);
+            shard.write("\n---\n\n"); // Separator between pages
+        } finally {
+            shard.lock.unlock();
+        }
+    }
+
+    /**
+     * Moves the written shards into place and deletes shards left over from a run with more of
+     * them.
+     */
+    void commit() throws IOException {
+        for (Shard shard : shards) {
+            shard.drain();
+            shard.channel.force(false);
+            shard.channel.close();
+        }
+        for (Shard shard : shards) {
+            Files.move(shard.tmp, shard.target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        committed = true;
+        for (Path file : list(dir)) {
+            String name = file.getFileName().toString();
+            if (!name.equals(shardName(indexOf(name)))) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    private int indexOf(String name) {
+        try {
+            int index = Integer.parseInt(name.substring("prs-docs-".length(), name.length() - ".txt".length()));
+            return index < shards.length ? index : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Discards the shards unless they were committed.
+     */
+    @Override
+    public void close() throws IOException {
+        if (committed) {
+            return;
+        }
+        for (Shard shard : shards) {
+            if (shard != null) {
+                shard.channel.close();
+                Files.deleteIfExists(shard.tmp);
+            }
+        }
+    }
+
+    /**
+     * @return the shard files in {@code dir}, sorted by name
+     */
+    static List<Path> list(Path dir) throws IOException {
+        List<Path> files = new ArrayList<>();
+        if (Files.isDirectory(dir)) {
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, SHARD_GLOB)) {
+                stream.forEach(files::add);
+            }
+        }
+        files.sort(null);
+        return files;
+    }
+}
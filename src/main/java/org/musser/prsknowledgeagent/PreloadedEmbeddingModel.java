@@ -0,0 +1,54 @@
+package org.musser.prsknowledgeagent;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.output.Response;
+
+/**
+ * An embedding model that is still being loaded in the background (see
+ * {@link StartupTimeline#load}): calls wait until it is ready, so the context can start, and a
+ * current snapshot can be loaded, without waiting for the ONNX runtime. The model's name is
+ * given up front, so code that only needs to know which model it is (such as the snapshot
+ * fingerprint in {@link DocumentIndexer}) does not wait either.
+ */
+public class PreloadedEmbeddingModel implements EmbeddingModel {
+
+    private final String modelName;
+    private final CompletableFuture<? extends EmbeddingModel> model;
+
+    public PreloadedEmbeddingModel(String modelName, CompletableFuture<? extends EmbeddingModel> model) {
+        this.modelName = modelName;
+        this.model = model;
+    }
+
+    /**
+     * @return the name of the model being loaded, its class name for the bundled models
+     */
+    public String modelName() {
+        return modelName;
+    }
+
+    @Override
+    public Response<Embedding> embed(String text) {
+        return model.join().embed(text);
+    }
+
+    @Override
+    public Response<Embedding> embed(TextSegment textSegment) {
+        return model.join().embed(textSegment);
+    }
+
+    @Override
+    public Response<List<Embedding>> embedAll(List<TextSegment> textSegments) {
+        return model.join().embedAll(textSegments);
+    }
+
+    @Override
+    public int dimension() {
+        return model.join().dimension();
+    }
+}
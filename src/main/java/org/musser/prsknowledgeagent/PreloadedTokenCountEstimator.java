@@ -0,0 +1,34 @@
+package org.musser.prsknowledgeagent;
+
+import java.util.concurrent.CompletableFuture;
+
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.model.TokenCountEstimator;
+
+/**
+ * A tokenizer that is still being loaded in the background (see {@link StartupTimeline#load}):
+ * calls wait until its vocabulary is ready.
+ */
+public class PreloadedTokenCountEstimator implements TokenCountEstimator {
+
+    private final CompletableFuture<? extends TokenCountEstimator> tokenizer;
+
+    public PreloadedTokenCountEstimator(CompletableFuture<? extends TokenCountEstimator> tokenizer) {
+        this.tokenizer = tokenizer;
+    }
+
+    @Override
+    public int estimateTokenCountInText(String text) {
+        return tokenizer.join().estimateTokenCountInText(text);
+    }
+
+    @Override
+    public int estimateTokenCountInMessage(ChatMessage message) {
+        return tokenizer.join().estimateTokenCountInMessage(message);
+    }
+
+    @Override
+    public int estimateTokenCountInMessages(Iterable<ChatMessage> messages) {
+        return tokenizer.join().estimateTokenCountInMessages(messages);
+    }
+}
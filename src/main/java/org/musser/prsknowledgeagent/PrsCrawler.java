@@ -1,104 +1,181 @@
 package org.musser.prsknowledgeagent;
-import java.io.FileInputStream;
-import java.io.FileWriter;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.util.HashSet;
-import java.util.LinkedList;
-import java.util.Queue;
-import java.util.Set;
-
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.jsoup.Connection;
 import org.jsoup.Jsoup;
-import org.jsoup.nodes.Document;
-import org.jsoup.nodes.Element;
-import org.jsoup.select.Elements;
-
-import dev.langchain4j.data.document.DocumentSplitter;
-import dev.langchain4j.data.document.parser.TextDocumentParser;
-import dev.langchain4j.data.document.splitter.DocumentSplitters;
-import dev.langchain4j.data.segment.TextSegment;
+import org.jsoup.UnsupportedMimeTypeException;
+
 import dev.langchain4j.model.TokenCountEstimator;
 import dev.langchain4j.model.embedding.EmbeddingModel;
-import dev.langchain4j.store.embedding.EmbeddingStoreIngestor;
 import dev.langchain4j.store.embedding.inmemory.InMemoryEmbeddingStore;
 
 
 public class PrsCrawler {
     //private static final String BASE_URL = "https://prsguitars.com";
     private static final String FORUM_URL = "https://forums.prsguitars.com";
-    private static final int MAX_DEPTH = 3; // Limit crawl depth to avoid too many pages
-    private static final Set<String> visited = new HashSet<>();
-    private static final Queue<String> queue = new LinkedList<>();
-    public static final String OUTPUT_FILE = "src/main/resources/prs-docs.txt"; // Output markdown file
-    public static final String EMBEDDER_FILE = "src/main/resources/prs-docs-embedding-store.json"; // Output markdown file
-    
+    public static final String OUTPUT_FILE = "src/main/resources/prs-docs.txt"; // Single-file output of earlier crawls
+    public static final String OUTPUT_DIR = "src/main/resources/prs-docs"; // Output markdown shards
+    public static final String EMBEDDER_FILE = "src/main/resources/prs-docs-embeddings.bin"; // Output embedding snapshot
+    private static final String USER_AGENT = "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/58.0.3029.110 Safari/537.3"; // Polite user agent
+
     private final EmbeddingModel embeddingModel;
     private final TokenCountEstimator tokenizer;
-    PrsCrawler(EmbeddingModel embeddingModel,   TokenCountEstimator tokenizer) {
+    private final CrawlEngine engine;
+    private final int maxDepth; // Limit crawl depth to avoid too many pages
+    private final Path stateDir;
+    private final int shards;
+
+    PrsCrawler(EmbeddingModel embeddingModel, TokenCountEstimator tokenizer, CrawlEngine engine, int maxDepth,
+            Path stateDir, int shards) {
         this.embeddingModel = embeddingModel;
         this.tokenizer = tokenizer;
-        
+        this.engine = engine;
+        this.maxDepth = maxDepth;
+        this.stateDir = stateDir;
+        this.shards = shards;
     }
 
     public void crawlPrs() throws IOException {
-        //queue.add(BASE_URL); 
-        queue.add(FORUM_URL);
-        //visited.add(BASE_URL);
-        visited.add(FORUM_URL);
-
-        try (FileWriter writer = new FileWriter(OUTPUT_FILE)) {
-            int depth = 0;
-            while (!queue.isEmpty() && depth <= MAX_DEPTH) {
-                int levelSize = queue.size();
-                for (int i = 0; i < levelSize; i++) {
-                    String url = queue.poll();
-                    crawlPage(url, writer);   
-                    Thread.sleep(1000);                 
-                }
-                depth++;
-                Thread.sleep(2000); // Delay to be polite to the server (2 seconds)
+        crawl(FORUM_URL, Path.of(OUTPUT_DIR), Path.of(OUTPUT_FILE));
+    }
+
+    /**
+     * Crawls the relevant pages under {@code siteUrl} into the shards in {@code outputDir}, which
+     * replace {@code singleFile}.
+     */
+    void crawl(String siteUrl, Path outputDir, Path singleFile) throws IOException {
+        // Pages are fetched concurrently (politely, per host) by the engine and written to the
+        // shard picked by their URL; the order of pages within a shard varies between crawls.
+        // Shards are moved into place only once the crawl is done, so an interrupted crawl
+        // leaves the previous output intact (and resumes next time)
+        try (CrawlDatabase db = CrawlDatabase.open(stateDir);
+                PageShardWriter writer = new PageShardWriter(outputDir, shards)) {
+            if (db.resumed()) {
+                System.out.println("Resuming interrupted crawl (" + db.size() + " pages in " + stateDir + ")");
             }
+            PageWriter pages = new PageWriter(db, writer);
+            CrawlEngine.Result result = engine.crawl(List.of(siteUrl), maxDepth,
+                    url -> url.startsWith(siteUrl) && isRelevantLink(url), pages);
+            if (result.pagesVisited() == 0) {
+                throw new IOException("Crawl reached no pages; keeping the previous output");
+            }
+            writer.commit();
+            // The shards replace the single file of earlier crawls
+            Files.deleteIfExists(singleFile);
+            db.finish();
+            System.out.println("Crawl complete. Output saved to " + outputDir + ": " + result + ", " + pages);
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
+            throw new IOException("Crawl interrupted", e);
         }
-        System.out.println("Crawl complete. Output saved to " + OUTPUT_FILE);
     }
 
-    private void crawlPage(String url, FileWriter writer) throws IOException {
-        System.out.println("Crawling: " + url);        
-        Document doc = Jsoup.connect(url)
-                .userAgent("Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/58.0.3029.110 Safari/537.3") // Polite user agent
-                .get();
-
-        // Extract clean text/markdown (simple conversion: headers, paragraphs, lists)
-        StringBuilder markdown = new StringBuilder();
-        markdown.append("# ").append(doc.title()).append("\n\n"); // Page title as H1
-
-        // Extract main content (adjust selector based on site structure, e.g., PRS uses 'section' or 'div.model-detail')
-        Elements content = doc.select("body"); // Broad selector; narrow to main content if needed, e.g., ".content-section"
-        for (Element element : content.select("h1, h2, h3, p, ul, ol, li")) {
-            if (element.tagName().startsWith("h")) {
-                int level = Integer.parseInt(element.tagName().substring(1));
-                markdown.append("#".repeat(level)).append(" ").append(element.text()).append("\n\n");
-            } else if (element.tagName().equals("p")) {
-                markdown.append(element.text()).append("\n\n");
-            } else if (element.tagName().equals("li")) {
-                markdown.append("- ").append(element.text()).append("\n");
+    /**
+     * @return the contents of the output shards, or of the single output file if there are none
+     */
+    public static List<byte[]> readOutput() throws IOException {
+        List<Path> files = PageShardWriter.list(Path.of(OUTPUT_DIR));
+        if (files.isEmpty()) {
+            files = List.of(Path.of(OUTPUT_FILE));
+        }
+        List<byte[]> sources = new ArrayList<>(files.size());
+        for (Path file : files) {
+            sources.add(Files.readAllBytes(file));
+        }
+        return sources;
+    }
+
+    /**
+     * Visits the pages of one crawl, going to the network only for pages that may have changed.
+     */
+    private static final class PageWriter implements CrawlEngine.PageVisitor {
+
+        private final CrawlDatabase db;
+        private final PageShardWriter writer;
+        private final LongAdder parsed = new LongAdder();
+        private final LongAdder notModified = new LongAdder();
+        private final LongAdder unchanged = new LongAdder();
+        private final LongAdder resumed = new LongAdder();
+
+        PageWriter(CrawlDatabase db, PageShardWriter writer) {
+            this.db = db;
+            this.writer = writer;
+        }
+
+        @Override
+        public boolean fetches(String url) {
+            return !db.fetchedThisRun(db.get(url));
+        }
+
+        @Override
+        public List<String> visit(String url, int depth) throws IOException {
+            CrawlDatabase.Page page = db.get(url);
+            if (db.fetchedThisRun(page)) {
+                // Already fetched before the previous attempt of this crawl was interrupted
+                resumed.increment();
+            } else {
+                page = fetch(url, page);
             }
+            writer.write(url, page.markdown());
+            return page.links();
         }
 
-        // Write to file
-        writer.write("## Page: " + url + "\n\n");
-        writer.write(markdown.toString());
-        writer.write("\n---\n\n"); // Separator between pages
-
-        // Follow links (only within PRS domain, model pages, etc.)
-        Elements links = doc.select("a[href]");
-        for (Element link : links) {
-            String nextUrl = link.absUrl("href");
-            if (nextUrl.startsWith(FORUM_URL) && !visited.contains(nextUrl) && isRelevantLink(nextUrl)) {
-                queue.add(nextUrl);
-                visited.add(nextUrl);
+        private CrawlDatabase.Page fetch(String url, CrawlDatabase.Page cached) throws IOException {
+            System.out.println("Crawling: " + url);
+            // The content type is checked below, as a 304 comes without one
+            Connection connection = Jsoup.connect(url).userAgent(USER_AGENT).ignoreContentType(true);
+            if (cached != null) {
+                // Conditional GET: an unchanged page comes back as an empty 304
+                if (!cached.etag().isEmpty()) {
+                    connection.header("If-None-Match", cached.etag());
+                }
+                if (!cached.lastModified().isEmpty()) {
+                    connection.header("If-Modified-Since", cached.lastModified());
+                }
+            }
+            Connection.Response response = connection.execute();
+            if (response.statusCode() == 304 && cached != null) {
+                notModified.increment();
+                return db.touch(cached);
+            }
+            String contentType = response.contentType();
+            if (contentType != null && !contentType.startsWith("text/") && !contentType.contains("xml")) {
+                throw new UnsupportedMimeTypeException("Unhandled content type", contentType, url);
+            }
+            byte[] body = response.bodyAsBytes();
+            String contentHash = PageDocuments.sha256(body);
+            String etag = Objects.toString(response.header("ETag"), "");
+            String lastModified = Objects.toString(response.header("Last-Modified"), "");
+            CrawlDatabase.Page page;
+            if (cached != null && contentHash.equals(cached.contentHash())) {
+                // Many forum pages send no validators; an identical body still skips the parse
+                unchanged.increment();
+                page = new CrawlDatabase.Page(url, etag, lastModified, contentHash, System.currentTimeMillis(),
+                        cached.markdown(), cached.links());
+            } else {
+                parsed.increment();
+                Charset charset = response.charset() == null ? StandardCharsets.UTF_8 : Charset.forName(response.charset());
+                MarkdownExtractor.Page extracted = MarkdownExtractor.extract(new ByteArrayInputStream(body), charset, url);
+                page = new CrawlDatabase.Page(url, etag, lastModified, contentHash, System.currentTimeMillis(),
+                        extracted.markdown(), extracted.links());
             }
+            db.put(page);
+            return page;
+        }
+
+        @Override
+        public String toString() {
+            return "parsed=" + parsed + ", notModified=" + notModified + ", unchanged=" + unchanged
+                    + ", resumed=" + resumed;
         }
     }
 
@@ -108,33 +185,20 @@ public class PrsCrawler {
     }
 
     public void createEmbeddingStore() throws IOException {
-                // 1. Create an in-memory embedding store
-        InMemoryEmbeddingStore<TextSegment> embeddingStore = new InMemoryEmbeddingStore<>();
-
-        // 2. Load an example document from classpath (works inside JAR)     
-        
-        try (FileInputStream inputStream = new FileInputStream(OUTPUT_FILE)) {
-            TextDocumentParser parser = new TextDocumentParser();
-            dev.langchain4j.data.document.Document document = parser.parse(inputStream);
-
-            // 3. Split the document into segments 100 tokens each
-            // 4. Convert segments into embeddings
-            // 5. Store embeddings into embedding store
-            // All this can be done manually, but we will use EmbeddingStoreIngestor to automate this:
-            DocumentSplitter documentSplitter = DocumentSplitters.recursive(100, 0, tokenizer);
-            EmbeddingStoreIngestor ingestor = EmbeddingStoreIngestor.builder()
-                    .documentSplitter(documentSplitter)
-                    .embeddingModel(embeddingModel)
-                    .embeddingStore(embeddingStore)
-                    .build();
-            ingestor.ingest(document);
-        }
-        System.out.println("Serializing embedding store...");
-
-        try (FileWriter fw = new FileWriter(EMBEDDER_FILE)) {
-            fw.write(embeddingStore.serializeToJson());
+        // Index the crawled pages into a throwaway store with the same settings the application
+        // uses at startup. The previous bundled snapshot is loaded first, so only pages that
+        // changed since the last crawl are embedded before the snapshot is rewritten.
+        Path snapshot = Path.of(EMBEDDER_FILE);
+        DocumentIndexer indexer = new DocumentIndexer(new InMemoryEmbeddingStore<>(), embeddingModel, tokenizer,
+                new IngestionStatus(), snapshot, 64, IngestionPipeline.defaultWorkers(), true, null);
+        indexer.loadSnapshot(snapshot);
+        try {
+            DocumentIndexer.Result result = indexer.reindex(readOutput());
+            System.out.println("Updated " + EMBEDDER_FILE + ": " + result);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Embedding interrupted", e);
         }
-        System.out.println("Serialized embedding store.");
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,172 @@
+package org.musser.prsknowledgeagent;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Supplier;
+
+import dev.langchain4j.model.output.TokenUsage;
+import dev.langchain4j.rag.content.Content;
+import dev.langchain4j.rag.content.ContentMetadata;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Latency of each stage of answering a question (query embedding, vector and lexical search,
+ * retrieval as a whole, context packing, prompt assembly, chat memory load and store, the chat
+ * model call), the number and scores of retrieved segments, Redis command round trips, retrieved
+ * context tokens before and after packing, and prompt and completion tokens.
+ *
+ * Timings are sampled: a call is timed with probability {@code sampleRate}, and calls that are
+ * not sampled do not read the clock or touch a meter, so the instrumentation can stay on in
+ * production. Token counts are always recorded. Timers publish histogram buckets, so percentiles
+ * can be aggregated across instances from {@code /actuator/prometheus}.
+ */
+public class RagMetrics {
+
+    private static final RagMetrics DISABLED = new RagMetrics(null, 0);
+
+    private final MeterRegistry registry;
+    private final double sampleRate;
+    private final Map<String, Timer> stages = new ConcurrentHashMap<>();
+    private final Map<String, Timer> redisCommands = new ConcurrentHashMap<>();
+    private final Map<String, Counter> tokens = new ConcurrentHashMap<>();
+    private final DistributionSummary retrievedSegments;
+    private final DistributionSummary retrievedScores;
+    private final DistributionSummary contextTokens;
+    private final Counter contextTokensTrimmed;
+
+    public RagMetrics(MeterRegistry registry, double sampleRate) {
+        this.registry = registry;
+        this.sampleRate = registry == null ? 0 : sampleRate;
+        this.retrievedSegments = registry == null ? null : DistributionSummary.builder("prs.rag.retrieved.segments")
+                .description("Segments handed to the chat model per question")
+                .serviceLevelObjectives(1, 2, 3, 4, 5, 10)
+                .register(registry);
+        this.retrievedScores = registry == null ? null : DistributionSummary.builder("prs.rag.retrieved.score")
+                .description("Retrieval score of each segment handed to the chat model")
+                .serviceLevelObjectives(0.01, 0.02, 0.03, 0.5, 0.6, 0.7, 0.8, 0.9)
+                .register(registry);
+        this.contextTokens = registry == null ? null : DistributionSummary.builder("prs.rag.context.tokens")
+                .description("Tokens of retrieved context injected into the prompt per question")
+                .serviceLevelObjectives(250, 500, 1000, 1500, 2000, 3000)
+                .register(registry);
+        this.contextTokensTrimmed = registry == null ? null : Counter.builder("prs.rag.context.tokens.trimmed")
+                .description("Retrieved tokens left out of prompts by context packing")
+                .register(registry);
+    }
+
+    /**
+     * Records nothing; for components created outside the application context.
+     */
+    public static RagMetrics disabled() {
+        return DISABLED;
+    }
+
+    /**
+     * @return whether to time the current call
+     */
+    public boolean sampled() {
+        return sampleRate > 0 && (sampleRate >= 1 || ThreadLocalRandom.current().nextDouble() < sampleRate);
+    }
+
+    public <T> T time(String stage, Supplier<T> call) {
+        if (!sampled()) {
+            return call.get();
+        }
+        long start = System.nanoTime();
+        try {
+            return call.get();
+        } finally {
+            record(stage, System.nanoTime() - start);
+        }
+    }
+
+    public void time(String stage, Runnable call) {
+        time(stage, () -> {
+            call.run();
+            return null;
+        });
+    }
+
+    /**
+     * Records a stage timed by the caller (who checked {@link #sampled()}).
+     */
+    public void record(String stage, long nanos) {
+        stages.computeIfAbsent(stage, s -> timer("prs.rag.stage", "stage", s)).record(Duration.ofNanos(nanos));
+    }
+
+    /**
+     * Times one Redis command (round trip included).
+     */
+    public <T> T redis(String command, Supplier<T> call) {
+        if (!sampled()) {
+            return call.get();
+        }
+        long start = System.nanoTime();
+        try {
+            return call.get();
+        } finally {
+            redisCommands.computeIfAbsent(command, c -> timer("prs.redis.command", "command", c))
+                    .record(Duration.ofNanos(System.nanoTime() - start));
+        }
+    }
+
+    public void retrieved(List<Content> contents) {
+        if (!sampled()) {
+            return;
+        }
+        retrievedSegments.record(contents.size());
+        for (Content content : contents) {
+            if (content.metadata().get(ContentMetadata.SCORE) instanceof Number score) {
+                retrievedScores.record(score.doubleValue());
+            }
+        }
+    }
+
+    /**
+     * Records the context of one question: the tokens retrieved and the tokens left after
+     * packing. Not sampled, like the token counts.
+     */
+    public void context(int retrievedTokens, int packedTokens) {
+        if (registry == null) {
+            return;
+        }
+        contextTokens.record(packedTokens);
+        contextTokensTrimmed.increment(Math.max(0, retrievedTokens - packedTokens));
+    }
+
+    /**
+     * @param endpoint which endpoint answered ({@code answer} or {@code stream})
+     */
+    public void tokens(String endpoint, TokenUsage usage) {
+        if (registry == null || usage == null) {
+            return;
+        }
+        count(endpoint, "prompt", usage.inputTokenCount());
+        count(endpoint, "completion", usage.outputTokenCount());
+    }
+
+    private void count(String endpoint, String type, Integer count) {
+        if (count != null && count > 0) {
+            tokens.computeIfAbsent(endpoint + ':' + type, key -> Counter.builder("prs.rag.tokens")
+                    .description("Chat model tokens used by answers")
+                    .tag("endpoint", endpoint)
+                    .tag("type", type)
+                    .register(registry)).increment(count);
+        }
+    }
+
+    private Timer timer(String name, String tag, String value) {
+        return Timer.builder(name)
+                .tag(tag, value)
+                .publishPercentileHistogram()
+                .minimumExpectedValue(Duration.ofNanos(10_000))
+                .maximumExpectedValue(Duration.ofSeconds(120))
+                .register(registry);
+    }
+}
@@ -4,84 +4,345 @@ import dev.langchain4j.data.message.ChatMessage;
 import dev.langchain4j.data.message.ChatMessageDeserializer;
 import dev.langchain4j.data.message.ChatMessageSerializer;
 import dev.langchain4j.store.memory.chat.ChatMemoryStore;
+import io.lettuce.core.LettuceFutures;
 import io.lettuce.core.RedisClient;
-import io.lettuce.core.api.StatefulRedisConnection;
+import io.lettuce.core.RedisFuture;
+import io.lettuce.core.RedisNoScriptException;
+import io.lettuce.core.ScriptOutputType;
+import io.lettuce.core.api.async.RedisAsyncCommands;
 import io.lettuce.core.api.sync.RedisCommands;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.HexFormat;
 import java.util.List;
+import java.util.Map;
 
 import static dev.langchain4j.internal.Utils.isNullOrBlank;
 import static dev.langchain4j.internal.ValidationUtils.ensureNotNull;
 
 /**
  * Custom Redis implementation of ChatMemoryStore using Lettuce client
+ *
+ * All calls share one multiplexed connection ({@link SharedRedisConnection}). Every write is a
+ * single Lua script call, so it costs one round trip and is atomic. The store remembers the
+ * list it last wrote per memory id: when a chat memory only appended messages or evicted the
+ * oldest ones, just those changes are sent (RPUSH of the new messages plus a trim) instead of
+ * deleting and re-pushing the whole window. The append script first checks that the list still
+ * ends with the message written last, and anything unexpected falls back to a full rewrite.
+ *
+ * The remembered lists double as a near-cache: hot sessions are read without a Redis round trip
+ * or JSON deserialization. Sessions idle for {@code sessionTtl} drop out of the near-cache and
+ * their Redis keys expire. This assumes a session keeps talking to the same instance (Cloud Run
+ * session affinity); if Redis is unreachable, conversations carry on from the near-cache alone.
+ *
+ * Loads and stores are timed as the {@code memory_load} and {@code memory_store} stages of
+ * {@link RagMetrics}, and each Redis command as a round trip.
  */
 public class RedisChatMemoryStore implements ChatMemoryStore {
 
     private static final String DEFAULT_KEY_PREFIX = "langchain4j:chat:memory:";
-    
-    private final RedisClient redisClient;
+    private static final int DEFAULT_MAX_SESSIONS = 10_000;
+    private static final Duration DEFAULT_SESSION_TTL = Duration.ofHours(2);
+
+    // KEYS[1] list, KEYS[2] summary; ARGV[1] time to live in ms (0 for none), ARGV[2..] messages
+    private static final String REWRITE_SCRIPT = """
+            redis.call('DEL', KEYS[1])
+            if #ARGV > 1 then
+              redis.call('RPUSH', KEYS[1], unpack(ARGV, 2))
+            end
+            if tonumber(ARGV[1]) > 0 then
+              redis.call('PEXPIRE', KEYS[1], ARGV[1])
+              redis.call('PEXPIRE', KEYS[2], ARGV[1])
+            end
+            return 1
+            """;
+
+    // KEYS[1] list, KEYS[2] summary; ARGV[1] time to live in ms (0 for none), ARGV[2] sha1 of the
+    // expected last element, ARGV[3] leading elements to keep, ARGV[4] elements to drop after them,
+    // ARGV[5..] to append
+    private static final String APPEND_SCRIPT = """
+            local last = redis.call('LINDEX', KEYS[1], -1)
+            if not last or redis.sha1hex(last) ~= ARGV[2] then
+              return 0
+            end
+            local keep = tonumber(ARGV[3])
+            local drop = tonumber(ARGV[4])
+            if drop > 0 then
+              local head = {}
+              if keep > 0 then
+                head = redis.call('LRANGE', KEYS[1], 0, keep - 1)
+              end
+              redis.call('LTRIM', KEYS[1], keep + drop, -1)
+              for i = #head, 1, -1 do
+                redis.call('LPUSH', KEYS[1], head[i])
+              end
+            end
+            if #ARGV > 4 then
+              redis.call('RPUSH', KEYS[1], unpack(ARGV, 5))
+            end
+            if tonumber(ARGV[1]) > 0 then
+              redis.call('PEXPIRE', KEYS[1], ARGV[1])
+              redis.call('PEXPIRE', KEYS[2], ARGV[1])
+            end
+            return 1
+            """;
+
+    private static final String REWRITE_SHA1 = sha1(REWRITE_SCRIPT);
+    private static final String APPEND_SHA1 = sha1(APPEND_SCRIPT);
+
+    /**
+     * The messages of a memory id as last read or written by this instance, and the SHA-1 of the
+     * last serialized element in Redis (null when Redis may not hold them).
+     */
+    private record Written(List<ChatMessage> messages, String lastSha1) {
+    }
+
+    /**
+     * Rolling summary of the turns compacted out of a session's message list, and how many
+     * tokens those turns took verbatim.
+     */
+    public record Summary(String text, int summarizedTokens) {
+    }
+
+    private static final Summary NO_SUMMARY = new Summary("", 0);
+    private static final String SUMMARY_SUFFIX = ":summary";
+
+    /**
+     * Changes turning the previously written list into the new one: keep the first {@code keep}
+     * messages, drop the {@code drop} after them, append {@code tail}.
+     */
+    private record Delta(int keep, int drop, List<ChatMessage> tail) {
+    }
+
+    private final SharedRedisConnection connection;
     private final String keyPrefix;
+    private final long sessionTtlMillis;
+    private final BoundedCache<Object, Written> sessions;
+    private final BoundedCache<Object, Summary> summaries;
+    private final RagMetrics metrics;
 
     public RedisChatMemoryStore(RedisClient redisClient) {
         this(redisClient, DEFAULT_KEY_PREFIX);
     }
 
     public RedisChatMemoryStore(RedisClient redisClient, String keyPrefix) {
-        this.redisClient = ensureNotNull(redisClient, "redisClient");
+        this(new SharedRedisConnection(ensureNotNull(redisClient, "redisClient"), Duration.ofSeconds(30)), keyPrefix,
+                DEFAULT_MAX_SESSIONS, DEFAULT_SESSION_TTL, RagMetrics.disabled());
+    }
+
+    public RedisChatMemoryStore(SharedRedisConnection connection, String keyPrefix, int maxSessions,
+            Duration sessionTtl, RagMetrics metrics) {
+        this.connection = ensureNotNull(connection, "connection");
         this.keyPrefix = isNullOrBlank(keyPrefix) ? DEFAULT_KEY_PREFIX : keyPrefix;
+        this.sessionTtlMillis = sessionTtl.toMillis();
+        this.sessions = new BoundedCache<>(maxSessions, sessionTtl, true);
+        this.summaries = new BoundedCache<>(maxSessions, sessionTtl, true);
+        this.metrics = ensureNotNull(metrics, "metrics");
+    }
+
+    /**
+     * Hit, miss and eviction counts of the session near-cache.
+     */
+    public BoundedCache<Object, ?> sessions() {
+        return sessions;
     }
 
     @Override
     public List<ChatMessage> getMessages(Object memoryId) {
         ensureNotNull(memoryId, "memoryId");
-        
-        try (StatefulRedisConnection<String, String> connection = redisClient.connect()) {
-            RedisCommands<String, String> commands = connection.sync();
-            String key = keyPrefix + memoryId;
-            
-            List<String> serializedMessages = commands.lrange(key, 0, -1);
-            List<ChatMessage> messages = new ArrayList<>();
-            
-            for (String serializedMessage : serializedMessages) {
-                messages.add(ChatMessageDeserializer.messageFromJson(serializedMessage));
-            }
-            
-            return messages;
+
+        return metrics.time("memory_load", () -> load(memoryId));
+    }
+
+    private List<ChatMessage> load(Object memoryId) {
+        Written cached = sessions.get(memoryId);
+        if (cached != null) {
+            return cached.messages();
+        }
+        List<String> serializedMessages;
+        try {
+            serializedMessages = metrics.redis("lrange", () -> connection.sync().lrange(keyPrefix + memoryId, 0, -1));
+        } catch (RuntimeException e) {
+            System.out.println("Chat memory unavailable, starting session " + memoryId + " empty: " + e.getMessage());
+            return List.of();
+        }
+        List<ChatMessage> messages = new ArrayList<>(serializedMessages.size());
+        for (String serializedMessage : serializedMessages) {
+            messages.add(ChatMessageDeserializer.messageFromJson(serializedMessage));
         }
+        if (!messages.isEmpty()) {
+            sessions.put(memoryId, new Written(List.copyOf(messages),
+                    sha1(serializedMessages.get(serializedMessages.size() - 1))));
+        }
+        return messages;
     }
 
     @Override
     public void updateMessages(Object memoryId, List<ChatMessage> messages) {
         ensureNotNull(memoryId, "memoryId");
         ensureNotNull(messages, "messages");
-        
-        try (StatefulRedisConnection<String, String> connection = redisClient.connect()) {
-            RedisCommands<String, String> commands = connection.sync();
-            String key = keyPrefix + memoryId;
-            
-            // Clear existing messages
-            commands.del(key);
-            
-            // Add new messages
-            if (!messages.isEmpty()) {
-                String[] serializedMessages = messages.stream()
-                        .map(ChatMessageSerializer::messageToJson)
-                        .toArray(String[]::new);
-                commands.rpush(key, serializedMessages);
+
+        if (messages.isEmpty()) {
+            deleteMessages(memoryId);
+            return;
+        }
+        metrics.time("memory_store", () -> store(memoryId, messages));
+    }
+
+    private void store(Object memoryId, List<ChatMessage> messages) {
+        List<ChatMessage> snapshot = List.copyOf(messages);
+        Written previous = sessions.get(memoryId);
+        Delta delta = previous == null || previous.lastSha1() == null ? null : delta(previous.messages(), snapshot);
+        if (delta != null && delta.drop() == 0 && delta.tail().isEmpty()) {
+            return;
+        }
+        String lastSha1;
+        try {
+            lastSha1 = write(keyPrefix + memoryId, previous, delta, snapshot);
+        } catch (RuntimeException e) {
+            System.out.println("Chat memory not persisted for session " + memoryId + ": " + e.getMessage());
+            lastSha1 = null;
+        }
+        sessions.put(memoryId, new Written(snapshot, lastSha1));
+    }
+
+    /**
+     * @return the SHA-1 of the last element of the list now stored under {@code key}
+     */
+    private String write(String key, Written previous, Delta delta, List<ChatMessage> messages) {
+        String[] keys = { key, key + SUMMARY_SUFFIX };
+        String ttl = Long.toString(sessionTtlMillis);
+        if (delta != null) {
+            String[] args = new String[4 + delta.tail().size()];
+            args[0] = ttl;
+            args[1] = previous.lastSha1();
+            args[2] = Integer.toString(delta.keep());
+            args[3] = Integer.toString(delta.drop());
+            for (int i = 0; i < delta.tail().size(); i++) {
+                args[4 + i] = ChatMessageSerializer.messageToJson(delta.tail().get(i));
+            }
+            Long applied = runScript(APPEND_SCRIPT, APPEND_SHA1, keys, args);
+            if (applied != null && applied == 1) {
+                return delta.tail().isEmpty() ? previous.lastSha1() : sha1(args[args.length - 1]);
             }
+            // Another writer changed the list since; replace it outright
         }
+
+        String[] args = new String[1 + messages.size()];
+        args[0] = ttl;
+        for (int i = 0; i < messages.size(); i++) {
+            args[1 + i] = ChatMessageSerializer.messageToJson(messages.get(i));
+        }
+        runScript(REWRITE_SCRIPT, REWRITE_SHA1, keys, args);
+        return sha1(args[args.length - 1]);
     }
 
     @Override
     public void deleteMessages(Object memoryId) {
         ensureNotNull(memoryId, "memoryId");
-        
-        try (StatefulRedisConnection<String, String> connection = redisClient.connect()) {
-            RedisCommands<String, String> commands = connection.sync();
-            String key = keyPrefix + memoryId;
-            commands.del(key);
+
+        sessions.remove(memoryId);
+        summaries.remove(memoryId);
+        try {
+            metrics.redis("del", () -> connection.sync().del(keyPrefix + memoryId, keyPrefix + memoryId + SUMMARY_SUFFIX));
+        } catch (RuntimeException e) {
+            System.out.println("Chat memory not deleted for session " + memoryId + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return the session's rolling summary, or null if nothing has been summarized yet
+     */
+    public Summary getSummary(Object memoryId) {
+        ensureNotNull(memoryId, "memoryId");
+
+        // Most sessions never get a summary, so remember that too instead of asking Redis every turn
+        Summary summary = summaries.get(memoryId);
+        if (summary == null) {
+            try {
+                Map<String, String> hash = metrics.redis("hgetall",
+                        () -> connection.sync().hgetall(keyPrefix + memoryId + SUMMARY_SUFFIX));
+                summary = hash.isEmpty() ? NO_SUMMARY
+                        : new Summary(hash.get("text"), Integer.parseInt(hash.getOrDefault("tokens", "0")));
+            } catch (RuntimeException e) {
+                return null;
+            }
+            summaries.put(memoryId, summary);
+        }
+        return summary == NO_SUMMARY ? null : summary;
+    }
+
+    public void updateSummary(Object memoryId, Summary summary) {
+        ensureNotNull(memoryId, "memoryId");
+        ensureNotNull(summary, "summary");
+
+        summaries.put(memoryId, summary);
+        String key = keyPrefix + memoryId + SUMMARY_SUFFIX;
+        try {
+            metrics.redis("hset", () -> {
+                RedisAsyncCommands<String, String> commands = connection.async();
+                // Sent back to back on the shared connection, then awaited together
+                RedisFuture<Long> set = commands.hset(key, Map.of("text", summary.text(),
+                        "tokens", Integer.toString(summary.summarizedTokens())));
+                RedisFuture<Boolean> expire = commands.pexpire(key, sessionTtlMillis);
+                return LettuceFutures.awaitAll(Duration.ofSeconds(10), set, expire);
+            });
+        } catch (RuntimeException e) {
+            System.out.println("Chat summary not persisted for session " + memoryId + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Expresses {@code current} as a change to {@code previous}, preferring the one that reuses
+     * the most stored messages. A message window either appends, evicts from the front, or keeps
+     * its system message first and evicts right after it, so at most the first message is kept.
+     *
+     * @return null when {@code current} does not extend what was written
+     */
+    private static Delta delta(List<ChatMessage> previous, List<ChatMessage> current) {
+        Delta best = null;
+        int bestOverlap = -1;
+        for (int keep = 0; keep <= 1 && keep <= previous.size() && keep <= current.size(); keep++) {
+            if (keep == 1 && !previous.get(0).equals(current.get(0))) {
+                break;
+            }
+            for (int drop = 0; drop <= previous.size() - keep; drop++) {
+                int overlap = previous.size() - keep - drop;
+                if (overlap <= bestOverlap) {
+                    break;
+                }
+                if (overlap <= current.size() - keep
+                        && previous.subList(keep + drop, previous.size()).equals(current.subList(keep, keep + overlap))) {
+                    best = new Delta(keep, drop, current.subList(keep + overlap, current.size()));
+                    bestOverlap = overlap;
+                    break;
+                }
+            }
+        }
+        // Reusing nothing is a full rewrite anyway
+        return bestOverlap > 0 ? best : null;
+    }
+
+    private Long runScript(String script, String sha1, String[] keys, String[] args) {
+        RedisCommands<String, String> commands = connection.sync();
+        try {
+            return metrics.redis("evalsha", () -> commands.evalsha(sha1, ScriptOutputType.INTEGER, keys, args));
+        } catch (RedisNoScriptException e) {
+            // First use on this server (or after SCRIPT FLUSH): EVAL also caches the script
+            return metrics.redis("eval", () -> commands.eval(script, ScriptOutputType.INTEGER, keys, args));
+        }
+    }
+
+    private static String sha1(String value) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            return HexFormat.of().formatHex(digest.digest(value.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
         }
     }
 
@@ -91,20 +352,47 @@ public class RedisChatMemoryStore implements ChatMemoryStore {
 
     public static class Builder {
         private RedisClient redisClient;
+        private SharedRedisConnection connection;
         private String keyPrefix = DEFAULT_KEY_PREFIX;
+        private int maxSessions = DEFAULT_MAX_SESSIONS;
+        private Duration sessionTtl = DEFAULT_SESSION_TTL;
+        private RagMetrics metrics = RagMetrics.disabled();
 
         public Builder redisClient(RedisClient redisClient) {
             this.redisClient = redisClient;
             return this;
         }
 
+        public Builder connection(SharedRedisConnection connection) {
+            this.connection = connection;
+            return this;
+        }
+
         public Builder keyPrefix(String keyPrefix) {
             this.keyPrefix = keyPrefix;
             return this;
         }
 
+        public Builder maxSessions(int maxSessions) {
+            this.maxSessions = maxSessions;
+            return this;
+        }
+
+        public Builder sessionTtl(Duration sessionTtl) {
+            this.sessionTtl = sessionTtl;
+            return this;
+        }
+
+        public Builder metrics(RagMetrics metrics) {
+            this.metrics = metrics;
+            return this;
+        }
+
         public RedisChatMemoryStore build() {
-            return new RedisChatMemoryStore(redisClient, keyPrefix);
+            if (connection == null) {
+                connection = new SharedRedisConnection(ensureNotNull(redisClient, "redisClient"), Duration.ofSeconds(30));
+            }
+            return new RedisChatMemoryStore(connection, keyPrefix, maxSessions, sessionTtl, metrics);
         }
     }
 }
@@ -0,0 +1,345 @@
+package org.musser.prsknowledgeagent;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.store.embedding.EmbeddingMatch;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import dev.langchain4j.store.embedding.EmbeddingSearchResult;
+import dev.langchain4j.store.embedding.EmbeddingStore;
+import dev.langchain4j.store.embedding.filter.Filter;
+import io.lettuce.core.KeyScanCursor;
+import io.lettuce.core.RedisCommandExecutionException;
+import io.lettuce.core.RedisFuture;
+import io.lettuce.core.ScanArgs;
+import io.lettuce.core.ScanCursor;
+import io.lettuce.core.api.sync.RedisCommands;
+import io.lettuce.core.codec.StringCodec;
+import io.lettuce.core.output.IntegerOutput;
+import io.lettuce.core.output.NestedMultiOutput;
+import io.lettuce.core.output.StatusOutput;
+import io.lettuce.core.protocol.CommandArgs;
+import io.lettuce.core.protocol.CommandType;
+import io.lettuce.core.protocol.ProtocolKeyword;
+
+/**
+ * Read-only {@link EmbeddingStore} over a RediSearch vector index shared by every instance, so
+ * the corpus is embedded once, by the writer, and scaling out costs no embedding work or heap
+ * for vectors.
+ *
+ * Each version of the index has its own name and key prefix ({@code name:version:}) and is
+ * queried through the alias {@code name}. {@link #publish} builds a new version from an
+ * embedding snapshot with pipelined {@code HSET}s, {@code batchSize} in flight at a time, then
+ * moves the alias with {@code FT.ALIASUPDATE}, so queries switch from the old contents to the
+ * new in one step. The version it replaces is kept until the next publish, for readers still
+ * loading segments from it; older versions are dropped along with their documents.
+ *
+ * A document is a hash holding the vector (FLOAT32, HNSW, cosine distance) and the segment in
+ * the snapshot's encoding, Base64-encoded. Its key ends with the segment id, as in
+ * {@link DocumentIndexer}, so the ids match those of the {@link Bm25Index}.
+ */
+public class RedisVectorIndex implements EmbeddingStore<TextSegment> {
+
+    private static final String VECTOR = "vector";
+    private static final String SEGMENT = "segment";
+    private static final String DISTANCE = "distance";
+
+    private enum Command implements ProtocolKeyword {
+        FT_CREATE("FT.CREATE"), FT_SEARCH("FT.SEARCH"), FT_ALIASUPDATE("FT.ALIASUPDATE"), FT_DROPINDEX("FT.DROPINDEX");
+
+        private final byte[] bytes;
+
+        Command(String command) {
+            this.bytes = command.getBytes(StandardCharsets.US_ASCII);
+        }
+
+        @Override
+        public byte[] getBytes() {
+            return bytes;
+        }
+    }
+
+    private final SharedRedisConnection redis;
+    private final String name;
+    private final int dimension;
+    private final int batchSize;
+    private final RagMetrics metrics;
+
+    /**
+     * @param name alias the index is queried through; also the prefix of its index names and keys
+     */
+    public RedisVectorIndex(SharedRedisConnection redis, String name, int dimension, int batchSize,
+            RagMetrics metrics) {
+        this.redis = redis;
+        this.name = name;
+        this.dimension = dimension;
+        this.batchSize = Math.max(1, batchSize);
+        this.metrics = metrics;
+    }
+
+    /**
+     * @return the version the alias points at, or null if nothing has been published yet
+     */
+    public String version() {
+        return redis.sync().get(name + ":version");
+    }
+
+    /**
+     * Loads the entries of {@code snapshot} into a new index for {@code version} and switches
+     * the alias to it. Does nothing if that version is already the current one.
+     *
+     * @return number of segments written, or -1 if the version was already published
+     */
+    public int publish(String version, Path snapshot, String fingerprint) throws IOException {
+        String current = version();
+        if (version.equals(current)) {
+            return -1;
+        }
+        String index = indexName(version);
+        String prefix = index + ":";
+        RedisCommands<String, String> commands = redis.sync();
+        // Left over from an interrupted publish of the same version
+        dropIndex(index);
+        commands.dispatch(Command.FT_CREATE, new StatusOutput<>(StringCodec.UTF8), args()
+                .add(index).add("ON").add("HASH").add("PREFIX").add(1).add(prefix)
+                .add("SCHEMA").add(VECTOR).add("VECTOR").add("HNSW").add(6)
+                .add("TYPE").add("FLOAT32").add("DIM").add(dimension).add("DISTANCE_METRIC").add("COSINE"));
+        int count;
+        try {
+            List<RedisFuture<Long>> pending = new ArrayList<>(batchSize);
+            count = EmbeddingSnapshot.read(snapshot, fingerprint, (embedding, segment) -> {
+                pending.add(redis.async().dispatch(CommandType.HSET, new IntegerOutput<>(StringCodec.UTF8), args()
+                        .addKey(prefix + DocumentIndexer.segmentId(segment))
+                        .add(VECTOR).add(bytes(embedding.vector()))
+                        .add(SEGMENT).add(encode(segment))));
+                if (pending.size() == batchSize) {
+                    await(pending);
+                }
+            });
+            await(pending);
+            if (count < 0) {
+                throw new IllegalStateException("No embedding snapshot to publish at " + snapshot);
+            }
+        } catch (IOException | RuntimeException e) {
+            dropIndex(index);
+            throw e;
+        }
+        commands.dispatch(Command.FT_ALIASUPDATE, new StatusOutput<>(StringCodec.UTF8), args().add(name).add(index));
+        commands.set(name + ":version", version);
+        String stale = current == null ? null : commands.getset(name + ":previous", current);
+        if (stale != null && !stale.equals(version)) {
+            dropIndex(indexName(stale));
+        }
+        return count;
+    }
+
+    /**
+     * Streams the segments of a published version with their ids, scanning its keys and
+     * fetching each page of them in one pipelined round trip.
+     *
+     * @return number of segments read
+     */
+    public int forEachSegment(String version, BiConsumer<String, TextSegment> consumer) {
+        String prefix = indexName(version) + ":";
+        ScanArgs scan = ScanArgs.Builder.matches(prefix + "*").limit(batchSize);
+        ScanCursor cursor = ScanCursor.INITIAL;
+        int count = 0;
+        do {
+            KeyScanCursor<String> page = redis.sync().scan(cursor, scan);
+            List<RedisFuture<String>> segments = new ArrayList<>(page.getKeys().size());
+            for (String key : page.getKeys()) {
+                segments.add(redis.async().hget(key, SEGMENT));
+            }
+            for (int i = 0; i < segments.size(); i++) {
+                String encoded = segments.get(i).toCompletableFuture().join();
+                if (encoded != null) {
+                    consumer.accept(page.getKeys().get(i).substring(prefix.length()), decode(encoded));
+                    count++;
+                }
+            }
+            cursor = page;
+        } while (!cursor.isFinished());
+        return count;
+    }
+
+    /**
+     * KNN query through the alias. A filter is applied to the k nearest segments, so it can
+     * return fewer; nothing in the retrieval path sets one.
+     */
+    @Override
+    public EmbeddingSearchResult<TextSegment> search(EmbeddingSearchRequest request) {
+        int k = request.maxResults();
+        CommandArgs<String, String> args = args().add(name)
+                .add("*=>[KNN " + k + " @" + VECTOR + " $query AS " + DISTANCE + "]")
+                .add("PARAMS").add(2).add("query").add(bytes(request.queryEmbedding().vector()))
+                .add("SORTBY").add(DISTANCE).add("LIMIT").add(0).add(k)
+                .add("RETURN").add(2).add(DISTANCE).add(SEGMENT)
+                .add("DIALECT").add(2);
+        List<Object> reply = metrics.redis("ft.search", () -> redis.sync()
+                .dispatch(Command.FT_SEARCH, new NestedMultiOutput<>(StringCodec.UTF8), args));
+
+        Filter filter = request.filter();
+        List<EmbeddingMatch<TextSegment>> matches = new ArrayList<>(k);
+        for (Map.Entry<String, Map<String, String>> document : documents(reply).entrySet()) {
+            String key = document.getKey();
+            Map<String, String> fields = document.getValue();
+            // Cosine distance is 1 - cosine similarity; scores are relevance as elsewhere
+            double score = (2 - Double.parseDouble(fields.get(DISTANCE))) / 2;
+            TextSegment segment = decode(fields.get(SEGMENT));
+            if (score < request.minScore()) {
+                break;
+            }
+            if (filter == null || filter.test(segment.metadata())) {
+                // name:version:id
+                matches.add(new EmbeddingMatch<>(score, key.substring(key.indexOf(':', name.length() + 1) + 1), null,
+                        segment));
+            }
+        }
+        return new EmbeddingSearchResult<>(matches);
+    }
+
+    /**
+     * The documents of an FT.SEARCH reply in order: a RESP2 array of count, key, fields, ...,
+     * or a RESP3 map, which Lettuce flattens to key, value, ... lists.
+     */
+    private static Map<String, Map<String, String>> documents(List<Object> reply) {
+        Map<String, Map<String, String>> documents = new LinkedHashMap<>();
+        if (!reply.isEmpty() && reply.get(0) instanceof Long) {
+            for (int i = 1; i + 1 < reply.size(); i += 2) {
+                documents.put((String) reply.get(i), pairs((List<?>) reply.get(i + 1)));
+            }
+            return documents;
+        }
+        for (int i = 0; i + 1 < reply.size(); i += 2) {
+            if ("results".equals(reply.get(i))) {
+                for (Object result : (List<?>) reply.get(i + 1)) {
+                    List<?> entry = (List<?>) result;
+                    String id = null;
+                    Map<String, String> fields = Map.of();
+                    for (int j = 0; j + 1 < entry.size(); j += 2) {
+                        if ("id".equals(entry.get(j))) {
+                            id = (String) entry.get(j + 1);
+                        } else if ("extra_attributes".equals(entry.get(j))) {
+                            fields = pairs((List<?>) entry.get(j + 1));
+                        }
+                    }
+                    documents.put(id, fields);
+                }
+            }
+        }
+        return documents;
+    }
+
+    private static Map<String, String> pairs(List<?> flat) {
+        Map<String, String> map = new HashMap<>();
+        for (int i = 0; i + 1 < flat.size(); i += 2) {
+            map.put(String.valueOf(flat.get(i)), String.valueOf(flat.get(i + 1)));
+        }
+        return map;
+    }
+
+    private String indexName(String version) {
+        return name + ":" + version;
+    }
+
+    private void dropIndex(String index) {
+        try {
+            redis.sync().dispatch(Command.FT_DROPINDEX, new StatusOutput<>(StringCodec.UTF8), args().add(index).add("DD"));
+        } catch (RedisCommandExecutionException e) {
+            // No such index
+        }
+    }
+
+    private static CommandArgs<String, String> args() {
+        return new CommandArgs<>(StringCodec.UTF8);
+    }
+
+    private static <T> void await(List<RedisFuture<T>> pending) {
+        for (RedisFuture<T> future : pending) {
+            future.toCompletableFuture().join();
+        }
+        pending.clear();
+    }
+
+    private static byte[] bytes(float[] vector) {
+        ByteBuffer buffer = ByteBuffer.allocate(vector.length * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.asFloatBuffer().put(vector);
+        return buffer.array();
+    }
+
+    private static String encode(TextSegment segment) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            EmbeddingSnapshot.writeSegment(out, segment);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return Base64.getEncoder().encodeToString(bytes.toByteArray());
+    }
+
+    private static TextSegment decode(String encoded) {
+        return EmbeddingSnapshot.readSegment(ByteBuffer.wrap(Base64.getDecoder().decode(encoded)));
+    }
+
+    // Written only through publish()
+
+    @Override
+    public String add(Embedding embedding) {
+        throw readOnly();
+    }
+
+    @Override
+    public void add(String id, Embedding embedding) {
+        throw readOnly();
+    }
+
+    @Override
+    public String add(Embedding embedding, TextSegment segment) {
+        throw readOnly();
+    }
+
+    @Override
+    public List<String> addAll(List<Embedding> embeddings) {
+        throw readOnly();
+    }
+
+    @Override
+    public void addAll(List<String> ids, List<Embedding> embeddings, List<TextSegment> segments) {
+        throw readOnly();
+    }
+
+    @Override
+    public void removeAll(Collection<String> ids) {
+        throw readOnly();
+    }
+
+    @Override
+    public void removeAll(Filter filter) {
+        throw readOnly();
+    }
+
+    @Override
+    public void removeAll() {
+        throw readOnly();
+    }
+
+    private static UnsupportedOperationException readOnly() {
+        return new UnsupportedOperationException("The shared vector index is only written by publish()");
+    }
+}
@@ -0,0 +1,239 @@
+package org.musser.prsknowledgeagent;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+
+import dev.langchain4j.model.embedding.EmbeddingModel;
+
+/**
+ * Short-circuits the LLM for questions that were already answered against the same index.
+ *
+ * A question hits when its embedding is within {@code similarityThreshold} (cosine) of a cached
+ * question. Lookups scan an in-process L1 tier first. On a miss, the Redis tier is checked for the
+ * exact normalized question, and the whole Redis tier is merged into L1 every
+ * {@code syncInterval}, so answers produced by other instances also become semantic hits.
+ *
+ * Entries are namespaced by the index version: when the document index is rebuilt, L1 is
+ * cleared and the Redis tier moves to a fresh key, leaving the old one to expire. Redis errors
+ * only disable the shared tier, never the answer path.
+ */
+public class SemanticAnswerCache {
+
+    private record Entry(String key, float[] vector, String answer, long createdAt) {
+    }
+
+    private final EmbeddingModel queryEmbeddingModel;
+    private final SharedRedisConnection redis;
+    private final Supplier<String> indexVersion;
+    private final double similarityThreshold;
+    private final int maxEntries;
+    private final long ttlMillis;
+    private final long syncIntervalMillis;
+    private final String keyPrefix;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final List<Entry> entries = new ArrayList<>();
+    private String entriesVersion = "";
+    private volatile long lastSync;
+    private final AtomicBoolean syncing = new AtomicBoolean();
+    private final ExecutorService syncExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "prs-answer-cache-sync");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public SemanticAnswerCache(EmbeddingModel queryEmbeddingModel, SharedRedisConnection redis,
+            Supplier<String> indexVersion, double similarityThreshold, int maxEntries, Duration ttl,
+            Duration syncInterval, String keyPrefix) {
+        this.queryEmbeddingModel = queryEmbeddingModel;
+        this.redis = redis;
+        this.indexVersion = indexVersion;
+        this.similarityThreshold = similarityThreshold;
+        this.maxEntries = maxEntries;
+        this.ttlMillis = ttl.toMillis();
+        this.syncIntervalMillis = syncInterval.toMillis();
+        this.keyPrefix = keyPrefix;
+    }
+
+    /**
+     * @return the cached HTML answer for a semantically equivalent question, or null
+     */
+    public String lookup(String question) {
+        String version = indexVersion.get();
+        String key = PageDocuments.sha256(CachedEmbeddingModel.normalize(question));
+        float[] vector = embed(question);
+        long now = System.currentTimeMillis();
+        maybeSync(version, now);
+
+        Entry best = null;
+        double bestScore = similarityThreshold;
+        lock.readLock().lock();
+        try {
+            if (version.equals(entriesVersion)) {
+                for (Entry entry : entries) {
+                    if (now - entry.createdAt() > ttlMillis) {
+                        continue;
+                    }
+                    double score = VectorMath.dot(vector, entry.vector());
+                    if (score >= bestScore) {
+                        best = entry;
+                        bestScore = score;
+                    }
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        if (best == null) {
+            best = fetchFromRedis(version, key, now);
+            if (best != null) {
+                addLocal(version, best);
+            }
+        }
+        if (best == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return best.answer();
+    }
+
+    public void put(String question, String answer) {
+        String version = indexVersion.get();
+        Entry entry = new Entry(PageDocuments.sha256(CachedEmbeddingModel.normalize(question)), embed(question), answer,
+                System.currentTimeMillis());
+        addLocal(version, entry);
+        try {
+            String redisKey = keyPrefix + version;
+            redis.async().hset(redisKey, entry.key(), encode(entry));
+            redis.async().pexpire(redisKey, ttlMillis);
+        } catch (RuntimeException e) {
+            // Shared tier unavailable; the local tier still serves this instance
+        }
+    }
+
+    public void invalidateAll() {
+        lock.writeLock().lock();
+        try {
+            entries.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    public long misses() {
+        return misses.sum();
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private float[] embed(String question) {
+        return VectorMath.normalized(queryEmbeddingModel.embed(question).content().vector());
+    }
+
+    private void addLocal(String version, Entry entry) {
+        lock.writeLock().lock();
+        try {
+            if (!version.equals(entriesVersion)) {
+                // The index was rebuilt since these answers were produced
+                entries.clear();
+                entriesVersion = version;
+            }
+            entries.removeIf(e -> e.key().equals(entry.key()));
+            if (entries.size() >= maxEntries) {
+                entries.remove(0);
+            }
+            entries.add(entry);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private Entry fetchFromRedis(String version, String key, long now) {
+        try {
+            String value = redis.sync().hget(keyPrefix + version, key);
+            Entry entry = value == null ? null : decode(key, value);
+            return entry != null && now - entry.createdAt() <= ttlMillis ? entry : null;
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    private void maybeSync(String version, long now) {
+        if (now - lastSync < syncIntervalMillis || !syncing.compareAndSet(false, true)) {
+            return;
+        }
+        lastSync = now;
+        syncExecutor.execute(() -> {
+            try {
+                String redisKey = keyPrefix + version;
+                Map<String, String> shared = redis.sync().hgetall(redisKey);
+                List<String> expired = new ArrayList<>();
+                for (Map.Entry<String, String> e : shared.entrySet()) {
+                    Entry entry = decode(e.getKey(), e.getValue());
+                    if (entry == null || now - entry.createdAt() > ttlMillis) {
+                        expired.add(e.getKey());
+                    } else {
+                        addLocal(version, entry);
+                    }
+                }
+                if (!expired.isEmpty()) {
+                    redis.sync().hdel(redisKey, expired.toArray(String[]::new));
+                }
+            } catch (RuntimeException e) {
+                // Shared tier unavailable; try again next interval
+            } finally {
+                syncing.set(false);
+            }
+        });
+    }
+
+    private static String encode(Entry entry) {
+        ByteBuffer buffer = ByteBuffer.allocate(entry.vector().length * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.asFloatBuffer().put(entry.vector());
+        return entry.createdAt() + "|" + Base64.getEncoder().encodeToString(buffer.array()) + "|" + entry.answer();
+    }
+
+    private static Entry decode(String key, String value) {
+        int first = value.indexOf('|');
+        int second = first < 0 ? -1 : value.indexOf('|', first + 1);
+        if (second < 0) {
+            return null;
+        }
+        try {
+            long createdAt = Long.parseLong(value.substring(0, first));
+            byte[] bytes = Base64.getDecoder().decode(value.substring(first + 1, second));
+            float[] vector = new float[bytes.length / Float.BYTES];
+            ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer().get(vector);
+            return new Entry(key, vector, value.substring(second + 1), createdAt);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
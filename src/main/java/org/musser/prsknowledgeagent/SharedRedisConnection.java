@@ -0,0 +1,74 @@
+package org.musser.prsknowledgeagent;
+
+import java.time.Duration;
+import java.util.concurrent.locks.ReentrantLock;
+
+import io.lettuce.core.RedisClient;
+import io.lettuce.core.api.StatefulRedisConnection;
+import io.lettuce.core.api.async.RedisAsyncCommands;
+import io.lettuce.core.api.sync.RedisCommands;
+
+/**
+ * One long-lived, thread-safe Lettuce connection shared by every Redis user in the application.
+ *
+ * Lettuce multiplexes concurrent commands over a single connection, so there is no need to
+ * connect per call. The connection is opened on first use rather than at startup, because Redis
+ * is optional for local development; after a failed attempt further attempts are skipped for
+ * {@code retryBackoff} so callers can fall back quickly.
+ */
+public class SharedRedisConnection implements AutoCloseable {
+
+    private final RedisClient redisClient;
+    private final long retryBackoffNanos;
+    private final ReentrantLock lock = new ReentrantLock();
+    private volatile StatefulRedisConnection<String, String> connection;
+    private volatile long nextAttempt;
+
+    public SharedRedisConnection(RedisClient redisClient, Duration retryBackoff) {
+        this.redisClient = redisClient;
+        this.retryBackoffNanos = retryBackoff.toNanos();
+    }
+
+    public RedisCommands<String, String> sync() {
+        return connection().sync();
+    }
+
+    public RedisAsyncCommands<String, String> async() {
+        return connection().async();
+    }
+
+    public StatefulRedisConnection<String, String> connection() {
+        StatefulRedisConnection<String, String> current = connection;
+        if (current != null && current.isOpen()) {
+            return current;
+        }
+        lock.lock();
+        try {
+            current = connection;
+            if (current != null && current.isOpen()) {
+                return current;
+            }
+            if (nextAttempt != 0 && System.nanoTime() - nextAttempt < 0) {
+                throw new IllegalStateException("Redis unavailable, retrying later");
+            }
+            try {
+                connection = redisClient.connect();
+                nextAttempt = 0;
+                return connection;
+            } catch (RuntimeException e) {
+                nextAttempt = System.nanoTime() + retryBackoffNanos;
+                throw e;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        StatefulRedisConnection<String, String> current = connection;
+        if (current != null) {
+            current.close();
+        }
+    }
+}
@@ -2,68 +2,197 @@ package org.musser.prsknowledgeagent;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
-import org.springframework.boot.context.event.ApplicationReadyEvent;
-import org.springframework.context.event.EventListener;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
 import org.springframework.core.io.Resource;
 import org.springframework.core.io.ResourceLoader;
+import org.springframework.core.io.support.ResourcePatternUtils;
 import org.springframework.stereotype.Component;
 
-import dev.langchain4j.data.document.DocumentSplitter;
-import dev.langchain4j.data.document.parser.TextDocumentParser;
-import dev.langchain4j.data.document.splitter.DocumentSplitters;
-import dev.langchain4j.data.segment.TextSegment;
-import dev.langchain4j.model.TokenCountEstimator;
-import dev.langchain4j.model.embedding.EmbeddingModel;
-import dev.langchain4j.store.embedding.EmbeddingStore;
-import dev.langchain4j.store.embedding.EmbeddingStoreIngestor;
-
-
+/**
+ * Loads prs-docs.txt (or the shards a crawl wrote in its place) into the embedding store in the background once the context has started,
+ * reporting progress through {@link IngestionStatus}. Segments from the previous run's snapshot
+ * are loaded first, so only pages that changed since are embedded.
+ *
+ * An instance that follows the shared vector index embeds nothing: it becomes ready once the
+ * writer has published, and checks for a newer version every {@code prs.redis-index.refresh-interval}.
+ */
 @Component
-public class StartupAsyncProcessor {
+public class StartupAsyncProcessor implements SmartLifecycle {
 
+    static final String SOURCE_RESOURCE = "classpath:prs-docs.txt";
+    static final String SHARD_RESOURCES = "classpath*:prs-docs/" + PageShardWriter.SHARD_GLOB;
+    static final String SNAPSHOT_RESOURCE = "classpath:prs-docs-embeddings.bin";
 
-    private final EmbeddingStore<TextSegment> embeddingStore;
-    private final EmbeddingModel embeddingModel;
-    private final TokenCountEstimator tokenizer;
+    private final DocumentIndexer documentIndexer;
     private final ResourceLoader resourceLoader;
+    private final IngestionStatus ingestionStatus;
+    private final StartupTimeline startupTimeline;
+    private final Duration refreshInterval;
+    private volatile ScheduledExecutorService executor;
 
-    public StartupAsyncProcessor(ResourceLoader resourceLoader,EmbeddingStore<TextSegment> embeddingStore, EmbeddingModel embeddingModel,
-        TokenCountEstimator tokenizer) {
-        this.embeddingModel = embeddingModel;
-        this.embeddingStore = embeddingStore;
-        this.tokenizer = tokenizer;
+    public StartupAsyncProcessor(ResourceLoader resourceLoader, DocumentIndexer documentIndexer,
+        IngestionStatus ingestionStatus, StartupTimeline startupTimeline,
+        @Value("${prs.redis-index.refresh-interval:PT30S}") Duration refreshInterval) {
+        this.documentIndexer = documentIndexer;
         this.resourceLoader = resourceLoader;
+        this.ingestionStatus = ingestionStatus;
+        this.startupTimeline = startupTimeline;
+        this.refreshInterval = refreshInterval;
+    }
+
+    @Override
+    public void start() {
+        // Ingest in the background so the web server comes up immediately; the readiness
+        // probe (IngestionHealthIndicator) keeps traffic away until the index is complete
+        executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "prs-ingestion");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (documentIndexer.followsSharedIndex()) {
+            ingestionStatus.started();
+            executor.scheduleWithFixedDelay(this::followSharedIndex, 0, refreshInterval.toMillis(), TimeUnit.MILLISECONDS);
+        } else {
+            executor.submit(this::ingest);
+        }
+    }
+
+    @Override
+    public void stop() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return executor != null;
     }
 
-    @EventListener(ApplicationReadyEvent.class)
-    public void onApplicationReady() {
-        // Start background logic in a new thread
-        
-        new Thread(() -> {
-          Resource emResource = resourceLoader.getResource("classpath:prs-docs.txt");        
-          if (emResource == null) {
-            throw new RuntimeException("Could nto find \"classpath:prs-docs.txt\"");
-         }
-         
-          try (InputStream inputStream = emResource.getInputStream()) {
-            TextDocumentParser parser = new TextDocumentParser();
-            dev.langchain4j.data.document.Document document = parser.parse(inputStream);
-            DocumentSplitter documentSplitter = DocumentSplitters.recursive(500, 100, tokenizer);
-            EmbeddingStoreIngestor ingestor = EmbeddingStoreIngestor.builder()
-                    .documentSplitter(documentSplitter)
-                    .embeddingModel(embeddingModel)
-                    .embeddingStore(embeddingStore)
-                    .build();
-            ingestor.ingest(document);
-            
-        } catch (Exception e ) {
+    void ingest() {
+        ingestionStatus.started();
+        try {
+            List<byte[]> sources = readSources();
+            long start = System.currentTimeMillis();
+            int loaded = loadSnapshot();
+            if (loaded >= 0) {
+                ingestionStatus.total(loaded);
+                ingestionStatus.progress(loaded);
+                System.out.println("Loaded " + loaded + " segments from embedding snapshot in "
+                        + (System.currentTimeMillis() - start) + " ms");
+                startupTimeline.mark("snapshot");
+            }
+
+            DocumentIndexer.Result result = documentIndexer.reindex(sources);
+            ingestionStatus.ready();
+            startupTimeline.mark("ready");
+            System.out.println("Indexed prs-docs (" + sources.size() + " files) in " + (System.currentTimeMillis() - start)
+                    + " ms: " + result);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            ingestionStatus.failed(e);
+        } catch (Exception e) {
+            if (!ingestionStatus.isReady()) {
+                ingestionStatus.failed(e);
+            }
             e.printStackTrace();
         }
-            
-        }).start();
     }
-}
 
+    void followSharedIndex() {
+        try {
+            long start = System.currentTimeMillis();
+            int loaded = documentIndexer.syncSharedIndex();
+            if (loaded < 0) {
+                return;
+            }
+            if (!ingestionStatus.isReady()) {
+                ingestionStatus.total(loaded);
+                ingestionStatus.progress(loaded);
+                ingestionStatus.ready();
+                startupTimeline.mark("ready");
+            }
+            if (loaded > 0) {
+                System.out.println("Following shared vector index version " + documentIndexer.indexVersion() + ": "
+                        + loaded + " segments loaded in " + (System.currentTimeMillis() - start) + " ms");
+            }
+        } catch (RuntimeException e) {
+            // Redis unavailable; the version already loaded keeps serving until the next attempt
+            System.out.println("Could not check the shared vector index: " + e);
+        }
+    }
 
+    private List<byte[]> readSources() throws IOException {
+        Resource[] shards = ResourcePatternUtils.getResourcePatternResolver(resourceLoader).getResources(SHARD_RESOURCES);
+        Arrays.sort(shards, Comparator.comparing(Resource::getFilename, Comparator.nullsFirst(Comparator.naturalOrder())));
+        List<Resource> resources = shards.length > 0 ? List.of(shards)
+                : List.of(resourceLoader.getResource(SOURCE_RESOURCE));
+        List<byte[]> sources = new ArrayList<>(resources.size());
+        for (Resource resource : resources) {
+            if (!resource.exists()) {
+                throw new IllegalStateException("Could not find " + resource.getDescription());
+            }
+            try (InputStream inputStream = resource.getInputStream()) {
+                sources.add(inputStream.readAllBytes());
+            }
+        }
+        return sources;
+    }
 
+    /**
+     * Tries the local snapshot first, then one bundled on the classpath at build time
+     * (see {@link PrsCrawler#createEmbeddingStore()}). A bundled snapshot is copied to the local
+     * snapshot path so it can be memory-mapped and later rewritten in place, together with the
+     * sidecar files bundled next to it (duplicates, BM25 index, HNSW graph).
+     */
+    private int loadSnapshot() throws IOException {
+        try {
+            int loaded = documentIndexer.loadSnapshot(documentIndexer.snapshotPath());
+            if (loaded >= 0) {
+                return loaded;
+            }
+            Resource bundled = resourceLoader.getResource(SNAPSHOT_RESOURCE);
+            if (!bundled.exists()) {
+                return -1;
+            }
+            Path snapshotPath = documentIndexer.snapshotPath();
+            Files.createDirectories(snapshotPath.toAbsolutePath().getParent());
+            try (InputStream in = bundled.getInputStream()) {
+                Files.copy(in, snapshotPath, StandardCopyOption.REPLACE_EXISTING);
+            }
+            String snapshotName = snapshotPath.getFileName().toString();
+            for (Path sidecar : DocumentIndexer.sidecarPaths(snapshotPath)) {
+                String suffix = sidecar.getFileName().toString().substring(snapshotName.length());
+                Resource bundledSidecar = resourceLoader.getResource(SNAPSHOT_RESOURCE + suffix);
+                if (!bundledSidecar.exists()) {
+                    // A leftover from an older local snapshot does not describe this one
+                    Files.deleteIfExists(sidecar);
+                    continue;
+                }
+                try (InputStream in = bundledSidecar.getInputStream()) {
+                    Files.copy(in, sidecar, StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+            return documentIndexer.loadSnapshot(snapshotPath);
+        } catch (RuntimeException e) {
+            // A truncated or corrupt snapshot may have been partially loaded; start over from the source
+            System.out.println("Ignoring unreadable embedding snapshot: " + e);
+            documentIndexer.embeddingStore().removeAll();
+            return -1;
+        }
+    }
+}
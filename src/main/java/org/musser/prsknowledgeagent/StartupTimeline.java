@@ -0,0 +1,75 @@
+package org.musser.prsknowledgeagent;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.boot.context.event.ApplicationStartedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.TimeGauge;
+
+/**
+ * When each phase of startup finished, in milliseconds since the JVM started: printed as it
+ * happens and exported as the {@code prs.startup.phase} gauge, tagged with the phase
+ * ({@code tokenizer}, {@code embedding-model}, {@code context}, {@code snapshot}, {@code ready}).
+ *
+ * The in-process models are built through {@link #load}, each on its own thread, so loading
+ * them overlaps with the rest of the context instead of holding up the main thread. A class data
+ * sharing training run ({@code -Dspring.context.exit=onRefresh}) waits for them before exiting,
+ * so their classes end up in the archive as well.
+ */
+@Component
+public class StartupTimeline implements SmartInitializingSingleton {
+
+    private final MeterRegistry meterRegistry;
+    private final List<CompletableFuture<?>> loads = new CopyOnWriteArrayList<>();
+
+    public StartupTimeline(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    public void mark(String phase) {
+        long millis = ManagementFactory.getRuntimeMXBean().getUptime();
+        TimeGauge.builder("prs.startup.phase", () -> millis, TimeUnit.MILLISECONDS)
+                .description("Time from JVM start until the phase finished")
+                .tag("phase", phase)
+                .register(meterRegistry);
+        System.out.println("Startup: " + phase + " after " + millis + " ms");
+    }
+
+    /**
+     * Starts {@code loader} on a thread of its own and marks {@code phase} when it returns.
+     */
+    public <T> CompletableFuture<T> load(String phase, Supplier<T> loader) {
+        CompletableFuture<T> loaded = new CompletableFuture<>();
+        Thread.ofPlatform().name("prs-load-" + phase).daemon().start(() -> {
+            try {
+                loaded.complete(loader.get());
+                mark(phase);
+            } catch (Throwable t) {
+                loaded.completeExceptionally(t);
+            }
+        });
+        loads.add(loaded);
+        return loaded;
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        if ("onRefresh".equals(System.getProperty("spring.context.exit"))) {
+            loads.forEach(load -> load.exceptionally(t -> null).join());
+        }
+    }
+
+    @EventListener(ApplicationStartedEvent.class)
+    void started() {
+        mark("context");
+    }
+}
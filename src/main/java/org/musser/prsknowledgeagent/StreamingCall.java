@@ -0,0 +1,109 @@
+package org.musser.prsknowledgeagent;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Handle for one streamed model call, so the upstream request can be aborted when the browser
+ * goes away.
+ *
+ * A call is bound to the thread that starts the stream; {@link CancellableHttpClientBuilder}
+ * picks it up when the request is sent and attaches the response body to it. {@link #cancel()}
+ * closes that body, which drops the connection to the model provider and stops generation
+ * instead of paying for tokens nobody reads. Code that shares one upstream stream between several
+ * calls (see {@link GatewayStreamingChatModel}) binds a call of its own for the upstream and
+ * follows the callers' calls with {@link #onCancel}.
+ */
+final class StreamingCall implements AutoCloseable {
+
+    private static final ThreadLocal<StreamingCall> CURRENT = new ThreadLocal<>();
+
+    private final StreamingCall previous;
+    private final List<Runnable> cancelListeners = new ArrayList<>();
+    private InputStream body;
+    private boolean cancelled;
+
+    private StreamingCall(StreamingCall previous) {
+        this.previous = previous;
+    }
+
+    /**
+     * Binds a new call to the current thread until {@link #close()}, which restores the call that
+     * was bound before, if any.
+     */
+    static StreamingCall open() {
+        StreamingCall call = new StreamingCall(CURRENT.get());
+        CURRENT.set(call);
+        return call;
+    }
+
+    static StreamingCall current() {
+        return CURRENT.get();
+    }
+
+    synchronized void attach(InputStream body) {
+        this.body = body;
+        if (cancelled) {
+            closeQuietly(body);
+        }
+    }
+
+    /**
+     * Runs {@code listener} when the call is cancelled, right away if it already was.
+     */
+    void onCancel(Runnable listener) {
+        synchronized (this) {
+            if (!cancelled) {
+                cancelListeners.add(listener);
+                return;
+            }
+        }
+        listener.run();
+    }
+
+    void cancel() {
+        InputStream toClose;
+        List<Runnable> listeners;
+        synchronized (this) {
+            if (cancelled) {
+                return;
+            }
+            cancelled = true;
+            toClose = body;
+            listeners = List.copyOf(cancelListeners);
+            cancelListeners.clear();
+        }
+        if (toClose != null) {
+            closeQuietly(toClose);
+        }
+        listeners.forEach(Runnable::run);
+    }
+
+    synchronized boolean cancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Unbinds the call from the current thread; the stream itself keeps running.
+     */
+    @Override
+    public void close() {
+        if (CURRENT.get() == this) {
+            if (previous != null) {
+                CURRENT.set(previous);
+            } else {
+                CURRENT.remove();
+            }
+        }
+    }
+
+    private static void closeQuietly(InputStream body) {
+        try {
+            body.close();
+        } catch (IOException | RuntimeException e) {
+            // The connection is being abandoned either way
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package org.musser.prsknowledgeagent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.SystemMessage;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.memory.ChatMemory;
+
+/**
+ * Chat memory that keeps the history sent to the model within a token budget.
+ *
+ * The store keeps the system message and the recent turns verbatim. {@link #messages()} returns
+ * the system message, extended with the rolling summary of older turns, followed by the newest
+ * turns that fit in {@code maxTokens}; the current question is always included. When the stored
+ * turns outgrow the budget, {@link ChatMemorySummarizer} folds the oldest ones into the summary
+ * in the background.
+ */
+public class SummarizingChatMemory implements ChatMemory {
+
+    private final Object id;
+    private final ChatMemorySummarizer summarizer;
+    private final RedisChatMemoryStore store;
+
+    public SummarizingChatMemory(Object id, ChatMemorySummarizer summarizer) {
+        this.id = id;
+        this.summarizer = summarizer;
+        this.store = summarizer.store();
+    }
+
+    @Override
+    public Object id() {
+        return id;
+    }
+
+    @Override
+    public void add(ChatMessage message) {
+        ReentrantLock lock = summarizer.lock(id);
+        lock.lock();
+        try {
+            List<ChatMessage> messages = new ArrayList<>(store.getMessages(id));
+            if (message instanceof SystemMessage) {
+                if (!messages.isEmpty() && messages.get(0) instanceof SystemMessage) {
+                    if (messages.get(0).equals(message)) {
+                        return;
+                    }
+                    messages.set(0, message);
+                } else {
+                    messages.add(0, message);
+                }
+            } else {
+                messages.add(message);
+            }
+            // Hard cap for when summaries keep failing: drop the oldest turns
+            int first = firstTurn(messages);
+            while (messages.size() - first > summarizer.maxMessages()) {
+                messages.remove(first);
+            }
+            store.updateMessages(id, messages);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public List<ChatMessage> messages() {
+        List<ChatMessage> messages = store.getMessages(id);
+        int first = firstTurn(messages);
+
+        // Walk back from the newest message, keeping whole turns while they fit the budget
+        int budget = summarizer.maxTokens();
+        int total = 0;
+        for (int i = first; i < messages.size(); i++) {
+            total += summarizer.tokens(messages.get(i));
+        }
+        int used = 0;
+        int start = messages.size();
+        int pending = 0;
+        for (int i = messages.size() - 1; i >= first; i--) {
+            pending += summarizer.tokens(messages.get(i));
+            if (messages.get(i) instanceof UserMessage) {
+                if (used + pending > budget && start < messages.size()) {
+                    break;
+                }
+                used += pending;
+                pending = 0;
+                start = i;
+            }
+        }
+        if (start == messages.size()) {
+            // No user message at all (should not happen); send everything rather than nothing
+            start = first;
+            used = total;
+        }
+
+        RedisChatMemoryStore.Summary summary = store.getSummary(id);
+        List<ChatMessage> result = new ArrayList<>(messages.size() - start + 1);
+        if (first == 1 || summary != null) {
+            result.add(systemMessage(first == 1 ? (SystemMessage) messages.get(0) : null, summary));
+        }
+        result.addAll(messages.subList(start, messages.size()));
+
+        int summaryTokens = summary == null ? 0 : summarizer.tokens(SystemMessage.from(summary.text()));
+        int withoutBudget = total + (summary == null ? 0 : summary.summarizedTokens());
+        summarizer.recordTurn(used + summaryTokens, Math.max(0, withoutBudget - used - summaryTokens));
+        if (total > budget) {
+            summarizer.compactLater(id);
+        }
+        return result;
+    }
+
+    @Override
+    public void clear() {
+        store.deleteMessages(id);
+    }
+
+    private static SystemMessage systemMessage(SystemMessage system, RedisChatMemoryStore.Summary summary) {
+        if (summary == null) {
+            return system;
+        }
+        String context = "Summary of the earlier conversation with this user:\n" + summary.text();
+        return SystemMessage.from(system == null ? context : system.text() + "\n\n" + context);
+    }
+
+    private static int firstTurn(List<ChatMessage> messages) {
+        return !messages.isEmpty() && messages.get(0) instanceof SystemMessage ? 1 : 0;
+    }
+}
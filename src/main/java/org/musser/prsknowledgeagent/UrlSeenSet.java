@@ -0,0 +1,124 @@
+package org.musser.prsknowledgeagent;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Locale;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Concurrent set of the URLs a crawl has already queued.
+ *
+ * URLs are normalized (fragment dropped, scheme and host lower-cased, default port removed) and
+ * stored as 64-bit fingerprints in striped open-addressing {@code long} tables, about 16 bytes
+ * per URL instead of a few hundred for a {@code HashSet<String>}. Two distinct URLs share a
+ * fingerprint with probability around n²/2⁶⁵, negligible at forum scale; such a URL would just
+ * not be crawled.
+ */
+final class UrlSeenSet {
+
+    private static final int STRIPES = 32;
+    private static final long EMPTY = 0;
+
+    private final ReentrantLock[] locks = new ReentrantLock[STRIPES];
+    private final long[][] tables = new long[STRIPES][];
+    private final int[] sizes = new int[STRIPES];
+
+    UrlSeenSet() {
+        for (int i = 0; i < STRIPES; i++) {
+            locks[i] = new ReentrantLock();
+            tables[i] = new long[64];
+        }
+    }
+
+    /**
+     * @return true if {@code url} was not in the set before
+     */
+    boolean add(String url) {
+        long fingerprint = fingerprint(normalize(url));
+        int stripe = (int) (fingerprint >>> 59) & (STRIPES - 1);
+        ReentrantLock lock = locks[stripe];
+        lock.lock();
+        try {
+            long[] table = tables[stripe];
+            if (!insert(table, fingerprint)) {
+                return false;
+            }
+            if (++sizes[stripe] * 2 > table.length) {
+                tables[stripe] = grow(table);
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int size() {
+        int size = 0;
+        for (int i = 0; i < STRIPES; i++) {
+            locks[i].lock();
+            try {
+                size += sizes[i];
+            } finally {
+                locks[i].unlock();
+            }
+        }
+        return size;
+    }
+
+    private static boolean insert(long[] table, long fingerprint) {
+        int mask = table.length - 1;
+        for (int i = (int) fingerprint & mask;; i = (i + 1) & mask) {
+            if (table[i] == EMPTY) {
+                table[i] = fingerprint;
+                return true;
+            }
+            if (table[i] == fingerprint) {
+                return false;
+            }
+        }
+    }
+
+    private static long[] grow(long[] table) {
+        long[] grown = new long[table.length * 2];
+        for (long fingerprint : table) {
+            if (fingerprint != EMPTY) {
+                insert(grown, fingerprint);
+            }
+        }
+        return grown;
+    }
+
+    static String normalize(String url) {
+        try {
+            URI uri = new URI(url);
+            if (uri.getScheme() == null || uri.getHost() == null) {
+                return url;
+            }
+            String scheme = uri.getScheme().toLowerCase(Locale.ROOT);
+            int port = uri.getPort();
+            if ((scheme.equals("http") && port == 80) || (scheme.equals("https") && port == 443)) {
+                port = -1;
+            }
+            String path = uri.getRawPath() == null || uri.getRawPath().isEmpty() ? "/" : uri.getRawPath();
+            return scheme + "://" + uri.getHost().toLowerCase(Locale.ROOT) + (port < 0 ? "" : ":" + port) + path
+                    + (uri.getRawQuery() == null ? "" : "?" + uri.getRawQuery());
+        } catch (URISyntaxException e) {
+            return url;
+        }
+    }
+
+    private static long fingerprint(String url) {
+        // FNV-1a over the chars, finished with the MurmurHash3 mixer; 0 is reserved for empty
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < url.length(); i++) {
+            hash ^= url.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash == EMPTY ? 1 : hash;
+    }
+}
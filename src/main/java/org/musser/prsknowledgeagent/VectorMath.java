@@ -0,0 +1,78 @@
+package org.musser.prsknowledgeagent;
+
+import java.nio.FloatBuffer;
+
+/**
+ * Dot products and normalization for the vector stores and the answer cache. Vectors are
+ * normalized once when stored, so cosine similarity is a plain dot product at query time.
+ *
+ * The dot products keep four independent accumulators, which lets the JIT keep several
+ * multiply-adds in flight instead of waiting on one running sum.
+ */
+final class VectorMath {
+
+    private VectorMath() {
+    }
+
+    static float dot(float[] a, float[] b) {
+        return dot(a, 0, b, 0, a.length);
+    }
+
+    static float dot(float[] a, int offsetA, float[] b, int offsetB, int length) {
+        float s0 = 0;
+        float s1 = 0;
+        float s2 = 0;
+        float s3 = 0;
+        int d = 0;
+        for (int end = length & ~3; d < end; d += 4) {
+            s0 += a[offsetA + d] * b[offsetB + d];
+            s1 += a[offsetA + d + 1] * b[offsetB + d + 1];
+            s2 += a[offsetA + d + 2] * b[offsetB + d + 2];
+            s3 += a[offsetA + d + 3] * b[offsetB + d + 3];
+        }
+        for (; d < length; d++) {
+            s0 += a[offsetA + d] * b[offsetB + d];
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    /**
+     * @param offset where the other vector starts in {@code vectors}; it is {@code query.length} long
+     */
+    static float dot(float[] query, FloatBuffer vectors, int offset) {
+        float s0 = 0;
+        float s1 = 0;
+        float s2 = 0;
+        float s3 = 0;
+        int d = 0;
+        for (int end = query.length & ~3; d < end; d += 4) {
+            s0 += query[d] * vectors.get(offset + d);
+            s1 += query[d + 1] * vectors.get(offset + d + 1);
+            s2 += query[d + 2] * vectors.get(offset + d + 2);
+            s3 += query[d + 3] * vectors.get(offset + d + 3);
+        }
+        for (; d < query.length; d++) {
+            s0 += query[d] * vectors.get(offset + d);
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    /**
+     * @return a unit-length copy of {@code vector}, or all zeros if it has no length
+     */
+    static float[] normalized(float[] vector) {
+        double norm = 0;
+        for (float v : vector) {
+            norm += v * v;
+        }
+        norm = Math.sqrt(norm);
+        float[] result = new float[vector.length];
+        if (norm > 0) {
+            float inv = (float) (1.0 / norm);
+            for (int i = 0; i < vector.length; i++) {
+                result[i] = vector[i] * inv;
+            }
+        }
+        return result;
+    }
+}
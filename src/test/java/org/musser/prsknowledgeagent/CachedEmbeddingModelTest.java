@@ -0,0 +1,68 @@
+package org.musser.prsknowledgeagent;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.jupiter.api.Test;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.output.Response;
+
+class CachedEmbeddingModelTest {
+
+    /**
+     * Embeds a text as its length and first character, so different spellings get different
+     * vectors.
+     */
+    private static final class RecordingEmbeddingModel implements EmbeddingModel {
+
+        final List<String> embedded = new CopyOnWriteArrayList<>();
+
+        @Override
+        public Response<List<Embedding>> embedAll(List<TextSegment> textSegments) {
+            return Response.from(textSegments.stream().map(segment -> {
+                embedded.add(segment.text());
+                return Embedding.from(new float[] { segment.text().length(), segment.text().charAt(0) });
+            }).toList());
+        }
+    }
+
+    private final RecordingEmbeddingModel delegate = new RecordingEmbeddingModel();
+
+    @Test
+    void variantsShareTheVectorOfTheNormalizedQuestion() {
+        CachedEmbeddingModel model = model();
+
+        Embedding shouted = model.embed("  WHICH pickups does the Custom 24 have??").content();
+        Embedding plain = model.embed("which pickups does the custom 24 have").content();
+
+        assertThat(delegate.embedded).containsExactly("which pickups does the custom 24 have");
+        assertThat(shouted.vector()).isEqualTo(plain.vector());
+    }
+
+    @Test
+    void vectorDoesNotDependOnWhichVariantArrivesFirst() {
+        Embedding first = model().embed("Which pickups does the Custom 24 have?").content();
+        Embedding second = model().embed("which pickups  does the custom 24 have").content();
+
+        assertThat(first.vector()).isEqualTo(second.vector());
+    }
+
+    @Test
+    void callersCannotChangeTheCachedVector() {
+        CachedEmbeddingModel model = model();
+        model.embed("What is a McCarty?").content().vector()[0] = -1;
+
+        assertThat(model.embed("What is a McCarty?").content().vector()[0]).isPositive();
+    }
+
+    private CachedEmbeddingModel model() {
+        return new CachedEmbeddingModel(delegate, 100, Duration.ofMinutes(10),
+                ConcurrencyLimiter.fixed("embedding", 1, Duration.ofSeconds(1)));
+    }
+}
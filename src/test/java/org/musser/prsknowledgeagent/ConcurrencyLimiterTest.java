@@ -0,0 +1,159 @@
+package org.musser.prsknowledgeagent;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+class ConcurrencyLimiterTest {
+
+    private static final long FAST = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final long SLOW = TimeUnit.MILLISECONDS.toNanos(500);
+
+    @Test
+    void droppedCallHalvesLimit() {
+        ConcurrencyLimiter limiter = adaptive(16);
+
+        limiter.acquire().dropped();
+        assertThat(limiter.limit()).isEqualTo(8);
+        limiter.acquire().dropped();
+        assertThat(limiter.limit()).isEqualTo(4);
+    }
+
+    @Test
+    void limitNeverDropsBelowMinimum() {
+        ConcurrencyLimiter limiter = adaptive(2);
+
+        for (int i = 0; i < 5; i++) {
+            limiter.acquire().dropped();
+        }
+
+        assertThat(limiter.limit()).isEqualTo(1);
+    }
+
+    @Test
+    void growsWhileBusyAndLatencyStaysNearBaseline() {
+        ConcurrencyLimiter limiter = adaptive(4);
+
+        for (int round = 0; round < 20; round++) {
+            releaseAll(holdAll(limiter), FAST);
+        }
+
+        assertThat(limiter.limit()).isGreaterThan(4);
+    }
+
+    @Test
+    void doesNotGrowWhileMostlyIdle() {
+        ConcurrencyLimiter limiter = adaptive(4);
+
+        for (int i = 0; i < 100; i++) {
+            limiter.acquire().success(FAST);
+        }
+
+        assertThat(limiter.limit()).isEqualTo(4);
+    }
+
+    @Test
+    void shrinksWhenLatencyRisesAboveRecentMinimum() {
+        ConcurrencyLimiter limiter = adaptive(20);
+        limiter.acquire().success(FAST);
+
+        limiter.acquire().success(SLOW);
+
+        assertThat(limiter.limit()).isEqualTo(18);
+    }
+
+    @Test
+    void baselineFollowsLastingSlowdownAfterTwoWindows() {
+        ConcurrencyLimiter limiter = adaptive(64);
+        limiter.acquire().success(FAST);
+
+        // The fast sample stays the baseline for the rest of its window and all of the next one
+        for (int i = 1; i < 2 * ConcurrencyLimiter.BASELINE_WINDOW; i++) {
+            limiter.acquire().success(SLOW);
+        }
+        int limit = limiter.limit();
+        assertThat(limit).isLessThan(64);
+
+        // Now the slow latency is the baseline, so a busy limiter grows again
+        limiter.acquire().success(SLOW);
+        assertThat(limiter.limit()).isGreaterThan(limit);
+    }
+
+    @Test
+    void rejectsImmediatelyWhenQueueIsFull() {
+        ConcurrencyLimiter limiter = ConcurrencyLimiter.adaptive("test", 1, 1, 4, 0, Duration.ofSeconds(10));
+        ConcurrencyLimiter.Permit held = limiter.acquire();
+
+        long start = System.nanoTime();
+        assertThatThrownBy(limiter::acquire).isInstanceOf(ConcurrencyLimiter.LimitExceededException.class)
+                .hasMessageContaining("limit 1");
+
+        assertThat(System.nanoTime() - start).isLessThan(TimeUnit.SECONDS.toNanos(1));
+        assertThat(limiter.rejected()).isEqualTo(1);
+        held.close();
+        limiter.acquire().close();
+    }
+
+    @Test
+    void rejectsQueuedCallerWhenWaitRunsOut() {
+        ConcurrencyLimiter limiter = ConcurrencyLimiter.fixed("test", 1, Duration.ofMillis(50));
+        ConcurrencyLimiter.Permit held = limiter.acquire();
+
+        assertThatThrownBy(limiter::acquire).isInstanceOf(ConcurrencyLimiter.LimitExceededException.class);
+
+        assertThat(limiter.waiting()).isZero();
+        held.close();
+    }
+
+    @Test
+    void queuedCallerGetsReleasedPermit() throws InterruptedException {
+        ConcurrencyLimiter limiter = ConcurrencyLimiter.fixed("test", 1, Duration.ofSeconds(10));
+        ConcurrencyLimiter.Permit held = limiter.acquire();
+        Thread waiter = Thread.ofVirtual().start(() -> limiter.acquire().close());
+        while (limiter.waiting() == 0) {
+            Thread.sleep(1);
+        }
+
+        held.success();
+        waiter.join(TimeUnit.SECONDS.toMillis(10));
+
+        assertThat(waiter.isAlive()).isFalse();
+        assertThat(limiter.inFlight()).isZero();
+        assertThat(limiter.rejected()).isZero();
+    }
+
+    @Test
+    void permitIsReleasedOnlyOnce() {
+        ConcurrencyLimiter limiter = adaptive(8);
+        ConcurrencyLimiter.Permit permit = limiter.acquire();
+
+        permit.dropped();
+        permit.dropped();
+        permit.close();
+
+        assertThat(limiter.limit()).isEqualTo(4);
+        assertThat(limiter.inFlight()).isZero();
+    }
+
+    private static ConcurrencyLimiter adaptive(int initialLimit) {
+        return ConcurrencyLimiter.adaptive("test", initialLimit, 1, 64, 100, Duration.ofSeconds(1));
+    }
+
+    private static List<ConcurrencyLimiter.Permit> holdAll(ConcurrencyLimiter limiter) {
+        List<ConcurrencyLimiter.Permit> permits = new ArrayList<>();
+        for (int i = limiter.limit(); i > 0; i--) {
+            permits.add(limiter.acquire());
+        }
+        return permits;
+    }
+
+    private static void releaseAll(List<ConcurrencyLimiter.Permit> permits, long latencyNanos) {
+        permits.forEach(permit -> permit.success(latencyNanos));
+    }
+}
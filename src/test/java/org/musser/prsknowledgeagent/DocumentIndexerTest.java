@@ -0,0 +1,43 @@
+package org.musser.prsknowledgeagent;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.jupiter.api.Test;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.output.Response;
+
+class DocumentIndexerTest {
+
+    private static class ConstantEmbeddingModel implements EmbeddingModel {
+
+        @Override
+        public Response<List<Embedding>> embedAll(List<TextSegment> textSegments) {
+            return Response.from(textSegments.stream().map(segment -> Embedding.from(new float[] { 1 })).toList());
+        }
+    }
+
+    @Test
+    void snapshotFingerprintIdentifiesTheModelBehindThePreloadingWrapper() {
+        String direct = fingerprint(new ConstantEmbeddingModel());
+
+        // The model is never loaded: naming it must be enough
+        String wrapped = fingerprint(new PreloadedEmbeddingModel(ConstantEmbeddingModel.class.getName(),
+                new CompletableFuture<>()));
+        String otherModel = fingerprint(new PreloadedEmbeddingModel("other-model", new CompletableFuture<>()));
+
+        assertThat(wrapped).isEqualTo(direct);
+        assertThat(otherModel).isNotEqualTo(direct);
+    }
+
+    private static String fingerprint(EmbeddingModel embeddingModel) {
+        return new DocumentIndexer(new FlatVectorStore(), embeddingModel, null, new IngestionStatus(),
+                Path.of("unused.bin"), 64, 1, true, null).fingerprint();
+    }
+}
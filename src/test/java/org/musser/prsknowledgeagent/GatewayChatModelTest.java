@@ -0,0 +1,181 @@
+package org.musser.prsknowledgeagent;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.exception.RateLimitException;
+import dev.langchain4j.exception.TimeoutException;
+import dev.langchain4j.memory.chat.MessageWindowChatMemory;
+import dev.langchain4j.model.chat.ChatModel;
+import dev.langchain4j.model.chat.request.ChatRequest;
+import dev.langchain4j.model.chat.response.ChatResponse;
+import dev.langchain4j.service.AiServices;
+
+class GatewayChatModelTest {
+
+    private static final int CALLERS = 8;
+    private static final ChatRequest REQUEST = request("Which pickups does the Custom 24 have?");
+
+    /**
+     * Answers once released, failing with {@code failure} if set.
+     */
+    private static final class BlockingChatModel implements ChatModel {
+
+        final AtomicInteger calls = new AtomicInteger();
+        final CountDownLatch release = new CountDownLatch(1);
+        volatile RuntimeException failure;
+
+        @Override
+        public ChatResponse doChat(ChatRequest request) {
+            int call = calls.incrementAndGet();
+            try {
+                release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            return ChatResponse.builder().aiMessage(AiMessage.from("Answer " + call)).build();
+        }
+    }
+
+    private final BlockingChatModel upstream = new BlockingChatModel();
+    private final ConcurrencyLimiter limiter = ConcurrencyLimiter.adaptive("chat", 8, 1, 16, 100,
+            Duration.ofSeconds(10));
+    private final GatewayChatModel gateway = new GatewayChatModel(upstream, limiter, RagMetrics.disabled());
+
+    @Test
+    void identicalConcurrentRequestsShareOneUpstreamCall() throws Exception {
+        try (ExecutorService callers = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<ChatResponse>> responses = new ArrayList<>();
+            for (int i = 0; i < CALLERS; i++) {
+                responses.add(callers.submit(() -> gateway.chat(REQUEST)));
+            }
+            await(() -> gateway.coalesced() == CALLERS - 1);
+            upstream.release.countDown();
+
+            for (Future<ChatResponse> response : responses) {
+                assertThat(response.get(10, TimeUnit.SECONDS).aiMessage().text()).isEqualTo("Answer 1");
+            }
+        }
+        assertThat(upstream.calls).hasValue(1);
+        assertThat(limiter.inFlight()).isZero();
+    }
+
+    @Test
+    void differentRequestsAreNotCoalesced() throws Exception {
+        try (ExecutorService callers = Executors.newVirtualThreadPerTaskExecutor()) {
+            Future<ChatResponse> first = callers.submit(() -> gateway.chat(REQUEST));
+            Future<ChatResponse> second = callers.submit(() -> gateway.chat(request("What is a McCarty?")));
+            await(() -> upstream.calls.get() == 2);
+            upstream.release.countDown();
+            first.get(10, TimeUnit.SECONDS);
+            second.get(10, TimeUnit.SECONDS);
+        }
+        assertThat(gateway.coalesced()).isZero();
+    }
+
+    @Test
+    void sequentialRequestsEachCallUpstream() {
+        upstream.release.countDown();
+
+        gateway.chat(REQUEST);
+        gateway.chat(REQUEST);
+
+        assertThat(upstream.calls).hasValue(2);
+        assertThat(gateway.coalesced()).isZero();
+    }
+
+    @Test
+    void upstreamFailureReachesEveryCoalescedCaller() throws Exception {
+        upstream.failure = new RateLimitException("Too many requests");
+        try (ExecutorService callers = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<ChatResponse>> responses = new ArrayList<>();
+            for (int i = 0; i < CALLERS; i++) {
+                responses.add(callers.submit(() -> gateway.chat(REQUEST)));
+            }
+            await(() -> gateway.coalesced() == CALLERS - 1);
+            upstream.release.countDown();
+
+            for (Future<ChatResponse> response : responses) {
+                assertThatThrownBy(() -> response.get(10, TimeUnit.SECONDS))
+                        .hasCauseInstanceOf(RateLimitException.class);
+            }
+        }
+        assertThat(upstream.calls).hasValue(1);
+    }
+
+    @Test
+    void rateLimitAndTimeoutHalveTheLimit() {
+        upstream.release.countDown();
+
+        upstream.failure = new RateLimitException("Too many requests");
+        assertThatThrownBy(() -> gateway.chat(REQUEST)).isInstanceOf(RateLimitException.class);
+        assertThat(limiter.limit()).isEqualTo(4);
+
+        upstream.failure = new TimeoutException("Read timed out");
+        assertThatThrownBy(() -> gateway.chat(REQUEST)).isInstanceOf(TimeoutException.class);
+        assertThat(limiter.limit()).isEqualTo(2);
+
+        upstream.failure = new IllegalStateException("Bad request");
+        assertThatThrownBy(() -> gateway.chat(REQUEST)).isInstanceOf(IllegalStateException.class);
+        assertThat(limiter.limit()).isEqualTo(2);
+        assertThat(limiter.inFlight()).isZero();
+    }
+
+    @Test
+    void fullQueueAnswers503() throws Exception {
+        ConcurrencyLimiter saturated = ConcurrencyLimiter.adaptive("chat", 1, 1, 4, 0, Duration.ofSeconds(10));
+        ConcurrencyLimiter.Permit held = saturated.acquire();
+        PRSKnowledgeAgent agent = AiServices.builder(PRSKnowledgeAgent.class)
+                .chatModel(new GatewayChatModel(upstream, saturated, RagMetrics.disabled()))
+                .chatMemoryProvider(id -> MessageWindowChatMemory.withMaxMessages(10))
+                .build();
+        IngestionStatus ingestionStatus = new IngestionStatus();
+        ingestionStatus.ready();
+        MockMvc mockMvc = MockMvcBuilders.standaloneSetup(new PRSKnowledgeAgentController(agent, ingestionStatus,
+                Duration.ZERO, null, false, null, null, null, Duration.ofMinutes(1), RagMetrics.disabled()))
+                .build();
+
+        mockMvc.perform(get("/prsKnowledgeAgent").param("sessionId", "busy-test").param("userMessage", "Hi"))
+                .andExpect(status().isServiceUnavailable())
+                .andExpect(header().string("Retry-After", "5"));
+
+        assertThat(upstream.calls).hasValue(0);
+        assertThat(saturated.rejected()).isEqualTo(1);
+        held.close();
+    }
+
+    static ChatRequest request(String question) {
+        return ChatRequest.builder().messages(UserMessage.from(question)).build();
+    }
+
+    static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!condition.getAsBoolean()) {
+            assertThat(System.nanoTime()).as("condition reached in time").isLessThan(deadline);
+            Thread.sleep(1);
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package org.musser.prsknowledgeagent;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.musser.prsknowledgeagent.GatewayChatModelTest.await;
+import static org.musser.prsknowledgeagent.GatewayChatModelTest.request;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.jupiter.api.Test;
+
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.exception.RateLimitException;
+import dev.langchain4j.model.chat.StreamingChatModel;
+import dev.langchain4j.model.chat.request.ChatRequest;
+import dev.langchain4j.model.chat.response.ChatResponse;
+import dev.langchain4j.model.chat.response.StreamingChatResponseHandler;
+
+class GatewayStreamingChatModelTest {
+
+    private static final int CALLERS = 8;
+    private static final ChatRequest REQUEST = request("Which pickups does the Custom 24 have?");
+    private static final ChatResponse RESPONSE = ChatResponse.builder()
+            .aiMessage(AiMessage.from("Two humbuckers")).build();
+
+    /**
+     * Records each stream it is asked for, with the call bound at the time, and leaves sending
+     * the tokens to the test.
+     */
+    private static final class ManualStreamingChatModel implements StreamingChatModel {
+
+        final List<StreamingChatResponseHandler> streams = new CopyOnWriteArrayList<>();
+        final List<StreamingCall> calls = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void doChat(ChatRequest request, StreamingChatResponseHandler handler) {
+            calls.add(StreamingCall.current());
+            streams.add(handler);
+        }
+
+        StreamingChatResponseHandler stream() {
+            assertThat(streams).hasSize(1);
+            return streams.get(0);
+        }
+    }
+
+    private static final class RecordingHandler implements StreamingChatResponseHandler {
+
+        final StringBuffer text = new StringBuffer();
+        volatile ChatResponse response;
+        volatile Throwable error;
+
+        @Override
+        public void onPartialResponse(String partialResponse) {
+            text.append(partialResponse);
+        }
+
+        @Override
+        public void onCompleteResponse(ChatResponse completeResponse) {
+            response = completeResponse;
+        }
+
+        @Override
+        public void onError(Throwable error) {
+            this.error = error;
+        }
+    }
+
+    private final ManualStreamingChatModel upstream = new ManualStreamingChatModel();
+    private final ConcurrencyLimiter limiter = ConcurrencyLimiter.adaptive("chat", 8, 1, 16, 100,
+            Duration.ofSeconds(10));
+    private final GatewayStreamingChatModel gateway = new GatewayStreamingChatModel(upstream, limiter,
+            RagMetrics.disabled());
+
+    @Test
+    void identicalConcurrentStreamsShareOneUpstreamStream() throws Exception {
+        List<RecordingHandler> handlers = new ArrayList<>();
+        try (ExecutorService callers = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < CALLERS; i++) {
+                RecordingHandler handler = new RecordingHandler();
+                handlers.add(handler);
+                callers.submit(() -> gateway.chat(REQUEST, handler));
+            }
+        }
+        await(() -> gateway.coalesced() == CALLERS - 1);
+
+        upstream.stream().onPartialResponse("Two ");
+        upstream.stream().onPartialResponse("humbuckers");
+        upstream.stream().onCompleteResponse(RESPONSE);
+
+        assertThat(handlers).allSatisfy(handler -> {
+            assertThat(handler.text).hasToString("Two humbuckers");
+            assertThat(handler.response).isSameAs(RESPONSE);
+        });
+        assertThat(limiter.inFlight()).isZero();
+    }
+
+    @Test
+    void lateCallerFirstGetsTokensItMissed() {
+        RecordingHandler first = new RecordingHandler();
+        RecordingHandler late = new RecordingHandler();
+        gateway.chat(REQUEST, first);
+        upstream.stream().onPartialResponse("Two ");
+
+        gateway.chat(REQUEST, late);
+        upstream.stream().onPartialResponse("humbuckers");
+        upstream.stream().onCompleteResponse(RESPONSE);
+
+        assertThat(late.text).hasToString("Two humbuckers");
+        assertThat(late.response).isSameAs(RESPONSE);
+        assertThat(gateway.coalesced()).isEqualTo(1);
+    }
+
+    @Test
+    void finishedStreamIsNotJoined() {
+        gateway.chat(REQUEST, new RecordingHandler());
+        upstream.stream().onCompleteResponse(RESPONSE);
+
+        gateway.chat(REQUEST, new RecordingHandler());
+
+        assertThat(upstream.streams).hasSize(2);
+        assertThat(gateway.coalesced()).isZero();
+    }
+
+    @Test
+    void upstreamIsAbortedOnlyOnceEveryCallerCancelled() {
+        RecordingHandler first = new RecordingHandler();
+        RecordingHandler second = new RecordingHandler();
+        StreamingCall firstCall = start(first);
+        StreamingCall secondCall = start(second);
+        StreamingCall upstreamCall = upstream.calls.get(0);
+        assertThat(upstreamCall).isNotIn(firstCall, secondCall);
+
+        firstCall.cancel();
+        upstream.stream().onPartialResponse("Two ");
+        assertThat(upstreamCall.cancelled()).isFalse();
+        assertThat(first.text).isEmpty();
+        assertThat(second.text).hasToString("Two ");
+
+        secondCall.cancel();
+        assertThat(upstreamCall.cancelled()).isTrue();
+
+        // A new identical request does not join the abandoned stream
+        gateway.chat(REQUEST, new RecordingHandler());
+        assertThat(upstream.streams).hasSize(2);
+    }
+
+    @Test
+    void upstreamErrorReachesEveryCallerAndHalvesTheLimit() {
+        RecordingHandler first = new RecordingHandler();
+        RecordingHandler second = new RecordingHandler();
+        gateway.chat(REQUEST, first);
+        gateway.chat(REQUEST, second);
+
+        upstream.stream().onError(new RateLimitException("Too many requests"));
+
+        assertThat(first.error).isInstanceOf(RateLimitException.class);
+        assertThat(second.error).isInstanceOf(RateLimitException.class);
+        assertThat(limiter.limit()).isEqualTo(4);
+        assertThat(limiter.inFlight()).isZero();
+    }
+
+    /**
+     * Starts a stream the way the controller does, with a call of its own bound meanwhile.
+     */
+    private StreamingCall start(StreamingChatResponseHandler handler) {
+        try (StreamingCall call = StreamingCall.open()) {
+            gateway.chat(REQUEST, handler);
+            return call;
+        }
+    }
+}
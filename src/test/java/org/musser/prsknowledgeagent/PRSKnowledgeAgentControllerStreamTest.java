@@ -0,0 +1,152 @@
+package org.musser.prsknowledgeagent;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.task.VirtualThreadTaskExecutor;
+import org.springframework.mock.web.MockAsyncContext;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import dev.langchain4j.http.client.spring.restclient.SpringRestClient;
+import dev.langchain4j.memory.chat.MessageWindowChatMemory;
+import dev.langchain4j.model.openai.OpenAiStreamingChatModel;
+import dev.langchain4j.service.AiServices;
+
+/**
+ * The SSE endpoint against a stub model that streams a long answer slowly: when the browser goes
+ * away mid-answer, the upstream HTTP call has to be aborted rather than read to the end.
+ */
+class PRSKnowledgeAgentControllerStreamTest {
+
+    private static final int CHUNKS = 200;
+
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicInteger chunksSent = new AtomicInteger();
+    private final CountDownLatch aborted = new CountDownLatch(1);
+    private HttpServer server;
+    private MockMvc mockMvc;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/v1/chat/completions", this::stream);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+
+        OpenAiStreamingChatModel openAi = OpenAiStreamingChatModel.builder()
+                .httpClientBuilder(new CancellableHttpClientBuilder(SpringRestClient.builder()
+                        .streamingRequestExecutor(new VirtualThreadTaskExecutor("test-stream-"))))
+                .apiKey("test")
+                .baseUrl("http://127.0.0.1:" + server.getAddress().getPort() + "/v1")
+                .modelName("stub")
+                .build();
+        PRSKnowledgeStreamingAgent streamingAgent = AiServices.builder(PRSKnowledgeStreamingAgent.class)
+                .streamingChatModel(new GatewayStreamingChatModel(openAi,
+                        ConcurrencyLimiter.fixed("test", 4, Duration.ofSeconds(1)), RagMetrics.disabled()))
+                .chatMemoryProvider(id -> MessageWindowChatMemory.withMaxMessages(10))
+                .build();
+        IngestionStatus ingestionStatus = new IngestionStatus();
+        ingestionStatus.ready();
+        PRSKnowledgeAgentController controller = new PRSKnowledgeAgentController(null, ingestionStatus,
+                Duration.ZERO, null, false, null, null, streamingAgent, Duration.ofMinutes(1), RagMetrics.disabled());
+        mockMvc = MockMvcBuilders.standaloneSetup(controller).build();
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    void browserDisconnectAbortsUpstreamCall() throws Exception {
+        MvcResult result = startStream();
+
+        for (AsyncListener listener : asyncContext(result).getListeners()) {
+            listener.onError(new AsyncEvent(asyncContext(result), new IOException("Broken pipe")));
+        }
+
+        assertAborted();
+    }
+
+    @Test
+    void timeoutAbortsUpstreamCall() throws Exception {
+        MvcResult result = startStream();
+
+        for (AsyncListener listener : asyncContext(result).getListeners()) {
+            listener.onTimeout(new AsyncEvent(asyncContext(result)));
+        }
+
+        assertAborted();
+    }
+
+    private MvcResult startStream() throws Exception {
+        MvcResult result = mockMvc.perform(get("/prsKnowledgeAgent/stream")
+                        .param("sessionId", "stream-test")
+                        .param("userMessage", "Which pickups does the Custom 24 have?"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!result.getResponse().getContentAsString().contains("event:token")) {
+            assertThat(System.nanoTime()).as("first token").isLessThan(deadline);
+            Thread.sleep(10);
+        }
+        return result;
+    }
+
+    private void assertAborted() throws InterruptedException {
+        assertThat(aborted.await(5, TimeUnit.SECONDS)).as("upstream call aborted").isTrue();
+        assertThat(requests).hasValue(1);
+        assertThat(chunksSent.get()).isLessThan(CHUNKS);
+    }
+
+    private static MockAsyncContext asyncContext(MvcResult result) {
+        return (MockAsyncContext) result.getRequest().getAsyncContext();
+    }
+
+    /**
+     * OpenAI-style chat completion stream of {@value #CHUNKS} chunks, 20 ms apart.
+     */
+    private void stream(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        exchange.getRequestBody().readAllBytes();
+        exchange.getResponseHeaders().set("Content-Type", "text/event-stream");
+        exchange.sendResponseHeaders(200, 0);
+        try (OutputStream out = exchange.getResponseBody()) {
+            for (int i = 0; i < CHUNKS; i++) {
+                out.write(("data: {\"id\":\"stub\",\"object\":\"chat.completion.chunk\",\"created\":1,\"model\":\"stub\","
+                        + "\"choices\":[{\"index\":0,\"delta\":{\"content\":\"guitar \"}}]}\n\n")
+                        .getBytes(StandardCharsets.UTF_8));
+                out.flush();
+                chunksSent.incrementAndGet();
+                Thread.sleep(20);
+            }
+            out.write("data: [DONE]\n\n".getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            aborted.countDown();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package org.musser.prsknowledgeagent;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Crawls of a small linked site served in process. Depths from the root: /forums/guitars and
+ * /threads/1 are 1, /threads/2 and /threads/3 are 2, /threads/4 and /threads/5 are 3.
+ */
+class PrsCrawlerTest {
+
+    private static final double REQUESTS_PER_SECOND = 20;
+    private static final String LAST_MODIFIED = "Wed, 01 Oct 2025 10:00:00 GMT";
+
+    private record Request(String path, long at, String ifNoneMatch, String ifModifiedSince, int status) {
+    }
+
+    private static final Map<String, List<String>> SITE = Map.of(
+            "/", List.of("/forums/guitars", "/threads/1", "/about"),
+            "/forums/guitars", List.of("/threads/2", "/threads/1"),
+            "/threads/1", List.of("/threads/3"),
+            "/threads/2", List.of("/threads/4"),
+            "/threads/3", List.of("/threads/5", "/"),
+            "/threads/4", List.of(),
+            "/threads/5", List.of());
+
+    @TempDir
+    Path dir;
+
+    private final Queue<Request> requests = new ConcurrentLinkedQueue<>();
+    private final AtomicReference<CountDownLatch> holdThread3 = new AtomicReference<>();
+    private final CountDownLatch thread3Requested = new CountDownLatch(1);
+    private HttpServer server;
+    private String siteUrl;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", this::serve);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+        siteUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    void crawlsUpToMaxDepthAtHostRate() throws IOException {
+        long start = System.nanoTime();
+        crawler().crawl(siteUrl, dir.resolve("out"), dir.resolve("prs-docs.txt"));
+
+        assertThat(requests).extracting(Request::path)
+                .containsExactlyInAnyOrder("/", "/forums/guitars", "/threads/1", "/threads/2", "/threads/3");
+        // One token of burst, then one request per 1/REQUESTS_PER_SECOND however many workers wait
+        long last = requests.stream().mapToLong(Request::at).max().orElseThrow();
+        assertThat(last - start).isGreaterThanOrEqualTo(
+                (long) ((requests.size() - 1) / REQUESTS_PER_SECOND * TimeUnit.SECONDS.toNanos(1)));
+        assertThat(output()).contains("Page /threads/3", "Page /forums/guitars").doesNotContain("Page /threads/4");
+    }
+
+    @Test
+    void recrawlSendsValidatorsAndKeepsNotModifiedPages() throws IOException {
+        crawler().crawl(siteUrl, dir.resolve("out"), dir.resolve("prs-docs.txt"));
+        String first = output();
+        requests.clear();
+
+        crawler().crawl(siteUrl, dir.resolve("out"), dir.resolve("prs-docs.txt"));
+
+        assertThat(requests).hasSize(5).allSatisfy(request -> assertThat(request.status()).isEqualTo(304));
+        assertThat(requests).filteredOn(request -> request.path().startsWith("/threads/"))
+                .allSatisfy(request -> assertThat(request.ifNoneMatch()).isEqualTo(etag(request.path())));
+        assertThat(requests).filteredOn(request -> !request.path().startsWith("/threads/"))
+                .allSatisfy(request -> assertThat(request.ifModifiedSince()).isEqualTo(LAST_MODIFIED));
+        assertThat(output()).isEqualTo(first);
+    }
+
+    @Test
+    void resumesInterruptedCrawlFromStateDir() throws Exception {
+        CountDownLatch hold = new CountDownLatch(1);
+        holdThread3.set(hold);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread crawl = Thread.ofPlatform().start(() -> {
+            try {
+                crawler().crawl(siteUrl, dir.resolve("out"), dir.resolve("prs-docs.txt"));
+            } catch (IOException | RuntimeException e) {
+                failure.set(e);
+            }
+        });
+        // /threads/3 is the last page; interrupt the crawl while it is being served
+        assertThat(thread3Requested.await(10, TimeUnit.SECONDS)).isTrue();
+        crawl.interrupt();
+        crawl.join(TimeUnit.SECONDS.toMillis(10));
+        hold.countDown();
+        holdThread3.set(null);
+        assertThat(failure.get()).hasMessage("Crawl interrupted");
+        assertThat(PageShardWriter.list(dir.resolve("out"))).isEmpty();
+        assertThat(Files.exists(dir.resolve("state").resolve("run"))).isTrue();
+        requests.clear();
+
+        crawler().crawl(siteUrl, dir.resolve("out"), dir.resolve("prs-docs.txt"));
+
+        // Only the page that was in flight is fetched again, the others come from the journal
+        assertThat(requests).extracting(Request::path).containsExactly("/threads/3");
+        assertThat(output()).contains("Page /", "Page /forums/guitars", "Page /threads/1", "Page /threads/2",
+                "Page /threads/3");
+        assertThat(Files.exists(dir.resolve("state").resolve("run"))).isFalse();
+    }
+
+    @Test
+    void failsWithoutReachingAnyPage() {
+        server.stop(0);
+        assertThatThrownBy(() -> crawler().crawl(siteUrl, dir.resolve("out"), dir.resolve("prs-docs.txt")))
+                .hasMessageContaining("keeping the previous output");
+    }
+
+    private PrsCrawler crawler() {
+        return new PrsCrawler(null, null, new CrawlEngine(8, REQUESTS_PER_SECOND, 1), 2, dir.resolve("state"), 2);
+    }
+
+    private String output() throws IOException {
+        StringBuilder text = new StringBuilder();
+        for (Path shard : PageShardWriter.list(dir.resolve("out"))) {
+            text.append(Files.readString(shard));
+        }
+        return text.toString();
+    }
+
+    private static String etag(String path) {
+        return "\"" + path.hashCode() + "\"";
+    }
+
+    /**
+     * Threads carry an ETag, the other pages a Last-Modified date; both answer a matching
+     * conditional GET with 304.
+     */
+    private void serve(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            String path = exchange.getRequestURI().getPath();
+            String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+            String ifModifiedSince = exchange.getRequestHeaders().getFirst("If-Modified-Since");
+            List<String> links = SITE.get(path);
+            int status = links == null ? 404
+                    : etag(path).equals(ifNoneMatch) || LAST_MODIFIED.equals(ifModifiedSince) ? 304 : 200;
+            requests.add(new Request(path, System.nanoTime(), ifNoneMatch, ifModifiedSince, status));
+            CountDownLatch hold = holdThread3.get();
+            if (hold != null && path.equals("/threads/3")) {
+                thread3Requested.countDown();
+                hold.await(10, TimeUnit.SECONDS);
+            }
+            if (path.startsWith("/threads/")) {
+                exchange.getResponseHeaders().set("ETag", etag(path));
+            } else {
+                exchange.getResponseHeaders().set("Last-Modified", LAST_MODIFIED);
+            }
+            if (status != 200) {
+                exchange.sendResponseHeaders(status, -1);
+                return;
+            }
+            StringBuilder html = new StringBuilder("<html><body><main><h1>Page " + path + "</h1><p>About " + path
+                    + " guitars.</p>");
+            for (String link : links) {
+                html.append("<a href=\"").append(link).append("\">").append(link).append("</a> ");
+            }
+            byte[] body = html.append("</main></body></html>").toString().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/html; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
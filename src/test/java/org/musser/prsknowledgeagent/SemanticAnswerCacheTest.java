@@ -0,0 +1,189 @@
+package org.musser.prsknowledgeagent;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.memory.chat.ChatMemoryProvider;
+import dev.langchain4j.memory.chat.MessageWindowChatMemory;
+import dev.langchain4j.model.chat.ChatModel;
+import dev.langchain4j.model.chat.request.ChatRequest;
+import dev.langchain4j.model.chat.response.ChatResponse;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.output.Response;
+import dev.langchain4j.service.AiServices;
+import dev.langchain4j.store.memory.chat.InMemoryChatMemoryStore;
+
+class SemanticAnswerCacheTest {
+
+    private static final String QUESTION = "Which pickups does the Custom 24 have?";
+    private static final String ANSWER = "<p>Two 85/15 humbuckers.</p>";
+
+    /**
+     * Bag of words: every word adds 1 to one of 64 dimensions, so questions sharing most of
+     * their words are close and questions sharing none are orthogonal.
+     */
+    private static class WordEmbeddingModel implements EmbeddingModel {
+
+        int calls;
+
+        @Override
+        public Response<List<Embedding>> embedAll(List<TextSegment> segments) {
+            List<Embedding> embeddings = new ArrayList<>();
+            for (TextSegment segment : segments) {
+                calls++;
+                float[] vector = new float[64];
+                for (String word : segment.text().toLowerCase(Locale.ROOT).split("[^a-z]+")) {
+                    if (!word.isEmpty()) {
+                        vector[Math.floorMod(word.hashCode(), vector.length)]++;
+                    }
+                }
+                embeddings.add(Embedding.from(vector));
+            }
+            return Response.from(embeddings);
+        }
+    }
+
+    /**
+     * Answers every question with a numbered answer, counting the calls.
+     */
+    private static class CountingChatModel implements ChatModel {
+
+        final AtomicInteger calls = new AtomicInteger();
+
+        @Override
+        public ChatResponse doChat(ChatRequest request) {
+            return ChatResponse.builder().aiMessage(AiMessage.from("<p>Answer " + calls.incrementAndGet() + "</p>"))
+                    .build();
+        }
+    }
+
+    private final WordEmbeddingModel embeddingModel = new WordEmbeddingModel();
+    private String indexVersion = "v1";
+    private SemanticAnswerCache cache;
+
+    @BeforeEach
+    void setUp() {
+        SharedRedisConnection redis = mock(SharedRedisConnection.class);
+        when(redis.sync()).thenThrow(new IllegalStateException("Redis unavailable"));
+        when(redis.async()).thenThrow(new IllegalStateException("Redis unavailable"));
+        cache = new SemanticAnswerCache(embeddingModel, redis, () -> indexVersion, 0.9, 100, Duration.ofHours(1),
+                Duration.ofHours(1), "test:answers:");
+    }
+
+    @Test
+    void servesNearIdenticalQuestionFromCache() {
+        cache.put(QUESTION, ANSWER);
+
+        assertThat(cache.lookup("which pickups does the Custom 24 have please")).isEqualTo(ANSWER);
+        assertThat(cache.hits()).isEqualTo(1);
+        assertThat(cache.misses()).isZero();
+    }
+
+    @Test
+    void missesQuestionBelowSimilarityThreshold() {
+        cache.put(QUESTION, ANSWER);
+
+        assertThat(cache.lookup("What is the scale length of a McCarty 594?")).isNull();
+        assertThat(cache.lookup("How do I adjust the truss rod?")).isNull();
+        assertThat(cache.hits()).isZero();
+        assertThat(cache.misses()).isEqualTo(2);
+    }
+
+    @Test
+    void indexVersionChangeInvalidatesAnswers() {
+        cache.put(QUESTION, ANSWER);
+        assertThat(cache.lookup(QUESTION)).isNotNull();
+
+        indexVersion = "v2";
+        assertThat(cache.lookup(QUESTION)).isNull();
+
+        cache.put(QUESTION, "<p>Two 85/15 S humbuckers.</p>");
+        assertThat(cache.lookup(QUESTION)).isEqualTo("<p>Two 85/15 S humbuckers.</p>");
+        assertThat(cache.size()).isEqualTo(1);
+    }
+
+    @Test
+    void embedsEachQuestionOnce() {
+        cache.put(QUESTION, ANSWER);
+        cache.lookup(QUESTION);
+        cache.lookup("What is the scale length of a McCarty 594?");
+        assertThat(embeddingModel.calls).isEqualTo(3);
+    }
+
+    @Test
+    void nearIdenticalFirstQuestionSkipsTheChatModel() throws Exception {
+        CountingChatModel chatModel = new CountingChatModel();
+        MockMvc mockMvc = controller(chatModel);
+
+        assertThat(ask(mockMvc, "first", QUESTION)).isEqualTo("<p>Answer 1</p>");
+        assertThat(chatModel.calls).hasValue(1);
+
+        assertThat(ask(mockMvc, "second", "which pickups does the Custom 24 have please"))
+                .isEqualTo("<p>Answer 1</p>");
+        assertThat(chatModel.calls).hasValue(1);
+        assertThat(cache.hits()).isEqualTo(1);
+    }
+
+    @Test
+    void differentQuestionOrFollowUpCallsTheChatModel() throws Exception {
+        CountingChatModel chatModel = new CountingChatModel();
+        MockMvc mockMvc = controller(chatModel);
+        ask(mockMvc, "first", QUESTION);
+
+        assertThat(ask(mockMvc, "second", "What is the scale length of a McCarty 594?"))
+                .isEqualTo("<p>Answer 2</p>");
+        assertThat(chatModel.calls).hasValue(2);
+
+        // Cached answers ignore conversation context, so a session's later questions always go to the model
+        assertThat(ask(mockMvc, "first", QUESTION)).isEqualTo("<p>Answer 3</p>");
+        assertThat(chatModel.calls).hasValue(3);
+    }
+
+    /**
+     * The blocking endpoint in front of an agent with the given chat model, this cache and chat
+     * memory held in process.
+     */
+    private MockMvc controller(ChatModel chatModel) {
+        InMemoryChatMemoryStore memoryStore = new InMemoryChatMemoryStore();
+        RedisChatMemoryStore chatMemoryStore = mock(RedisChatMemoryStore.class);
+        when(chatMemoryStore.getMessages(any())).thenAnswer(call -> memoryStore.getMessages(call.getArgument(0)));
+        ChatMemoryProvider chatMemoryProvider = id -> MessageWindowChatMemory.builder()
+                .id(id)
+                .maxMessages(10)
+                .chatMemoryStore(memoryStore)
+                .build();
+        PRSKnowledgeAgent agent = AiServices.builder(PRSKnowledgeAgent.class)
+                .chatModel(chatModel)
+                .chatMemoryProvider(chatMemoryProvider)
+                .build();
+        IngestionStatus ingestionStatus = new IngestionStatus();
+        ingestionStatus.ready();
+        return MockMvcBuilders.standaloneSetup(new PRSKnowledgeAgentController(agent, ingestionStatus, Duration.ZERO,
+                cache, true, chatMemoryStore, chatMemoryProvider, null, Duration.ofMinutes(1), RagMetrics.disabled()))
+                .build();
+    }
+
+    private static String ask(MockMvc mockMvc, String sessionId, String question) throws Exception {
+        return mockMvc.perform(get("/prsKnowledgeAgent").param("sessionId", sessionId).param("userMessage", question))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+    }
+}